@@ -0,0 +1,80 @@
+package com.athaydes.protobuf.tcp.internal;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the cost of invoking a tiny service method via reflection and via a {@link MethodInvoker}.
+ * <p>
+ * Run with {@code ./gradlew :protobuf-tcp-rpc:jmh}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MethodInvokerBenchmark {
+
+    public static class Calculator {
+        public int add(int a, int b) {
+            return a + b;
+        }
+
+        public String greet(String name) {
+            return name;
+        }
+    }
+
+    private final Calculator calculator = new Calculator();
+
+    private MethodInvoker reflectiveAdd;
+    private MethodInvoker invokerAdd;
+    private MethodInvoker reflectiveGreet;
+    private MethodInvoker invokerGreet;
+
+    private final Object[] addArgs = {1, 2};
+    private final Object[] greetArgs = {"Joe"};
+
+    @Setup
+    public void setup() throws NoSuchMethodException {
+        Method add = Calculator.class.getMethod("add", int.class, int.class);
+        Method greet = Calculator.class.getMethod("greet", String.class);
+
+        reflectiveAdd = MethodInvoker.reflective(add);
+        invokerAdd = MethodInvoker.of(add);
+        reflectiveGreet = MethodInvoker.reflective(greet);
+        invokerGreet = MethodInvoker.of(greet);
+    }
+
+    @Benchmark
+    public Object reflectionWithPrimitives() throws Exception {
+        return reflectiveAdd.invoke(calculator, addArgs);
+    }
+
+    @Benchmark
+    public Object invokerWithPrimitives() throws Exception {
+        return invokerAdd.invoke(calculator, addArgs);
+    }
+
+    @Benchmark
+    public Object reflectionWithObjects() throws Exception {
+        return reflectiveGreet.invoke(calculator, greetArgs);
+    }
+
+    @Benchmark
+    public Object invokerWithObjects() throws Exception {
+        return invokerGreet.invoke(calculator, greetArgs);
+    }
+
+}
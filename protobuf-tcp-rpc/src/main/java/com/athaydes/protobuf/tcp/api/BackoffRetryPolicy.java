@@ -0,0 +1,278 @@
+package com.athaydes.protobuf.tcp.api;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link RetryPolicy} that retries calls a limited number of times, with exponential backoff and jitter, within a
+ * retry budget.
+ * <p>
+ * The delay before each retry grows exponentially, from {@link Builder#initialBackoffMillis(long)} up to
+ * {@link Builder#maxBackoffMillis(long)}. A random part of the delay, given by {@link Builder#jitter(double)}, is
+ * subtracted from it, so that clients that failed at the same time do not retry at the same time.
+ * <p>
+ * Retries are also limited by a budget, so that they cannot multiply the load of a server that is already failing:
+ * each call adds {@link Builder#retryBudgetPercent(double)} percent of a retry to the budget, and each retry takes a
+ * whole retry from it. The budget starts with, and never holds more than, {@link Builder#maxRetryBurst(int)}
+ * retries. Retries are not made while the budget is exhausted.
+ * <p>
+ * Instances are created with a {@link Builder}, obtained from {@link #newBuilder()}. Each instance has its own
+ * budget, shared by all clients that use it.
+ */
+public final class BackoffRetryPolicy implements RetryPolicy {
+
+    /**
+     * Budget units of a whole retry, fine enough for budgets of a small fraction of a percent.
+     */
+    private static final long RETRY_COST = 1_000_000L;
+
+    private final int maxAttempts;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+    private final double backoffMultiplier;
+    private final double jitter;
+    private final double retryBudgetPercent;
+    private final int maxRetryBurst;
+
+    private final long budgetPerCall;
+    private final long maxBudget;
+    private final AtomicLong budget;
+
+    private BackoffRetryPolicy(Builder builder) {
+        this.maxAttempts = builder.maxAttempts;
+        this.initialBackoffMillis = builder.initialBackoffMillis;
+        this.maxBackoffMillis = builder.maxBackoffMillis;
+        this.backoffMultiplier = builder.backoffMultiplier;
+        this.jitter = builder.jitter;
+        this.retryBudgetPercent = builder.retryBudgetPercent;
+        this.maxRetryBurst = builder.maxRetryBurst;
+        this.budgetPerCall = budgetPerCall(retryBudgetPercent);
+        this.maxBudget = maxRetryBurst * RETRY_COST;
+        this.budget = new AtomicLong(maxBudget);
+    }
+
+    private static long budgetPerCall(double retryBudgetPercent) {
+        return Math.round(retryBudgetPercent * RETRY_COST / 100.0);
+    }
+
+    /**
+     * @return a new builder of {@link BackoffRetryPolicy}.
+     */
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    @Override
+    public void onCall(Method method) {
+        if (budgetPerCall > 0L && budget.get() < maxBudget) {
+            budget.getAndUpdate(value -> Math.min(maxBudget, value + budgetPerCall));
+        }
+    }
+
+    @Override
+    public long retryDelayMillis(Method method, int failedAttempts, IOException error) {
+        if (failedAttempts >= maxAttempts || !takeRetryFromBudget()) {
+            return -1L;
+        }
+        double backoff = Math.min(maxBackoffMillis,
+                initialBackoffMillis * Math.pow(backoffMultiplier, failedAttempts - 1));
+        return Math.round(backoff * (1.0 - jitter * ThreadLocalRandom.current().nextDouble()));
+    }
+
+    private boolean takeRetryFromBudget() {
+        while (true) {
+            long current = budget.get();
+            if (current < RETRY_COST) {
+                return false;
+            }
+            if (budget.compareAndSet(current, current - RETRY_COST)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return the maximum number of attempts of each call, including the first one.
+     */
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * @return the delay, in milliseconds, before the first retry, before jitter.
+     */
+    public long getInitialBackoffMillis() {
+        return initialBackoffMillis;
+    }
+
+    /**
+     * @return the maximum delay, in milliseconds, before a retry, before jitter.
+     */
+    public long getMaxBackoffMillis() {
+        return maxBackoffMillis;
+    }
+
+    /**
+     * @return the factor by which the delay grows after each retry.
+     */
+    public double getBackoffMultiplier() {
+        return backoffMultiplier;
+    }
+
+    /**
+     * @return the fraction of the delay that may be randomly subtracted from it.
+     */
+    public double getJitter() {
+        return jitter;
+    }
+
+    /**
+     * @return the percentage of a retry added to the budget by each call.
+     */
+    public double getRetryBudgetPercent() {
+        return retryBudgetPercent;
+    }
+
+    /**
+     * @return the maximum number of retries the budget holds.
+     */
+    public int getMaxRetryBurst() {
+        return maxRetryBurst;
+    }
+
+    @Override
+    public String toString() {
+        return "BackoffRetryPolicy{" +
+                "maxAttempts=" + maxAttempts +
+                ", initialBackoffMillis=" + initialBackoffMillis +
+                ", maxBackoffMillis=" + maxBackoffMillis +
+                ", backoffMultiplier=" + backoffMultiplier +
+                ", jitter=" + jitter +
+                ", retryBudgetPercent=" + retryBudgetPercent +
+                ", maxRetryBurst=" + maxRetryBurst +
+                '}';
+    }
+
+    /**
+     * Builder of {@link BackoffRetryPolicy}.
+     */
+    public static final class Builder {
+
+        private int maxAttempts = 3;
+        private long initialBackoffMillis = 25L;
+        private long maxBackoffMillis = 1_000L;
+        private double backoffMultiplier = 2.0;
+        private double jitter = 0.5;
+        private double retryBudgetPercent = 10.0;
+        private int maxRetryBurst = 10;
+
+        private Builder() {
+        }
+
+        /**
+         * @param maxAttempts maximum number of attempts of each call, including the first one (default: 3).
+         *                    1 disables retries.
+         * @return this builder
+         */
+        public Builder maxAttempts(int maxAttempts) {
+            if (maxAttempts < 1) {
+                throw new IllegalArgumentException("maxAttempts must be positive");
+            }
+            this.maxAttempts = maxAttempts;
+            return this;
+        }
+
+        /**
+         * @param initialBackoffMillis delay, in milliseconds, before the first retry (default: 25)
+         * @return this builder
+         */
+        public Builder initialBackoffMillis(long initialBackoffMillis) {
+            if (initialBackoffMillis < 0) {
+                throw new IllegalArgumentException("initialBackoffMillis must not be negative");
+            }
+            this.initialBackoffMillis = initialBackoffMillis;
+            return this;
+        }
+
+        /**
+         * @param maxBackoffMillis maximum delay, in milliseconds, before a retry (default: 1000)
+         * @return this builder
+         */
+        public Builder maxBackoffMillis(long maxBackoffMillis) {
+            if (maxBackoffMillis < 0) {
+                throw new IllegalArgumentException("maxBackoffMillis must not be negative");
+            }
+            this.maxBackoffMillis = maxBackoffMillis;
+            return this;
+        }
+
+        /**
+         * @param backoffMultiplier factor by which the delay grows after each retry (default: 2)
+         * @return this builder
+         */
+        public Builder backoffMultiplier(double backoffMultiplier) {
+            if (backoffMultiplier < 1.0) {
+                throw new IllegalArgumentException("backoffMultiplier must not be less than 1");
+            }
+            this.backoffMultiplier = backoffMultiplier;
+            return this;
+        }
+
+        /**
+         * @param jitter fraction of the delay, between 0 and 1, that may be randomly subtracted from it
+         *               (default: 0.5). 0 disables jitter, and 1 makes the delay anything between 0 and the backoff.
+         * @return this builder
+         */
+        public Builder jitter(double jitter) {
+            if (jitter < 0.0 || jitter > 1.0) {
+                throw new IllegalArgumentException("jitter must be between 0 and 1");
+            }
+            this.jitter = jitter;
+            return this;
+        }
+
+        /**
+         * @param retryBudgetPercent percentage of a retry added to the budget by each call (default: 10), i.e.
+         *                           retries are limited to this percentage of the calls, in addition to the
+         *                           retries held by the budget. Must be either 0, or at least 0.0001.
+         * @return this builder
+         */
+        public Builder retryBudgetPercent(double retryBudgetPercent) {
+            if (retryBudgetPercent < 0.0) {
+                throw new IllegalArgumentException("retryBudgetPercent must not be negative");
+            }
+            if (retryBudgetPercent > 0.0 && budgetPerCall(retryBudgetPercent) == 0L) {
+                throw new IllegalArgumentException("retryBudgetPercent is too small to ever add to the budget");
+            }
+            this.retryBudgetPercent = retryBudgetPercent;
+            return this;
+        }
+
+        /**
+         * @param maxRetryBurst number of retries the budget starts with, and maximum number of retries it may hold
+         *                      (default: 10)
+         * @return this builder
+         */
+        public Builder maxRetryBurst(int maxRetryBurst) {
+            if (maxRetryBurst < 0) {
+                throw new IllegalArgumentException("maxRetryBurst must not be negative");
+            }
+            this.maxRetryBurst = maxRetryBurst;
+            return this;
+        }
+
+        /**
+         * @return a new {@link BackoffRetryPolicy} with the values set in this builder.
+         * @throws IllegalArgumentException if initialBackoffMillis is greater than maxBackoffMillis
+         */
+        public BackoffRetryPolicy build() {
+            if (initialBackoffMillis > maxBackoffMillis) {
+                throw new IllegalArgumentException("initialBackoffMillis must not be greater than maxBackoffMillis");
+            }
+            return new BackoffRetryPolicy(this);
+        }
+    }
+
+}
@@ -0,0 +1,80 @@
+package com.athaydes.protobuf.tcp.api;
+
+/**
+ * Snapshot of the statistics of the buffer pool used by a remote service server.
+ * <p>
+ * The server leases buffers from its pool to read method invocations and to write results.
+ */
+public final class BufferPoolStatistics {
+
+    private final boolean direct;
+    private final long hits;
+    private final long misses;
+    private final long unpooled;
+    private final int idleBuffers;
+    private final long idleBytes;
+
+    public BufferPoolStatistics(boolean direct, long hits, long misses, long unpooled,
+                                int idleBuffers, long idleBytes) {
+        this.direct = direct;
+        this.hits = hits;
+        this.misses = misses;
+        this.unpooled = unpooled;
+        this.idleBuffers = idleBuffers;
+        this.idleBytes = idleBytes;
+    }
+
+    /**
+     * @return whether the pool holds direct buffers (as opposed to heap buffers).
+     */
+    public boolean isDirect() {
+        return direct;
+    }
+
+    /**
+     * @return number of leases served with a buffer from the pool.
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return number of leases for which the pool had to allocate a new buffer.
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return number of leases too large to be pooled, which were served with a new, unpooled buffer.
+     */
+    public long getUnpooled() {
+        return unpooled;
+    }
+
+    /**
+     * @return number of buffers currently available in the pool.
+     */
+    public int getIdleBuffers() {
+        return idleBuffers;
+    }
+
+    /**
+     * @return total capacity, in bytes, of the buffers currently available in the pool.
+     */
+    public long getIdleBytes() {
+        return idleBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "BufferPoolStatistics{" +
+                "direct=" + direct +
+                ", hits=" + hits +
+                ", misses=" + misses +
+                ", unpooled=" + unpooled +
+                ", idleBuffers=" + idleBuffers +
+                ", idleBytes=" + idleBytes +
+                '}';
+    }
+}
@@ -0,0 +1,35 @@
+package com.athaydes.protobuf.tcp.api;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a service method whose results may be cached by the server.
+ * <p>
+ * Successful results of such method are kept in the server's result cache for the given time, keyed by the method
+ * and the serialized arguments of the invocation. Invocations with byte-identical arguments received while the
+ * result is cached are answered with the cached result, without invoking the method again. Errors are never
+ * cached.
+ * <p>
+ * The cache is shared by all cacheable methods of a server, and its size is bounded by
+ * {@link ServerOptions.Builder#resultCacheMaxBytes(long)}. When the cache is full, the least recently used results
+ * are evicted. Statistics of the cache can be obtained with {@link ServiceReference#getResultCacheStatistics()}.
+ * <p>
+ * Only pure methods, whose result depends exclusively on their arguments, should be cacheable.
+ * <p>
+ * The annotation may be placed either on the method of the service implementation, or of the exported interface.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface Cacheable {
+
+    /**
+     * @return for how long, in milliseconds, results are kept in the cache.
+     */
+    long ttlMillis();
+
+}
@@ -0,0 +1,636 @@
+package com.athaydes.protobuf.tcp.api;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Configuration options for a remote service client.
+ * <p>
+ * Instances are immutable and can be created with a {@link Builder}, obtained from {@link #newBuilder()}.
+ * <p>
+ * Each client keeps a pool of connections to the remote service, so that several threads may call the same client
+ * concurrently. Each call leases a connection from the pool for its whole duration, and returns it to the pool when
+ * the result has been received. New connections are opened on demand, up to {@link Builder#maxConnections(int)}.
+ * When all connections are leased, callers wait for one to be returned for at most
+ * {@link Builder#leaseTimeoutMillis(long)}.
+ * <p>
+ * Connections that stay idle for longer than {@link Builder#idleTimeoutMillis(long)} are closed, except for the
+ * first {@link Builder#minConnections(int)} connections.
+ * <p>
+ * Alternatively, clients may share a few non-blocking, multiplexed connections with all other clients of the same
+ * remote service, see {@link Builder#multiplexedConnections(int)}. Multiplexed connections carry any number of
+ * concurrent calls, and results are matched to their callers by call ID. Calls made on a multiplexed connection
+ * within a short time window may also be sent together in a single batch, see {@link Builder#batchWindowMicros(long)}.
+ * <p>
+ * Statistics about the pool can be obtained with {@link RemoteServices#getConnectionPoolStatistics(Object)}.
+ * <p>
+ * Service methods that return a {@link java.util.concurrent.CompletableFuture} or a
+ * {@link java.util.concurrent.CompletionStage} are called asynchronously. Their futures are completed by the
+ * {@link Builder#executor(Executor) executor} of the client.
+ * <p>
+ * Clients may cache the results of selected methods, see {@link Builder#cacheResults(String, long)}.
+ * <p>
+ * Calls may be given a timeout, see {@link Builder#callTimeoutMillis(long)}. The timeout is sent to the server, which
+ * does not invoke methods whose callers have already stopped waiting for them. Opening a connection is bounded by
+ * {@link Builder#connectTimeoutMillis(long)}.
+ * <p>
+ * Calls to {@link Idempotent} methods that fail because of communication errors are retried according to the
+ * {@link Builder#retryPolicy(RetryPolicy) retry policy} of the client. Clients that use multiplexed connections may
+ * also hedge slow calls to {@link Idempotent} methods, see {@link Builder#hedgeDelayMillis(long)}.
+ */
+public final class ClientOptions {
+
+    private static final ClientOptions DEFAULT = newBuilder().build();
+
+    private final int minConnections;
+    private final int maxConnections;
+    private final long idleTimeoutMillis;
+    private final long leaseTimeoutMillis;
+    private final int multiplexedConnections;
+    private final Executor executor;
+    private final boolean oneWayVoidMethods;
+    private final long batchWindowMicros;
+    private final int maxBatchSize;
+    private final Map<String, Long> cachedMethods;
+    private final int maxCachedResults;
+    private final long callTimeoutMillis;
+    private final Map<String, Long> methodTimeoutsMillis;
+    private final long connectTimeoutMillis;
+    private final RetryPolicy retryPolicy;
+    private final long hedgeDelayMillis;
+    private final double hedgeDelayPercentile;
+
+    private ClientOptions(Builder builder) {
+        this.minConnections = builder.minConnections;
+        this.maxConnections = builder.maxConnections;
+        this.idleTimeoutMillis = builder.idleTimeoutMillis;
+        this.leaseTimeoutMillis = builder.leaseTimeoutMillis;
+        this.multiplexedConnections = builder.multiplexedConnections;
+        this.executor = builder.executor;
+        this.oneWayVoidMethods = builder.oneWayVoidMethods;
+        this.batchWindowMicros = builder.batchWindowMicros;
+        this.maxBatchSize = builder.maxBatchSize;
+        this.cachedMethods = Collections.unmodifiableMap(new LinkedHashMap<>(builder.cachedMethods));
+        this.maxCachedResults = builder.maxCachedResults;
+        this.callTimeoutMillis = builder.callTimeoutMillis;
+        this.methodTimeoutsMillis = Collections.unmodifiableMap(new LinkedHashMap<>(builder.methodTimeoutsMillis));
+        this.connectTimeoutMillis = builder.connectTimeoutMillis;
+        this.retryPolicy = builder.retryPolicy;
+        this.hedgeDelayMillis = builder.hedgeDelayMillis;
+        this.hedgeDelayPercentile = builder.hedgeDelayPercentile;
+    }
+
+    /**
+     * @return the default client options.
+     */
+    public static ClientOptions defaults() {
+        return DEFAULT;
+    }
+
+    /**
+     * @return a new builder of {@link ClientOptions}.
+     */
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    /**
+     * @return a builder initialized with the values of this instance.
+     */
+    public Builder toBuilder() {
+        Builder builder = new Builder();
+        cachedMethods.forEach(builder::cacheResults);
+        methodTimeoutsMillis.forEach(builder::callTimeoutMillis);
+        return builder
+                .maxConnections(maxConnections)
+                .minConnections(minConnections)
+                .idleTimeoutMillis(idleTimeoutMillis)
+                .leaseTimeoutMillis(leaseTimeoutMillis)
+                .multiplexedConnections(multiplexedConnections)
+                .executor(executor)
+                .oneWayVoidMethods(oneWayVoidMethods)
+                .batchWindowMicros(batchWindowMicros)
+                .maxBatchSize(maxBatchSize)
+                .maxCachedResults(maxCachedResults)
+                .callTimeoutMillis(callTimeoutMillis)
+                .connectTimeoutMillis(connectTimeoutMillis)
+                .retryPolicy(retryPolicy)
+                .hedgeDelayMillis(hedgeDelayMillis)
+                .hedgeDelayPercentile(hedgeDelayPercentile);
+    }
+
+    /**
+     * @return the number of connections that are kept open even if idle.
+     */
+    public int getMinConnections() {
+        return minConnections;
+    }
+
+    /**
+     * @return the maximum number of connections the client may open at the same time.
+     */
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * @return the time, in milliseconds, after which idle connections are closed.
+     */
+    public long getIdleTimeoutMillis() {
+        return idleTimeoutMillis;
+    }
+
+    /**
+     * @return the maximum time, in milliseconds, a call waits for a connection to become available.
+     */
+    public long getLeaseTimeoutMillis() {
+        return leaseTimeoutMillis;
+    }
+
+    /**
+     * @return the number of multiplexed connections shared by all clients of a remote service,
+     * or 0 if the client uses its own pool of blocking connections.
+     */
+    public int getMultiplexedConnections() {
+        return multiplexedConnections;
+    }
+
+    /**
+     * @return the executor provided by the caller to complete asynchronous calls, if any.
+     * If not provided, {@link ForkJoinPool#commonPool()} is used.
+     */
+    public Optional<Executor> getExecutor() {
+        return Optional.ofNullable(executor);
+    }
+
+    /**
+     * @return whether all {@code void} methods are called one-way, as if annotated with {@link OneWay}.
+     */
+    public boolean isOneWayVoidMethods() {
+        return oneWayVoidMethods;
+    }
+
+    /**
+     * @return the time, in microseconds, during which calls on a multiplexed connection are collected into a
+     * batch, or 0 if calls are not batched.
+     */
+    public long getBatchWindowMicros() {
+        return batchWindowMicros;
+    }
+
+    /**
+     * @return the maximum number of calls sent in a single batch.
+     */
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * @return the time to live, in milliseconds, of the cached results of each method whose results are cached,
+     * by method name.
+     */
+    public Map<String, Long> getCachedMethods() {
+        return cachedMethods;
+    }
+
+    /**
+     * @return the maximum number of results cached by each client.
+     */
+    public int getMaxCachedResults() {
+        return maxCachedResults;
+    }
+
+    /**
+     * @return the timeout, in milliseconds, of calls to methods without a timeout of their own, or 0 if such calls
+     * do not time out.
+     */
+    public long getCallTimeoutMillis() {
+        return callTimeoutMillis;
+    }
+
+    /**
+     * @param methodName name of a remote method
+     * @return the timeout, in milliseconds, of calls to the methods with the given name, or 0 if they do not
+     * time out.
+     */
+    public long getCallTimeoutMillis(String methodName) {
+        return methodTimeoutsMillis.getOrDefault(methodName, callTimeoutMillis);
+    }
+
+    /**
+     * @return the maximum time, in milliseconds, to open a connection, or 0 if there is no limit.
+     */
+    public long getConnectTimeoutMillis() {
+        return connectTimeoutMillis;
+    }
+
+    /**
+     * @return the policy deciding whether calls to {@link Idempotent} methods that fail are retried.
+     */
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * @return the delay, in milliseconds, after which calls to {@link Idempotent} methods are hedged, or its minimum
+     * if {@link #getHedgeDelayPercentile()} is positive. 0 if calls are not hedged.
+     */
+    public long getHedgeDelayMillis() {
+        return hedgeDelayMillis;
+    }
+
+    /**
+     * @return the percentile of the latencies of recent calls used as the hedge delay, or 0 if the delay is fixed.
+     */
+    public double getHedgeDelayPercentile() {
+        return hedgeDelayPercentile;
+    }
+
+    @Override
+    public String toString() {
+        return "ClientOptions{" +
+                "minConnections=" + minConnections +
+                ", maxConnections=" + maxConnections +
+                ", idleTimeoutMillis=" + idleTimeoutMillis +
+                ", leaseTimeoutMillis=" + leaseTimeoutMillis +
+                ", multiplexedConnections=" + multiplexedConnections +
+                ", executor=" + executor +
+                ", oneWayVoidMethods=" + oneWayVoidMethods +
+                ", batchWindowMicros=" + batchWindowMicros +
+                ", maxBatchSize=" + maxBatchSize +
+                ", cachedMethods=" + cachedMethods +
+                ", maxCachedResults=" + maxCachedResults +
+                ", callTimeoutMillis=" + callTimeoutMillis +
+                ", methodTimeoutsMillis=" + methodTimeoutsMillis +
+                ", connectTimeoutMillis=" + connectTimeoutMillis +
+                ", retryPolicy=" + retryPolicy +
+                ", hedgeDelayMillis=" + hedgeDelayMillis +
+                ", hedgeDelayPercentile=" + hedgeDelayPercentile +
+                '}';
+    }
+
+    /**
+     * Builder of {@link ClientOptions}.
+     */
+    public static final class Builder {
+
+        private int minConnections = 1;
+        private int maxConnections = 8;
+        private long idleTimeoutMillis = 60_000L;
+        private long leaseTimeoutMillis = 10_000L;
+        private int multiplexedConnections;
+        private Executor executor;
+        private boolean oneWayVoidMethods;
+        private long batchWindowMicros;
+        private int maxBatchSize = 32;
+        private final Map<String, Long> cachedMethods = new LinkedHashMap<>();
+        private int maxCachedResults = 1024;
+        private long callTimeoutMillis;
+        private final Map<String, Long> methodTimeoutsMillis = new LinkedHashMap<>();
+        private long connectTimeoutMillis = 10_000L;
+        private RetryPolicy retryPolicy = BackoffRetryPolicy.newBuilder().build();
+        private long hedgeDelayMillis;
+        private double hedgeDelayPercentile;
+
+        private Builder() {
+        }
+
+        /**
+         * Set the number of connections that are kept open even if they stay idle for longer than the
+         * {@link #idleTimeoutMillis(long) idle timeout}.
+         * <p>
+         * Connections are only opened when needed, so this is not the number of connections opened when the client
+         * is created. The default is 1.
+         *
+         * @param minConnections number of connections that are never closed for being idle
+         * @return this builder
+         */
+        public Builder minConnections(int minConnections) {
+            if (minConnections < 0) {
+                throw new IllegalArgumentException("minConnections must not be negative");
+            }
+            this.minConnections = minConnections;
+            return this;
+        }
+
+        /**
+         * Set the maximum number of connections the client may open at the same time, which is also the
+         * maximum number of concurrent calls. The default is 8.
+         *
+         * @param maxConnections maximum number of connections
+         * @return this builder
+         */
+        public Builder maxConnections(int maxConnections) {
+            if (maxConnections < 1) {
+                throw new IllegalArgumentException("maxConnections must be positive");
+            }
+            this.maxConnections = maxConnections;
+            return this;
+        }
+
+        /**
+         * Set the time after which idle connections are closed. The default is 60 seconds.
+         *
+         * @param idleTimeoutMillis time, in milliseconds, or 0 to never close idle connections
+         * @return this builder
+         */
+        public Builder idleTimeoutMillis(long idleTimeoutMillis) {
+            if (idleTimeoutMillis < 0) {
+                throw new IllegalArgumentException("idleTimeoutMillis must not be negative");
+            }
+            this.idleTimeoutMillis = idleTimeoutMillis;
+            return this;
+        }
+
+        /**
+         * Set the maximum time a call waits for a connection to become available when all connections are leased.
+         * <p>
+         * If no connection becomes available in time, the call fails with a {@link CommunicationException}.
+         * The default is 10 seconds.
+         *
+         * @param leaseTimeoutMillis time, in milliseconds, or 0 to fail immediately if no connection is available
+         * @return this builder
+         */
+        public Builder leaseTimeoutMillis(long leaseTimeoutMillis) {
+            if (leaseTimeoutMillis < 0) {
+                throw new IllegalArgumentException("leaseTimeoutMillis must not be negative");
+            }
+            this.leaseTimeoutMillis = leaseTimeoutMillis;
+            return this;
+        }
+
+        /**
+         * Share the given number of non-blocking connections with all other clients of the same remote service that
+         * use the same number of multiplexed connections, instead of using a pool of blocking connections.
+         * <p>
+         * Each multiplexed connection carries any number of concurrent calls. Calls are sent as soon as they are
+         * made, and results are matched to their callers as they arrive, in any order. All I/O is performed by the
+         * threads of the JVM-wide default {@link java.nio.channels.AsynchronousChannelGroup}.
+         * <p>
+         * When enabled, the other connection pool options are not used.
+         *
+         * @param multiplexedConnections number of multiplexed connections, or 0 to use a pool of blocking
+         *                               connections (the default)
+         * @return this builder
+         */
+        public Builder multiplexedConnections(int multiplexedConnections) {
+            if (multiplexedConnections < 0) {
+                throw new IllegalArgumentException("multiplexedConnections must not be negative");
+            }
+            this.multiplexedConnections = multiplexedConnections;
+            return this;
+        }
+
+        /**
+         * Complete the futures returned by asynchronous service methods using the given executor.
+         * <p>
+         * Asynchronous calls never block the caller. With multiplexed connections, they do not block any thread
+         * while waiting for their results, and the executor is only used to complete their futures, so that
+         * dependent actions never run on the client's I/O threads. With blocking connections, the executor also runs
+         * the calls themselves, so each asynchronous call in flight occupies one of its threads.
+         * <p>
+         * The executor is owned by the caller and is never shut down by the client.
+         *
+         * @param executor to complete asynchronous calls with, or null to use {@link ForkJoinPool#commonPool()}
+         * @return this builder
+         */
+        public Builder executor(Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * Call all {@code void} methods one-way, as if they were annotated with {@link OneWay}.
+         *
+         * @param oneWayVoidMethods whether to call all void methods one-way
+         * @return this builder
+         */
+        public Builder oneWayVoidMethods(boolean oneWayVoidMethods) {
+            this.oneWayVoidMethods = oneWayVoidMethods;
+            return this;
+        }
+
+        /**
+         * Collect the calls made on each multiplexed connection during the given time window, and send them to the
+         * server in a single batch.
+         * <p>
+         * The window starts with the first call of a batch. The batch is sent when the window closes, or as soon as
+         * it holds {@link #maxBatchSize(int)} calls, whichever happens first. The server sends the results of a
+         * batch back together once all of them are available.
+         * <p>
+         * Under bursty load from many threads, batching trades a small delay for far fewer writes to the socket.
+         * Windows in the order of 50 to 200 microseconds are usually enough to gather concurrent calls.
+         * Calls are only batched if multiplexed connections are enabled and the server supports batches.
+         *
+         * @param batchWindowMicros time window, in microseconds, or 0 to send each call as soon as it is made
+         *                          (the default)
+         * @return this builder
+         */
+        public Builder batchWindowMicros(long batchWindowMicros) {
+            if (batchWindowMicros < 0) {
+                throw new IllegalArgumentException("batchWindowMicros must not be negative");
+            }
+            this.batchWindowMicros = batchWindowMicros;
+            return this;
+        }
+
+        /**
+         * Set the maximum number of calls sent in a single batch. The default is 32.
+         *
+         * @param maxBatchSize maximum number of calls per batch
+         * @return this builder
+         * @see #batchWindowMicros(long)
+         */
+        public Builder maxBatchSize(int maxBatchSize) {
+            if (maxBatchSize < 1) {
+                throw new IllegalArgumentException("maxBatchSize must be positive");
+            }
+            this.maxBatchSize = maxBatchSize;
+            return this;
+        }
+
+        /**
+         * Cache the results of the remote methods with the given name for the given time.
+         * <p>
+         * Calls are cached by method and arguments (compared with {@code equals}). While a result is cached, calls
+         * with equal arguments return it without contacting the server, so only methods whose results depend
+         * exclusively on their arguments, such as configuration lookups, should be cached. Exceptions are never
+         * cached.
+         * <p>
+         * Clients using {@link #multiplexedConnections(int) multiplexed connections} also ask the server to send
+         * them cache invalidations (see {@link ServiceReference#invalidateCachedResults(String...)}), and keep their
+         * connections open for as long as they are in use. Otherwise, results are only removed from the cache when
+         * they expire.
+         *
+         * @param methodName name of the methods whose results are cached, including all its overloads
+         * @param ttlMillis  time, in milliseconds, a result is cached for, or 0 to not cache the results
+         * @return this builder
+         * @see #maxCachedResults(int)
+         */
+        public Builder cacheResults(String methodName, long ttlMillis) {
+            if (ttlMillis < 0) {
+                throw new IllegalArgumentException("ttlMillis must not be negative");
+            }
+            if (ttlMillis == 0) {
+                cachedMethods.remove(methodName);
+            } else {
+                cachedMethods.put(methodName, ttlMillis);
+            }
+            return this;
+        }
+
+        /**
+         * Set the maximum number of results cached by each client. When the cache is full, the least recently used
+         * results are evicted. The default is 1024.
+         *
+         * @param maxCachedResults maximum number of cached results
+         * @return this builder
+         * @see #cacheResults(String, long)
+         */
+        public Builder maxCachedResults(int maxCachedResults) {
+            if (maxCachedResults < 1) {
+                throw new IllegalArgumentException("maxCachedResults must be positive");
+            }
+            this.maxCachedResults = maxCachedResults;
+            return this;
+        }
+
+        /**
+         * Set the timeout of calls to methods that do not have a timeout of their own.
+         * <p>
+         * If no result is received within the timeout, the call fails with a {@link DeadlineExceededException}.
+         * Timed out calls on multiplexed connections are removed from the connection, so their results are
+         * discarded if they arrive later. Blocking connections whose calls time out are closed.
+         * <p>
+         * The timeout is also sent to the server with each invocation. If the server only gets to run the method
+         * after the timeout has elapsed, the method is not invoked, so that an overloaded server does not waste its
+         * capacity on calls nobody is waiting for anymore.
+         *
+         * @param callTimeoutMillis timeout, in milliseconds, or 0 for no timeout (the default)
+         * @return this builder
+         * @see #callTimeoutMillis(String, long)
+         */
+        public Builder callTimeoutMillis(long callTimeoutMillis) {
+            if (callTimeoutMillis < 0) {
+                throw new IllegalArgumentException("callTimeoutMillis must not be negative");
+            }
+            this.callTimeoutMillis = callTimeoutMillis;
+            return this;
+        }
+
+        /**
+         * Set the timeout of calls to the remote methods with the given name, overriding
+         * {@link #callTimeoutMillis(long)}.
+         *
+         * @param methodName        name of the methods, including all its overloads
+         * @param callTimeoutMillis timeout, in milliseconds, or 0 for no timeout
+         * @return this builder
+         */
+        public Builder callTimeoutMillis(String methodName, long callTimeoutMillis) {
+            if (callTimeoutMillis < 0) {
+                throw new IllegalArgumentException("callTimeoutMillis must not be negative");
+            }
+            methodTimeoutsMillis.put(methodName, callTimeoutMillis);
+            return this;
+        }
+
+        /**
+         * Set the maximum time to open a connection to the remote service, including the initial handshake.
+         * <p>
+         * If the connection is not open in time, the call that needed it fails with a
+         * {@link CommunicationException}. The default is 10 seconds.
+         *
+         * @param connectTimeoutMillis time, in milliseconds, or 0 for no limit
+         * @return this builder
+         */
+        public Builder connectTimeoutMillis(long connectTimeoutMillis) {
+            if (connectTimeoutMillis < 0) {
+                throw new IllegalArgumentException("connectTimeoutMillis must not be negative");
+            }
+            this.connectTimeoutMillis = connectTimeoutMillis;
+            return this;
+        }
+
+        /**
+         * Set the policy deciding whether calls to {@link Idempotent} methods that fail because of communication
+         * errors are retried, and after which delay. Calls to other methods are never retried.
+         * <p>
+         * The default is a {@link BackoffRetryPolicy} with default values. Use {@link RetryPolicy#none()} to disable
+         * retries.
+         *
+         * @param retryPolicy the retry policy
+         * @return this builder
+         */
+        public Builder retryPolicy(RetryPolicy retryPolicy) {
+            if (retryPolicy == null) {
+                throw new IllegalArgumentException("retryPolicy must not be null");
+            }
+            this.retryPolicy = retryPolicy;
+            return this;
+        }
+
+        /**
+         * Hedge slow calls to {@link Idempotent} methods: if a call has not completed after the given delay, the same
+         * invocation is sent again, over the next multiplexed connection, and the call completes with the first
+         * successful result. The other invocation is dropped by the client, but the server may still run it.
+         * <p>
+         * Hedging cuts the tail latency caused by occasional slow invocations (e.g. because of a GC pause of the
+         * server) at the cost of some extra load. With a fixed delay, every call slower than the delay is sent twice.
+         * See {@link #hedgeDelayPercentile(double)} to hedge only a fraction of the calls instead.
+         * <p>
+         * Hedging requires {@link #multiplexedConnections(int) multiplexed connections}, and works best with at least
+         * two of them.
+         *
+         * @param hedgeDelayMillis delay, in milliseconds, or 0 to never hedge calls (the default)
+         * @return this builder
+         */
+        public Builder hedgeDelayMillis(long hedgeDelayMillis) {
+            if (hedgeDelayMillis < 0) {
+                throw new IllegalArgumentException("hedgeDelayMillis must not be negative");
+            }
+            this.hedgeDelayMillis = hedgeDelayMillis;
+            return this;
+        }
+
+        /**
+         * Use a percentile of the latencies of the recent calls to each hedged method as its hedge delay, so that
+         * roughly the given percentage of the calls complete without being hedged (e.g. 95).
+         * <p>
+         * The delay given to {@link #hedgeDelayMillis(long)}, which must also be set, is used until enough calls have
+         * been observed, and is also the minimum delay.
+         *
+         * @param hedgeDelayPercentile percentile, between 0 and 100 exclusive, or 0 for a fixed delay (the default)
+         * @return this builder
+         */
+        public Builder hedgeDelayPercentile(double hedgeDelayPercentile) {
+            if (hedgeDelayPercentile < 0.0 || hedgeDelayPercentile >= 100.0) {
+                throw new IllegalArgumentException("hedgeDelayPercentile must be at least 0 and less than 100");
+            }
+            this.hedgeDelayPercentile = hedgeDelayPercentile;
+            return this;
+        }
+
+        /**
+         * @return a new {@link ClientOptions} instance with the values set in this builder.
+         * @throws IllegalArgumentException if minConnections is greater than maxConnections, if calls are hedged
+         *                                  without multiplexed connections, or if a hedge delay percentile is set
+         *                                  without a hedge delay
+         */
+        public ClientOptions build() {
+            if (minConnections > maxConnections) {
+                throw new IllegalArgumentException("minConnections must not be greater than maxConnections");
+            }
+            if (hedgeDelayPercentile > 0.0 && hedgeDelayMillis == 0L) {
+                throw new IllegalArgumentException("hedgeDelayPercentile requires a hedgeDelayMillis");
+            }
+            if (hedgeDelayMillis > 0L && multiplexedConnections == 0) {
+                throw new IllegalArgumentException("hedging requires multiplexed connections");
+            }
+            return new ClientOptions(this);
+        }
+    }
+}
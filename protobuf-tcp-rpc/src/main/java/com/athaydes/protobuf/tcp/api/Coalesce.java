@@ -0,0 +1,60 @@
+package com.athaydes.protobuf.tcp.api;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Allows the server to coalesce concurrent invocations of a single-item service method into a single invocation of
+ * a bulk method of the same service.
+ * <p>
+ * For example, given a service with the methods below, the server gathers the invocations of {@code get} received
+ * from all connections during a short time window, then invokes {@code getAll} once with all of their arguments,
+ * and sends each result back to the caller waiting for it:
+ *
+ * <pre>{@code
+ * @Coalesce("getAll")
+ * public Item get(int id) { ... }
+ *
+ * public Map<Integer, Item> getAll(List<Integer> ids) { ... }
+ * }</pre>
+ * <p>
+ * The annotated method must take a single parameter, and must not be asynchronous. It is never invoked by the
+ * server, so clients keep calling it as usual. The bulk method must be a public method of the service taking a
+ * single {@link java.util.List} parameter, which receives the distinct arguments of the coalesced invocations.
+ * It must return either a {@link java.util.Map} from each argument to its result, or a {@link java.util.List} of
+ * results in the same order as the arguments. If the bulk method fails, all coalesced invocations fail with the
+ * same error.
+ * <p>
+ * The bulk method runs in the executor the server uses to run service methods (see
+ * {@link ServerOptions.Builder#executor(java.util.concurrent.Executor)}). If the server runs service methods directly
+ * on its I/O threads, it runs bulk methods on a thread pool of its own instead, with one thread per coalesced method,
+ * as bulk methods must not block the I/O threads.
+ * <p>
+ * The annotation may be placed either on the method of the service implementation, or of the exported interface.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface Coalesce {
+
+    /**
+     * @return name of the bulk method of the service.
+     */
+    String value();
+
+    /**
+     * @return time window, in microseconds, during which invocations are gathered. The window starts with the first
+     * invocation received after the previous bulk invocation.
+     */
+    long windowMicros() default 1000L;
+
+    /**
+     * @return maximum number of distinct arguments passed to the bulk method. The bulk method is invoked as soon as
+     * this number of arguments is gathered, even if the time window is not over yet.
+     */
+    int maxBatchSize() default 100;
+
+}
@@ -13,4 +13,8 @@ public class CommunicationException extends RuntimeException {
         super(cause);
     }
 
+    public CommunicationException(String message, IOException cause) {
+        super(message, cause);
+    }
+
 }
@@ -0,0 +1,103 @@
+package com.athaydes.protobuf.tcp.api;
+
+/**
+ * Snapshot of the statistics of the connection pool used by a remote service client.
+ * <p>
+ * For clients that use multiplexed connections (see {@link ClientOptions#getMultiplexedConnections()}), the
+ * statistics are shared by all clients of the same remote service. A multiplexed connection is reported as leased
+ * while it has calls in flight, and callers never wait for a connection.
+ */
+public final class ConnectionPoolStatistics {
+
+    private final int maxConnections;
+    private final int leasedConnections;
+    private final int idleConnections;
+    private final int inFlightCalls;
+    private final int waitingCallers;
+    private final long openedConnections;
+    private final long closedConnections;
+    private final long leaseTimeouts;
+
+    public ConnectionPoolStatistics(int maxConnections, int leasedConnections, int idleConnections,
+                                    int inFlightCalls, int waitingCallers, long openedConnections,
+                                    long closedConnections, long leaseTimeouts) {
+        this.maxConnections = maxConnections;
+        this.leasedConnections = leasedConnections;
+        this.idleConnections = idleConnections;
+        this.inFlightCalls = inFlightCalls;
+        this.waitingCallers = waitingCallers;
+        this.openedConnections = openedConnections;
+        this.closedConnections = closedConnections;
+        this.leaseTimeouts = leaseTimeouts;
+    }
+
+    /**
+     * @return maximum number of connections the pool may hold.
+     */
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * @return number of connections currently leased by callers.
+     */
+    public int getLeasedConnections() {
+        return leasedConnections;
+    }
+
+    /**
+     * @return number of open connections currently available in the pool.
+     */
+    public int getIdleConnections() {
+        return idleConnections;
+    }
+
+    /**
+     * @return number of calls currently waiting for their results.
+     */
+    public int getInFlightCalls() {
+        return inFlightCalls;
+    }
+
+    /**
+     * @return number of callers currently waiting for a connection to become available.
+     */
+    public int getWaitingCallers() {
+        return waitingCallers;
+    }
+
+    /**
+     * @return number of connections opened by the pool so far.
+     */
+    public long getOpenedConnections() {
+        return openedConnections;
+    }
+
+    /**
+     * @return number of connections closed by the pool so far, either for being idle or broken.
+     */
+    public long getClosedConnections() {
+        return closedConnections;
+    }
+
+    /**
+     * @return number of callers that gave up waiting for a connection to become available.
+     */
+    public long getLeaseTimeouts() {
+        return leaseTimeouts;
+    }
+
+    @Override
+    public String toString() {
+        return "ConnectionPoolStatistics{" +
+                "maxConnections=" + maxConnections +
+                ", leasedConnections=" + leasedConnections +
+                ", idleConnections=" + idleConnections +
+                ", inFlightCalls=" + inFlightCalls +
+                ", waitingCallers=" + waitingCallers +
+                ", openedConnections=" + openedConnections +
+                ", closedConnections=" + closedConnections +
+                ", leaseTimeouts=" + leaseTimeouts +
+                '}';
+    }
+}
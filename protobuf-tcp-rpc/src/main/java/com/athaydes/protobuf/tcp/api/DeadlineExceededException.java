@@ -0,0 +1,19 @@
+package com.athaydes.protobuf.tcp.api;
+
+import java.io.InterruptedIOException;
+
+/**
+ * Exception that occurs when a remote service call does not complete within its timeout
+ * (see {@link ClientOptions.Builder#callTimeoutMillis(long)}).
+ * <p>
+ * The exception is thrown either by the client, when no result is received in time, or by the server, which does not
+ * invoke methods whose timeout elapses before the invocation starts. In the first case, the method may or may not
+ * have been invoked. In the second case, the message of the exception says that the method was not invoked.
+ */
+public class DeadlineExceededException extends CommunicationException {
+
+    public DeadlineExceededException(String message) {
+        super(message, new InterruptedIOException(message));
+    }
+
+}
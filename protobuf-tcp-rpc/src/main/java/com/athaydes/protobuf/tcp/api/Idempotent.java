@@ -0,0 +1,21 @@
+package com.athaydes.protobuf.tcp.api;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a method of a service interface as idempotent, i.e. invoking it more than once with the same arguments has
+ * the same effect as invoking it only once.
+ * <p>
+ * When a call fails because of a communication error, the client cannot know whether the remote method was invoked.
+ * Calls to idempotent methods may then be retried, as allowed by the {@link RetryPolicy} of the client
+ * (see {@link ClientOptions.Builder#retryPolicy(RetryPolicy)}). Calls to other methods are never retried.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface Idempotent {
+}
@@ -0,0 +1,22 @@
+package com.athaydes.protobuf.tcp.api;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a {@code void} method of a service interface as one-way.
+ * <p>
+ * Clients return from one-way methods as soon as the invocation is written to the connection, without waiting
+ * for the remote service to run the method, and the server never sends a result back. As a consequence, callers
+ * are not notified of failures of the remote method, and invocations may be lost if the connection fails.
+ * <p>
+ * All {@code void} methods can also be made one-way with {@link ClientOptions.Builder#oneWayVoidMethods(boolean)}.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface OneWay {
+}
@@ -3,6 +3,7 @@ package com.athaydes.protobuf.tcp.api;
 import com.athaydes.protobuf.tcp.internal.ProtobufInvocationHandler;
 import com.athaydes.protobuf.tcp.internal.ProtobufServer;
 import java.io.Closeable;
+import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Proxy;
 import java.net.URI;
 
@@ -75,6 +76,44 @@ public class RemoteServices {
      * @return a proxy to the remote service
      */
     public static Closeable createClient(URI address, Class[] interfaces, ClassLoader classLoader) {
+        return createClient(address, interfaces, classLoader, ClientOptions.defaults());
+    }
+
+    /**
+     * Create a remote service client using the given client options.
+     *
+     * @param serviceType the type of the service, normally an interface.
+     * @param host        host name of the server
+     * @param port        port of the server
+     * @param options     client options
+     * @param <T>         type of the service
+     * @return a proxy to the remote service
+     * @see #createClient(Class, String, int)
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T createClient(Class<T> serviceType, String host, int port, ClientOptions options) {
+        return (T) createClient(URI.create("tcp://" + host + ":" + port),
+                new Class[]{serviceType}, serviceType.getClassLoader(), options);
+    }
+
+    /**
+     * Create a remote service client using the given client options.
+     * <p>
+     * The returned value can be safely cast to all of the given interfaces provided that the
+     * remote service indeed implements them.
+     * <p>
+     * To close the connections to the remote service, call the {@link Closeable#close()} method on the returned
+     * value.
+     *
+     * @param address     address of the remote service. The only protocol supported is TCP.
+     * @param interfaces  the interfaces provided by the remote service.
+     * @param classLoader class loader to use to define the proxy class of the client
+     * @param options     client options
+     * @return a proxy to the remote service
+     * @see ClientOptions#newBuilder()
+     */
+    public static Closeable createClient(URI address, Class[] interfaces, ClassLoader classLoader,
+                                         ClientOptions options) {
         if (!"tcp".equals(address.getScheme())) {
             throw new IllegalArgumentException("Unsupported scheme (only TCP allowed): " + address.getScheme());
         }
@@ -84,10 +123,27 @@ public class RemoteServices {
         // forward calls to close() iff client implements Closeable
         boolean forwardCloseMethodCall = allInterfaces.length == interfaces.length;
 
-        ProtobufInvocationHandler handler = new ProtobufInvocationHandler(address, forwardCloseMethodCall);
+        ProtobufInvocationHandler handler = new ProtobufInvocationHandler(address, forwardCloseMethodCall, options);
         return (Closeable) Proxy.newProxyInstance(classLoader, allInterfaces, handler);
     }
 
+    /**
+     * Get the statistics of the connection pool of a remote service client.
+     *
+     * @param client a client created by one of the {@code createClient} methods
+     * @return the current statistics of the client's connection pool
+     * @throws IllegalArgumentException if the given object is not a remote service client
+     */
+    public static ConnectionPoolStatistics getConnectionPoolStatistics(Object client) {
+        if (client != null && Proxy.isProxyClass(client.getClass())) {
+            InvocationHandler handler = Proxy.getInvocationHandler(client);
+            if (handler instanceof ProtobufInvocationHandler) {
+                return ((ProtobufInvocationHandler) handler).getConnectionPoolStatistics();
+            }
+        }
+        throw new IllegalArgumentException("Not a remote service client: " + client);
+    }
+
     /**
      * Provide a remote service.
      * <p>
@@ -125,6 +181,50 @@ public class RemoteServices {
      * @see #provideService(Object, int, Class[])
      */
     public static <T> ServiceReference<T> createService(T service, int port, Class... interfaces) {
-        return new ProtobufServer<>(service, port, interfaces);
+        return createService(service, port, ServerOptions.defaults(), interfaces);
+    }
+
+    /**
+     * Provide a remote service using the given server options.
+     * <p>
+     * The service will become available immediately for service clients to connect to.
+     * <p>
+     * To stop the remote service, call {@link Closeable#close()} on the returned {@link Closeable}.
+     *
+     * @param service    instance of the local service
+     * @param port       port to use for remote connections
+     * @param options    server options
+     * @param interfaces the interfaces that can be provided by the service. If none is provided,
+     *                   all methods of the service will be exposed remotely.
+     * @return reference to the server wrapper around the local service that can be used to close it later
+     * @see #createService(Object, int, ServerOptions, Class[])
+     */
+    public static Closeable provideService(Object service, int port, ServerOptions options, Class... interfaces) {
+        ServiceReference<?> server = createService(service, port, options, interfaces);
+        server.run();
+        return server;
+    }
+
+    /**
+     * Create a remote service using the given server options.
+     * <p>
+     * Unlike {@link RemoteServices#provideService(Object, int, ServerOptions, Class[])}, this method does not
+     * start the remote service. Call {@link ServiceReference#run()} to start the remote service.
+     * <p>
+     * To stop the remote service, call {@link ServiceReference#close()} on the returned {@link ServiceReference}.
+     * Any resources owned by the server, such as a dedicated channel group, are released at that point.
+     *
+     * @param service    instance of the local service
+     * @param port       port to use for remote connections
+     * @param options    server options
+     * @param interfaces the interfaces that can be provided by the service. If none is provided,
+     *                   all methods of the service will be exposed remotely.
+     * @param <T>        type of the service
+     * @return reference to the server wrapper around the local service that can be used to start and close it later
+     * @see ServerOptions#newBuilder()
+     */
+    public static <T> ServiceReference<T> createService(T service, int port, ServerOptions options,
+                                                        Class... interfaces) {
+        return new ProtobufServer<>(service, port, options, interfaces);
     }
 }
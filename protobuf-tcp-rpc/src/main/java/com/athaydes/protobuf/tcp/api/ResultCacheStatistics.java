@@ -0,0 +1,90 @@
+package com.athaydes.protobuf.tcp.api;
+
+/**
+ * Snapshot of the statistics of the result cache of a remote service server.
+ * <p>
+ * The server caches the results of the service methods annotated with {@link Cacheable}.
+ */
+public final class ResultCacheStatistics {
+
+    private final long hits;
+    private final long misses;
+    private final long evictions;
+    private final long expirations;
+    private final int entries;
+    private final long sizeBytes;
+    private final long maxBytes;
+
+    public ResultCacheStatistics(long hits, long misses, long evictions, long expirations,
+                                 int entries, long sizeBytes, long maxBytes) {
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+        this.expirations = expirations;
+        this.entries = entries;
+        this.sizeBytes = sizeBytes;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return number of invocations answered with a cached result.
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return number of invocations of cacheable methods whose result was not in the cache.
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return number of results removed from the cache to keep it within its maximum size.
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return number of results removed from the cache because they were found to be expired.
+     */
+    public long getExpirations() {
+        return expirations;
+    }
+
+    /**
+     * @return number of results currently in the cache.
+     */
+    public int getEntries() {
+        return entries;
+    }
+
+    /**
+     * @return estimated size, in bytes, of the results currently in the cache, including their keys.
+     */
+    public long getSizeBytes() {
+        return sizeBytes;
+    }
+
+    /**
+     * @return maximum size, in bytes, of the cache.
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "ResultCacheStatistics{" +
+                "hits=" + hits +
+                ", misses=" + misses +
+                ", evictions=" + evictions +
+                ", expirations=" + expirations +
+                ", entries=" + entries +
+                ", sizeBytes=" + sizeBytes +
+                ", maxBytes=" + maxBytes +
+                '}';
+    }
+}
@@ -0,0 +1,42 @@
+package com.athaydes.protobuf.tcp.api;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+
+/**
+ * Decides whether, and when, a client retries a call that failed because of a communication error.
+ * <p>
+ * Only calls to {@link Idempotent} methods are retried. Calls that fail for any other reason, including remote
+ * exceptions and timeouts (see {@link DeadlineExceededException}), are never retried. A retry is abandoned if its
+ * delay would exceed the timeout of the call.
+ * <p>
+ * Policies are shared by all calls of the clients using the same {@link ClientOptions}, so they must be thread-safe.
+ * The default policy is {@link BackoffRetryPolicy}.
+ */
+public interface RetryPolicy {
+
+    /**
+     * Called once for each call made by a client, before its first attempt, so that the policy can keep track of
+     * the traffic (e.g. to limit retries to a fraction of it).
+     *
+     * @param method the called method
+     */
+    default void onCall(Method method) {
+    }
+
+    /**
+     * @param method         the called method, which is {@link Idempotent}
+     * @param failedAttempts number of attempts of the call that failed so far, starting at 1
+     * @param error          the error of the last attempt
+     * @return the delay, in milliseconds, before the next attempt, or a negative number to fail the call
+     */
+    long retryDelayMillis(Method method, int failedAttempts, IOException error);
+
+    /**
+     * @return a policy that never retries calls.
+     */
+    static RetryPolicy none() {
+        return (method, failedAttempts, error) -> -1L;
+    }
+
+}
@@ -0,0 +1,415 @@
+package com.athaydes.protobuf.tcp.api;
+
+import java.nio.channels.AsynchronousChannelGroup;
+import java.util.Optional;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Configuration options for a remote service server.
+ * <p>
+ * Instances are immutable and can be created with a {@link Builder}, obtained from {@link #newBuilder()}.
+ * <p>
+ * By default, servers use the JVM-wide default {@link AsynchronousChannelGroup} to perform I/O.
+ * To isolate the I/O threads of a server from other servers running in the same JVM, either
+ * provide an existing channel group with {@link Builder#channelGroup(AsynchronousChannelGroup)}, or
+ * let the server create its own, dedicated channel group by calling {@link Builder#ioThreads(int)}.
+ * <p>
+ * Also by default, service methods are called directly from the I/O thread that decoded the method invocation.
+ * That means a slow service method delays reading from all other connections served by the same I/O thread.
+ * To avoid that, service methods may be executed by a separate {@link Executor}, either provided with
+ * {@link Builder#executor(Executor)}, or created by the server with {@link Builder#workerThreads(int)}.
+ * On JDK 21+, the server can also start a virtual thread for each method invocation, see
+ * {@link Builder#virtualThreads(boolean)}.
+ * <p>
+ * Servers lease the buffers used to read method invocations and write results from a pool, which can be
+ * configured with {@link Builder#pooledBuffersPerSize(int)} and {@link Builder#directBuffers(boolean)}.
+ * <p>
+ * Clients that ask for it during the connection handshake receive results with compact type URLs,
+ * unless disabled with {@link Builder#compactTypeUrls(boolean)}.
+ * <p>
+ * Results of {@link Cacheable} service methods are kept in a cache whose size is bounded by
+ * {@link Builder#resultCacheMaxBytes(long)}.
+ * <p>
+ * Connections on which clients send nothing for longer than {@link Builder#idleTimeoutMillis(long)} are closed.
+ * The timeout is sent to clients during the connection handshake, so they can stop using a connection before
+ * the server closes it.
+ */
+public final class ServerOptions {
+
+    private static final ServerOptions DEFAULT = newBuilder().build();
+
+    private final AsynchronousChannelGroup channelGroup;
+    private final int ioThreads;
+    private final ThreadFactory ioThreadFactory;
+    private final Executor executor;
+    private final int workerThreads;
+    private final boolean virtualThreads;
+    private final int pooledBuffersPerSize;
+    private final boolean directBuffers;
+    private final boolean compactTypeUrls;
+    private final long resultCacheMaxBytes;
+    private final long idleTimeoutMillis;
+
+    private ServerOptions(Builder builder) {
+        this.channelGroup = builder.channelGroup;
+        this.ioThreads = builder.ioThreads;
+        this.ioThreadFactory = builder.ioThreadFactory;
+        this.executor = builder.executor;
+        this.workerThreads = builder.workerThreads;
+        this.virtualThreads = builder.virtualThreads;
+        this.pooledBuffersPerSize = builder.pooledBuffersPerSize;
+        this.directBuffers = builder.directBuffers;
+        this.compactTypeUrls = builder.compactTypeUrls;
+        this.resultCacheMaxBytes = builder.resultCacheMaxBytes;
+        this.idleTimeoutMillis = builder.idleTimeoutMillis;
+    }
+
+    /**
+     * @return the default server options.
+     */
+    public static ServerOptions defaults() {
+        return DEFAULT;
+    }
+
+    /**
+     * @return a new builder of {@link ServerOptions}.
+     */
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    /**
+     * @return a builder initialized with the values of this instance.
+     */
+    public Builder toBuilder() {
+        return new Builder()
+                .channelGroup(channelGroup)
+                .ioThreads(ioThreads)
+                .ioThreadFactory(ioThreadFactory)
+                .executor(executor)
+                .workerThreads(workerThreads)
+                .virtualThreads(virtualThreads)
+                .pooledBuffersPerSize(pooledBuffersPerSize)
+                .directBuffers(directBuffers)
+                .compactTypeUrls(compactTypeUrls)
+                .resultCacheMaxBytes(resultCacheMaxBytes)
+                .idleTimeoutMillis(idleTimeoutMillis);
+    }
+
+    /**
+     * @return the channel group provided by the caller, if any.
+     * The server never shuts down a channel group it did not create.
+     */
+    public Optional<AsynchronousChannelGroup> getChannelGroup() {
+        return Optional.ofNullable(channelGroup);
+    }
+
+    /**
+     * @return the number of threads of the dedicated channel group the server should create,
+     * or 0 if no dedicated channel group should be created.
+     */
+    public int getIoThreads() {
+        return ioThreads;
+    }
+
+    /**
+     * @return the thread factory to use for the dedicated channel group, if any.
+     */
+    public Optional<ThreadFactory> getIoThreadFactory() {
+        return Optional.ofNullable(ioThreadFactory);
+    }
+
+    /**
+     * @return the executor provided by the caller to run service methods, if any.
+     * The server never shuts down an executor it did not create.
+     */
+    public Optional<Executor> getExecutor() {
+        return Optional.ofNullable(executor);
+    }
+
+    /**
+     * @return the number of threads of the worker thread pool the server should create to run service methods,
+     * or 0 if no worker thread pool should be created.
+     */
+    public int getWorkerThreads() {
+        return workerThreads;
+    }
+
+    /**
+     * @return whether service methods should run on virtual threads, if supported by the JVM.
+     */
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * @return the maximum number of idle buffers of each size kept in the server's buffer pool.
+     */
+    public int getPooledBuffersPerSize() {
+        return pooledBuffersPerSize;
+    }
+
+    /**
+     * @return whether the server's buffer pool holds direct buffers (as opposed to heap buffers).
+     */
+    public boolean isDirectBuffers() {
+        return directBuffers;
+    }
+
+    /**
+     * @return whether the server accepts to send compact type URLs to clients that ask for them.
+     */
+    public boolean isCompactTypeUrls() {
+        return compactTypeUrls;
+    }
+
+    /**
+     * @return the maximum size, in bytes, of the cache of results of {@link Cacheable} methods.
+     */
+    public long getResultCacheMaxBytes() {
+        return resultCacheMaxBytes;
+    }
+
+    /**
+     * @return the time, in milliseconds, after which connections on which clients send nothing are closed,
+     * or 0 if idle connections are never closed.
+     */
+    public long getIdleTimeoutMillis() {
+        return idleTimeoutMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "ServerOptions{" +
+                "channelGroup=" + channelGroup +
+                ", ioThreads=" + ioThreads +
+                ", ioThreadFactory=" + ioThreadFactory +
+                ", executor=" + executor +
+                ", workerThreads=" + workerThreads +
+                ", virtualThreads=" + virtualThreads +
+                ", pooledBuffersPerSize=" + pooledBuffersPerSize +
+                ", directBuffers=" + directBuffers +
+                ", compactTypeUrls=" + compactTypeUrls +
+                ", resultCacheMaxBytes=" + resultCacheMaxBytes +
+                ", idleTimeoutMillis=" + idleTimeoutMillis +
+                '}';
+    }
+
+    /**
+     * Builder of {@link ServerOptions}.
+     */
+    public static final class Builder {
+
+        private AsynchronousChannelGroup channelGroup;
+        private int ioThreads;
+        private ThreadFactory ioThreadFactory;
+        private Executor executor;
+        private int workerThreads;
+        private boolean virtualThreads;
+        private int pooledBuffersPerSize = 32;
+        private boolean directBuffers;
+        private boolean compactTypeUrls = true;
+        private long resultCacheMaxBytes = 16L * 1024 * 1024;
+        private long idleTimeoutMillis = 5_000L;
+
+        private Builder() {
+        }
+
+        /**
+         * Use the given channel group for all I/O performed by the server.
+         * <p>
+         * The channel group is owned by the caller and is not shut down when the server is closed,
+         * so it may be shared between several servers.
+         * <p>
+         * If set, this option takes precedence over {@link #ioThreads(int)}.
+         *
+         * @param channelGroup to use, or null to not use a caller-provided channel group
+         * @return this builder
+         */
+        public Builder channelGroup(AsynchronousChannelGroup channelGroup) {
+            this.channelGroup = channelGroup;
+            return this;
+        }
+
+        /**
+         * Create a dedicated channel group with a fixed number of threads for the server.
+         * <p>
+         * The channel group is created when the server starts and shut down when the server is closed.
+         *
+         * @param ioThreads number of threads of the dedicated channel group, or 0 to use the
+         *                  JVM-wide default channel group
+         * @return this builder
+         */
+        public Builder ioThreads(int ioThreads) {
+            if (ioThreads < 0) {
+                throw new IllegalArgumentException("ioThreads must not be negative");
+            }
+            this.ioThreads = ioThreads;
+            return this;
+        }
+
+        /**
+         * Set the thread factory used to create the threads of the dedicated channel group.
+         * <p>
+         * This option is only used if {@link #ioThreads(int)} is set to a positive value.
+         * If not set, daemon threads named after the server port are created.
+         *
+         * @param ioThreadFactory thread factory for I/O threads
+         * @return this builder
+         */
+        public Builder ioThreadFactory(ThreadFactory ioThreadFactory) {
+            this.ioThreadFactory = ioThreadFactory;
+            return this;
+        }
+
+        /**
+         * Run service methods using the given executor.
+         * <p>
+         * Method invocations are still read and decoded by the I/O threads, but the service method
+         * itself runs on the executor, and the response is written as soon as it completes.
+         * Any {@link Executor} may be used, e.g. a fixed thread pool or a {@link java.util.concurrent.ForkJoinPool}.
+         * <p>
+         * The executor is owned by the caller and is not shut down when the server is closed.
+         * <p>
+         * If set, this option takes precedence over {@link #virtualThreads(boolean)} and
+         * {@link #workerThreads(int)}.
+         *
+         * @param executor to run service methods with, or null to not use a caller-provided executor
+         * @return this builder
+         */
+        public Builder executor(Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * Run service methods in a fixed thread pool created by the server.
+         * <p>
+         * The thread pool is created when the server starts and shut down when the server is closed.
+         *
+         * @param workerThreads number of threads of the worker thread pool, or 0 to run service methods
+         *                      directly on the I/O threads
+         * @return this builder
+         */
+        public Builder workerThreads(int workerThreads) {
+            if (workerThreads < 0) {
+                throw new IllegalArgumentException("workerThreads must not be negative");
+            }
+            this.workerThreads = workerThreads;
+            return this;
+        }
+
+        /**
+         * Run each service method invocation on a new virtual thread.
+         * <p>
+         * This allows a large number of concurrent, blocking service method calls without growing
+         * a platform thread pool.
+         * <p>
+         * Virtual threads are only available on JDK 21+. On older JVMs, a warning is logged and the
+         * server falls back to the other executor options.
+         * <p>
+         * If set, this option takes precedence over {@link #workerThreads(int)}.
+         *
+         * @param virtualThreads whether to run service methods on virtual threads
+         * @return this builder
+         */
+        public Builder virtualThreads(boolean virtualThreads) {
+            this.virtualThreads = virtualThreads;
+            return this;
+        }
+
+        /**
+         * Set the maximum number of idle buffers of each size kept in the server's buffer pool.
+         * <p>
+         * Buffers are pooled in power-of-two sizes of up to 64KiB. Larger messages always use a new buffer.
+         * The default is 32 buffers of each size.
+         *
+         * @param pooledBuffersPerSize maximum number of idle buffers of each size, or 0 to disable pooling
+         * @return this builder
+         */
+        public Builder pooledBuffersPerSize(int pooledBuffersPerSize) {
+            if (pooledBuffersPerSize < 0) {
+                throw new IllegalArgumentException("pooledBuffersPerSize must not be negative");
+            }
+            this.pooledBuffersPerSize = pooledBuffersPerSize;
+            return this;
+        }
+
+        /**
+         * Use direct buffers in the server's buffer pool.
+         * <p>
+         * Direct buffers avoid a copy between the Java heap and native memory when reading from and writing to
+         * sockets, but are more expensive to allocate, so they should normally only be used with pooling enabled.
+         * By default, heap buffers are used.
+         *
+         * @param directBuffers whether to use direct buffers
+         * @return this builder
+         */
+        public Builder directBuffers(boolean directBuffers) {
+            this.directBuffers = directBuffers;
+            return this;
+        }
+
+        /**
+         * Accept to send compact type URLs to clients that ask for them during the connection handshake.
+         * <p>
+         * With compact type URLs, the type URL of each {@code google.protobuf.Any} result (e.g.
+         * {@code type.googleapis.com/google.protobuf.Int32Value}) is only sent the first time a type is used in
+         * a connection. Afterwards, a short numeric type ID is sent instead. Enabled by default.
+         * <p>
+         * Compact type URLs sent by clients are always accepted.
+         *
+         * @param compactTypeUrls whether to send compact type URLs to clients that ask for them
+         * @return this builder
+         */
+        public Builder compactTypeUrls(boolean compactTypeUrls) {
+            this.compactTypeUrls = compactTypeUrls;
+            return this;
+        }
+
+        /**
+         * Set the maximum size of the cache of results of {@link Cacheable} service methods.
+         * <p>
+         * The size of each cached result is estimated from the serialized size of the result and of the arguments
+         * of the invocation it belongs to. When the cache is full, the least recently used results are evicted.
+         * The default is 16MiB.
+         *
+         * @param resultCacheMaxBytes maximum size of the cache, in bytes, or 0 to disable caching
+         * @return this builder
+         */
+        public Builder resultCacheMaxBytes(long resultCacheMaxBytes) {
+            if (resultCacheMaxBytes < 0) {
+                throw new IllegalArgumentException("resultCacheMaxBytes must not be negative");
+            }
+            this.resultCacheMaxBytes = resultCacheMaxBytes;
+            return this;
+        }
+
+        /**
+         * Set the time after which connections on which clients send nothing are closed.
+         * <p>
+         * Connections are not considered idle while the server is still running invocations received from them,
+         * and connections of clients that receive cache invalidations are never closed for being idle.
+         * Clients learn the timeout during the connection handshake, and stop using connections before it elapses.
+         * The default is 5 seconds.
+         *
+         * @param idleTimeoutMillis time, in milliseconds, or 0 to never close idle connections
+         * @return this builder
+         */
+        public Builder idleTimeoutMillis(long idleTimeoutMillis) {
+            if (idleTimeoutMillis < 0) {
+                throw new IllegalArgumentException("idleTimeoutMillis must not be negative");
+            }
+            this.idleTimeoutMillis = idleTimeoutMillis;
+            return this;
+        }
+
+        /**
+         * @return a new {@link ServerOptions} instance with the values set in this builder.
+         */
+        public ServerOptions build() {
+            return new ServerOptions(this);
+        }
+    }
+}
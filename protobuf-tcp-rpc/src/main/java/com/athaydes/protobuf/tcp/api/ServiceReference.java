@@ -1,6 +1,7 @@
 package com.athaydes.protobuf.tcp.api;
 
 import java.io.Closeable;
+import java.util.Optional;
 
 /**
  * Reference to a remote service provided by a local service.
@@ -15,4 +16,27 @@ public interface ServiceReference<T> extends Runnable, Closeable {
      */
     T getLocalService();
 
+    /**
+     * @return statistics of the buffer pool used by the remote service, if available.
+     */
+    default Optional<BufferPoolStatistics> getBufferPoolStatistics() {
+        return Optional.empty();
+    }
+
+    /**
+     * @return statistics of the result cache of the remote service, if it has {@link Cacheable} methods.
+     */
+    default Optional<ResultCacheStatistics> getResultCacheStatistics() {
+        return Optional.empty();
+    }
+
+    /**
+     * Invalidate the cached results of the given methods, both in the result cache of the remote service and in the
+     * caches of the clients that receive cache invalidations (see {@link ClientOptions.Builder#cacheResults}).
+     *
+     * @param methodNames names of the methods whose results are no longer valid, or none to invalidate all results
+     */
+    default void invalidateCachedResults(String... methodNames) {
+    }
+
 }
@@ -0,0 +1,26 @@
+package com.athaydes.protobuf.tcp.api;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a service method whose identical concurrent invocations are deduplicated by the server.
+ * <p>
+ * When the server receives an invocation of such method while an invocation of the same method with identical
+ * arguments (i.e. arguments with the same type and serialized bytes) is still running, possibly on behalf of another
+ * client, the method is not invoked again. Instead, the result of the running invocation, or its error, is sent to
+ * all callers once it is available.
+ * <p>
+ * This protects expensive, read-only methods from bursts of identical requests (e.g. after a cache entry expires).
+ * It must not be used on methods with side effects, as some callers would not cause the method to run.
+ * <p>
+ * The annotation may be placed either on the method of the service implementation, or of the exported interface.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface SingleFlight {
+}
@@ -0,0 +1,134 @@
+package com.athaydes.protobuf.tcp.internal;
+
+import com.athaydes.protobuf.tcp.api.BufferPoolStatistics;
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A pool of {@link ByteBuffer}s organized in size classes.
+ * <p>
+ * Each size class holds buffers of a power-of-two capacity, from {@link #MIN_BUFFER_SIZE} up to
+ * {@link #MAX_BUFFER_SIZE}. Requests for larger buffers are always served with a new, unpooled heap buffer.
+ * <p>
+ * Leased buffers should be returned to the pool with {@link #release(ByteBuffer)} once they are no longer used.
+ * Buffers that do not fit in the pool are simply left for the garbage collector.
+ */
+final class BufferPool {
+
+    static final int MIN_BUFFER_SIZE = 256;
+    static final int MAX_BUFFER_SIZE = 64 * 1024;
+
+    private static final int MIN_SIZE_SHIFT = Integer.numberOfTrailingZeros(MIN_BUFFER_SIZE);
+    private static final int SIZE_CLASSES = Integer.numberOfTrailingZeros(MAX_BUFFER_SIZE) - MIN_SIZE_SHIFT + 1;
+
+    private final boolean direct;
+    private final Queue<ByteBuffer>[] pools;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder unpooled = new LongAdder();
+
+    /**
+     * @param direct             whether to pool direct buffers (as opposed to heap buffers)
+     * @param maxBuffersPerClass maximum number of idle buffers kept by each size class.
+     *                           If 0, no buffers are kept and every lease allocates a new buffer.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    BufferPool(boolean direct, int maxBuffersPerClass) {
+        this.direct = direct;
+        this.pools = new Queue[SIZE_CLASSES];
+        if (maxBuffersPerClass > 0) {
+            for (int i = 0; i < SIZE_CLASSES; i++) {
+                pools[i] = new ArrayBlockingQueue<>(maxBuffersPerClass);
+            }
+        }
+    }
+
+    /**
+     * Lease a buffer with at least the given capacity.
+     * <p>
+     * The returned buffer's position is 0 and its limit is set to the requested size.
+     *
+     * @param size minimum capacity of the buffer
+     * @return leased buffer
+     */
+    ByteBuffer lease(int size) {
+        int sizeClass = sizeClassOf(size);
+        if (sizeClass < 0) {
+            unpooled.increment();
+            return ByteBuffer.allocate(size);
+        }
+        Queue<ByteBuffer> pool = pools[sizeClass];
+        ByteBuffer buffer = pool == null ? null : pool.poll();
+        if (buffer == null) {
+            misses.increment();
+            int capacity = MIN_BUFFER_SIZE << sizeClass;
+            buffer = direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+        } else {
+            hits.increment();
+            buffer.clear();
+        }
+        buffer.limit(size);
+        return buffer;
+    }
+
+    /**
+     * Return a buffer to the pool.
+     * <p>
+     * The buffer must not be used by the caller after this method is called.
+     *
+     * @param buffer to return
+     */
+    void release(ByteBuffer buffer) {
+        if (buffer.isDirect() != direct) {
+            return;
+        }
+        int capacity = buffer.capacity();
+        int sizeClass = sizeClassOf(capacity);
+
+        // only buffers allocated by this pool have exactly the capacity of their size class
+        if (sizeClass >= 0 && capacity == (MIN_BUFFER_SIZE << sizeClass)) {
+            Queue<ByteBuffer> pool = pools[sizeClass];
+            if (pool != null) {
+                pool.offer(buffer);
+            }
+        }
+    }
+
+    /**
+     * @return a snapshot of the statistics of this pool
+     */
+    BufferPoolStatistics statistics() {
+        int idleBuffers = 0;
+        long idleBytes = 0L;
+        for (int i = 0; i < SIZE_CLASSES; i++) {
+            Queue<ByteBuffer> pool = pools[i];
+            if (pool != null) {
+                int size = pool.size();
+                idleBuffers += size;
+                idleBytes += (long) size * (MIN_BUFFER_SIZE << i);
+            }
+        }
+        return new BufferPoolStatistics(direct, hits.sum(), misses.sum(), unpooled.sum(),
+                idleBuffers, idleBytes);
+    }
+
+    /**
+     * @return the index of the smallest size class that can hold the given size,
+     * or -1 if the size is too large to be pooled
+     */
+    private static int sizeClassOf(int size) {
+        if (size > MAX_BUFFER_SIZE) {
+            return -1;
+        }
+        if (size <= MIN_BUFFER_SIZE) {
+            return 0;
+        }
+        // round up to the next power of two
+        int shift = 32 - Integer.numberOfLeadingZeros(size - 1);
+        return shift - MIN_SIZE_SHIFT;
+    }
+
+}
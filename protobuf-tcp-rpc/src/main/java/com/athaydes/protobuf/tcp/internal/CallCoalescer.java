@@ -0,0 +1,196 @@
+package com.athaydes.protobuf.tcp.internal;
+
+import com.athaydes.protobuf.tcp.api.Coalesce;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Coalesces concurrent invocations of a single-item service method into invocations of a bulk method
+ * (see {@link Coalesce}).
+ * <p>
+ * Arguments of the invocations submitted during a time window are gathered in a batch. When the window closes, or
+ * the batch is full, the bulk method is invoked with the distinct arguments of the batch, and the future of each
+ * invocation is completed with the result for its argument.
+ */
+final class CallCoalescer {
+
+    private static final Logger log = LoggerFactory.getLogger(CallCoalescer.class);
+
+    private final Object service;
+    private final Method bulkMethod;
+    private final MethodInvoker bulkInvoker;
+    private final long windowMicros;
+    private final int maxBatchSize;
+
+    /**
+     * Futures of the invocations of the current batch, by argument. Guarded by the lock of this object.
+     */
+    private Map<Object, List<CompletableFuture<Object>>> batch = new LinkedHashMap<>();
+
+    CallCoalescer(Object service, Method bulkMethod, long windowMicros, int maxBatchSize) {
+        this.service = service;
+        this.bulkMethod = bulkMethod;
+        this.bulkInvoker = MethodInvoker.of(bulkMethod);
+        this.windowMicros = windowMicros;
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Find the methods of a service whose invocations may be coalesced, and create their coalescers.
+     *
+     * @param service the service
+     * @param methods methods of the service that can be invoked remotely
+     * @return coalescers by the method whose invocations they coalesce
+     * @throws IllegalArgumentException if a method annotated with {@link Coalesce} or its bulk method is not valid
+     */
+    static Map<Method, CallCoalescer> forMethods(Object service, Collection<Method> methods) {
+        Map<Method, CallCoalescer> coalescers = new HashMap<>(2);
+        for (Method method : methods) {
+            Coalesce coalesce = MethodResolver.annotationOf(service, method, Coalesce.class);
+            if (coalesce == null) {
+                continue;
+            }
+            if (method.getParameterCount() != 1 ||
+                    method.getReturnType().equals(void.class) ||
+                    MethodInvocationResolver.isAsyncType(method.getReturnType())) {
+                throw new IllegalArgumentException("Only synchronous, non-void methods with a single parameter " +
+                        "can be coalesced: " + method);
+            }
+            if (coalesce.windowMicros() < 0 || coalesce.maxBatchSize() < 1) {
+                throw new IllegalArgumentException("Invalid @Coalesce parameters: " + method);
+            }
+            Method bulkMethod = bulkMethodOf(service, coalesce.value());
+            log.debug("Invocations of {} will be coalesced into invocations of {}", method, bulkMethod);
+            coalescers.put(method, new CallCoalescer(service, bulkMethod,
+                    coalesce.windowMicros(), coalesce.maxBatchSize()));
+        }
+        return coalescers.isEmpty() ? Collections.emptyMap() : Collections.unmodifiableMap(coalescers);
+    }
+
+    private static Method bulkMethodOf(Object service, String name) {
+        for (Method method : service.getClass().getMethods()) {
+            if (method.getName().equals(name) &&
+                    !Modifier.isStatic(method.getModifiers()) &&
+                    method.getParameterCount() == 1 &&
+                    method.getParameterTypes()[0].isAssignableFrom(List.class) &&
+                    (List.class.isAssignableFrom(method.getReturnType()) ||
+                            Map.class.isAssignableFrom(method.getReturnType()))) {
+                return method;
+            }
+        }
+        throw new IllegalArgumentException("Service " + service.getClass().getName() + " does not have a bulk " +
+                "method named '" + name + "' taking a List parameter and returning a List or a Map");
+    }
+
+    /**
+     * Submit an invocation to be coalesced with other invocations.
+     *
+     * @param argument argument of the invocation
+     * @param executor executor to run the bulk method with, if this invocation causes it to run. It must not run the
+     *                 bulk method on the calling thread, which may be the timer thread closing the time window
+     * @return the result for the given argument
+     */
+    CompletableFuture<Object> submit(Object argument, Executor executor) {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        Map<Object, List<CompletableFuture<Object>>> fullBatch = null;
+        synchronized (this) {
+            Map<Object, List<CompletableFuture<Object>>> currentBatch = batch;
+            boolean firstInvocation = currentBatch.isEmpty();
+            currentBatch.computeIfAbsent(argument, k -> new ArrayList<>(1)).add(future);
+            if (currentBatch.size() >= maxBatchSize) {
+                fullBatch = currentBatch;
+                batch = new LinkedHashMap<>();
+            } else if (firstInvocation) {
+                SharedTimer.schedule(() -> {
+                    if (take(currentBatch)) {
+                        run(currentBatch, executor);
+                    }
+                }, windowMicros, TimeUnit.MICROSECONDS);
+            }
+        }
+        if (fullBatch != null) {
+            run(fullBatch, executor);
+        }
+        return future;
+    }
+
+    /**
+     * @return true if the given batch is the current batch, which is replaced with a new one.
+     */
+    private synchronized boolean take(Map<Object, List<CompletableFuture<Object>>> currentBatch) {
+        if (batch != currentBatch) {
+            // the batch was full before its window closed
+            return false;
+        }
+        batch = new LinkedHashMap<>();
+        return true;
+    }
+
+    private void run(Map<Object, List<CompletableFuture<Object>>> batch, Executor executor) {
+        try {
+            executor.execute(() -> invokeBulkMethod(batch));
+        } catch (RejectedExecutionException e) {
+            log.warn("Executor rejected bulk method invocation: {}", e.toString());
+            failAll(batch, e);
+        }
+    }
+
+    private void invokeBulkMethod(Map<Object, List<CompletableFuture<Object>>> batch) {
+        List<Object> arguments = new ArrayList<>(batch.keySet());
+        log.debug("Invoking bulk method {} with {} arguments", bulkMethod.getName(), arguments.size());
+
+        Object results;
+        try {
+            results = bulkInvoker.invoke(service, new Object[]{arguments});
+        } catch (InvocationTargetException e) {
+            failAll(batch, e.getCause());
+            return;
+        } catch (Exception e) {
+            failAll(batch, e);
+            return;
+        }
+
+        if (results instanceof Map) {
+            Map<?, ?> resultsByArgument = (Map<?, ?>) results;
+            batch.forEach((argument, futures) -> completeAll(futures, resultsByArgument.get(argument)));
+        } else if (results instanceof List && ((List<?>) results).size() == arguments.size()) {
+            List<?> resultList = (List<?>) results;
+            for (int i = 0; i < arguments.size(); i++) {
+                completeAll(batch.get(arguments.get(i)), resultList.get(i));
+            }
+        } else {
+            failAll(batch, new IllegalStateException("Bulk method " + bulkMethod.getName() + " returned " +
+                    (results == null ? "null" : ((List<?>) results).size() + " results") +
+                    " for " + arguments.size() + " arguments"));
+        }
+    }
+
+    private static void completeAll(List<CompletableFuture<Object>> futures, Object result) {
+        for (CompletableFuture<Object> future : futures) {
+            future.complete(result);
+        }
+    }
+
+    private static void failAll(Map<Object, List<CompletableFuture<Object>>> batch, Throwable error) {
+        for (List<CompletableFuture<Object>> futures : batch.values()) {
+            for (CompletableFuture<Object> future : futures) {
+                future.completeExceptionally(error);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,103 @@
+package com.athaydes.protobuf.tcp.internal;
+
+import com.athaydes.protobuf.tcp.api.Api;
+import com.athaydes.protobuf.tcp.api.ClientOptions;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongFunction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hedges the calls to an idempotent method (see {@link ClientOptions.Builder#hedgeDelayMillis(long)}).
+ * <p>
+ * If a call has not completed after the hedge delay, the same invocation is sent again, and the call completes with
+ * the first successful result. The other invocation is then cancelled, so its result is discarded when it arrives.
+ * The call only fails if all of its invocations fail.
+ * <p>
+ * The hedge delay is either fixed, or a percentile of the latencies of the recent calls to the method, so that only
+ * the slowest calls are hedged.
+ */
+final class CallHedger {
+
+    private static final Logger log = LoggerFactory.getLogger(CallHedger.class);
+
+    private final String methodName;
+    private final long minDelayMillis;
+    private final LatencyTracker latencies;
+
+    /**
+     * @param methodName     name of the hedged method
+     * @param minDelayMillis the hedge delay, or its minimum if a percentile is given
+     * @param percentile     percentile of the recent latencies to use as the hedge delay, or 0 to use a fixed delay
+     */
+    CallHedger(String methodName, long minDelayMillis, double percentile) {
+        this.methodName = methodName;
+        this.minDelayMillis = minDelayMillis;
+        this.latencies = percentile > 0.0 ? new LatencyTracker(percentile) : null;
+    }
+
+    /**
+     * @return the current hedge delay, in milliseconds.
+     */
+    long delayMillis() {
+        if (latencies == null) {
+            return minDelayMillis;
+        }
+        long percentileNanos = latencies.percentileNanos();
+        if (percentileNanos < 0L) {
+            return minDelayMillis;
+        }
+        return Math.max(minDelayMillis, TimeUnit.NANOSECONDS.toMillis(percentileNanos));
+    }
+
+    /**
+     * Make a call, sending the invocation again if it does not complete within the hedge delay.
+     *
+     * @param invocation    sends an invocation of the call, given its timeout
+     * @param timeoutMillis timeout of the call, or 0 if it does not time out
+     * @return the result of the first invocation to succeed
+     */
+    CompletableFuture<Api.Result> call(LongFunction<CompletableFuture<Api.Result>> invocation, long timeoutMillis) {
+        CompletableFuture<Api.Result> result = new CompletableFuture<>();
+        AtomicInteger pendingInvocations = new AtomicInteger(1);
+        long startNanos = System.nanoTime();
+        send(invocation, timeoutMillis, result, pendingInvocations);
+
+        long delayMillis = delayMillis();
+        if (timeoutMillis == 0L || delayMillis < timeoutMillis) {
+            TimerWheel.Timeout timeout = TimerWheel.shared().schedule(() -> {
+                if (!result.isDone()) {
+                    log.debug("No result from remote method '{}' within {}ms, hedging the call",
+                            methodName, delayMillis);
+                    pendingInvocations.incrementAndGet();
+                    long remainingMillis = timeoutMillis == 0L ? 0L : Math.max(1L, timeoutMillis -
+                            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+                    send(invocation, remainingMillis, result, pendingInvocations);
+                }
+            }, delayMillis, TimeUnit.MILLISECONDS);
+            result.whenComplete((value, error) -> timeout.cancel());
+        }
+
+        if (latencies != null) {
+            result.thenRun(() -> latencies.record(System.nanoTime() - startNanos));
+        }
+        return result;
+    }
+
+    private static void send(LongFunction<CompletableFuture<Api.Result>> invocation, long timeoutMillis,
+                             CompletableFuture<Api.Result> result, AtomicInteger pendingInvocations) {
+        CompletableFuture<Api.Result> future = invocation.apply(timeoutMillis);
+        future.whenComplete((value, error) -> {
+            if (error == null) {
+                result.complete(value);
+            } else if (pendingInvocations.decrementAndGet() == 0) {
+                result.completeExceptionally(error);
+            }
+        });
+        // the first result wins, the other invocation is dropped
+        result.whenComplete((value, error) -> future.cancel(false));
+    }
+
+}
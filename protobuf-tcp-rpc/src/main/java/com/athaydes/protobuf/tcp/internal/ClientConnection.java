@@ -0,0 +1,147 @@
+package com.athaydes.protobuf.tcp.internal;
+
+import com.athaydes.protobuf.tcp.api.Api;
+import com.google.protobuf.Any;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A blocking client connection to a remote service.
+ * <p>
+ * The connection performs the handshake described in {@link ClientSession} when it is opened.
+ * It must only be used by one caller at a time.
+ * <p>
+ * Timeouts are enforced by the socket, so a read that times out throws a {@link SocketTimeoutException}, after which
+ * the connection must be closed, as part of a message may have been read.
+ */
+final class ClientConnection implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(ClientConnection.class);
+
+    private final Socket socket;
+    private final InputStream in;
+    private final OutputStream out;
+    private final ClientSession session = new ClientSession();
+
+    private ClientConnection(Socket socket) throws IOException {
+        this.socket = socket;
+        this.in = socket.getInputStream();
+        this.out = socket.getOutputStream();
+    }
+
+    /**
+     * Open a new connection to the given address.
+     *
+     * @param address         of the remote service
+     * @param handshakeCall   ID of the call used to request the method table
+     * @param compactTypeUrls      whether to ask the server to use compact type URLs
+     * @param connectTimeoutMillis maximum time to connect, and then to complete the handshake, or 0 for no limit
+     * @return the connection
+     * @throws IOException if a problem occurs while connecting, including a {@link SocketTimeoutException}
+     */
+    static ClientConnection open(URI address, long handshakeCall, boolean compactTypeUrls,
+                                 long connectTimeoutMillis) throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(address.getHost(), address.getPort()),
+                    toSocketTimeout(connectTimeoutMillis));
+            ClientConnection connection = new ClientConnection(socket);
+            connection.write(ClientSession.handshake(handshakeCall, compactTypeUrls, false));
+            Api.Result result = connection.readResult(handshakeCall, connectTimeoutMillis);
+            if (result == null) {
+                throw new EOFException("Connection closed by the server during handshake");
+            }
+            connection.session.onHandshakeResult(result);
+            return connection;
+        } catch (IOException | RuntimeException e) {
+            Utils.closeQuietly(socket);
+            throw e;
+        }
+    }
+
+    /**
+     * Send the invocation of a method.
+     *
+     * @param callId        ID of the call
+     * @param method        to invoke
+     * @param args          arguments of the invocation
+     * @param oneWay        whether the server should not send a result back
+     * @param timeoutMillis timeout of the call, or 0 if it does not time out
+     * @throws IOException if a problem occurs while writing to the connection
+     */
+    void send(long callId, Method method, List<Any> args, boolean oneWay, long timeoutMillis) throws IOException {
+        write(session.encode(callId, method, args, oneWay, timeoutMillis));
+    }
+
+    /**
+     * @return the time, in milliseconds, after which the server closes this connection if it stays idle, or 0 if
+     * the server never closes it.
+     */
+    long getServerIdleTimeoutMillis() {
+        return session.getServerIdleTimeoutMillis();
+    }
+
+    private void write(Api.MethodInvocation invocation) throws IOException {
+        log.debug("Sending message with length: {}", invocation.getSerializedSize());
+        invocation.writeDelimitedTo(out);
+        out.flush();
+    }
+
+    /**
+     * Read the result of the call with the given ID.
+     * <p>
+     * Results of other calls (e.g. left behind by a call that failed while waiting for its result) are discarded.
+     * Results without a call ID are accepted, as older servers do not send the call ID back.
+     *
+     * @param callId        ID of the call
+     * @param timeoutMillis maximum time to wait for the result, or 0 to wait for as long as it takes
+     * @return the result, or null on EOF
+     * @throws SocketTimeoutException if the result is not received in time
+     */
+    Api.Result readResult(long callId, long timeoutMillis) throws IOException {
+        long deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (true) {
+            if (timeoutMillis > 0L) {
+                long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+                if (remainingMillis <= 0L) {
+                    throw new SocketTimeoutException("Result not received within " + timeoutMillis + "ms");
+                }
+                socket.setSoTimeout(toSocketTimeout(remainingMillis));
+            } else {
+                socket.setSoTimeout(0);
+            }
+            Api.Result result = Api.Result.parseDelimitedFrom(in);
+            if (result == null) {
+                return null;
+            }
+            // registrations must be recorded even if the result is discarded
+            result = session.decode(result);
+            if (result.getCallId() == 0L || result.getCallId() == callId) {
+                return result;
+            }
+            log.debug("Discarding result of call with ID {}, expected call ID {}", result.getCallId(), callId);
+        }
+    }
+
+    private static int toSocketTimeout(long timeoutMillis) {
+        return (int) Math.min(timeoutMillis, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public void close() {
+        Utils.closeQuietly(socket);
+    }
+
+}
@@ -0,0 +1,137 @@
+package com.athaydes.protobuf.tcp.internal;
+
+import com.athaydes.protobuf.tcp.api.ClientOptions;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cache of the decoded results of remote method calls, owned by a single client
+ * (see {@link ClientOptions#getCachedMethods()}).
+ * <p>
+ * Results are cached by method and arguments, and kept until they expire, are invalidated, or are evicted because
+ * the cache is full, in which case the least recently used results are evicted first.
+ * <p>
+ * Each invalidation increments the version of the cache. Results of calls started before an invalidation are not
+ * cached, as they may have been computed before the change that caused it.
+ */
+final class ClientResultCache {
+
+    /**
+     * Returned by {@link #get(List)} when there is no cached result, as null results may be cached.
+     */
+    static final Object MISS = new Object();
+
+    private final int maxEntries;
+
+    /**
+     * Entries in access order, from least to most recently used. Guarded by the lock of this object.
+     */
+    private final LinkedHashMap<List<Object>, Entry> entries;
+
+    /**
+     * Number of invalidations so far. Guarded by the lock of this object.
+     */
+    private long version = 0L;
+
+    ClientResultCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<List<Object>, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<List<Object>, Entry> eldest) {
+                return size() > ClientResultCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * @param method the called method
+     * @param args   arguments of the call
+     * @return the key of the call
+     */
+    static List<Object> keyOf(Method method, Object[] args) {
+        Object[] key = new Object[args.length + 1];
+        key[0] = method;
+        System.arraycopy(args, 0, key, 1, args.length);
+        return Arrays.asList(key);
+    }
+
+    /**
+     * @param key of the call
+     * @return the cached result, which may be null, or {@link #MISS} if there is none
+     */
+    synchronized Object get(List<Object> key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return MISS;
+        }
+        if (entry.expiresAtNanos - System.nanoTime() <= 0) {
+            entries.remove(key);
+            return MISS;
+        }
+        return entry.value;
+    }
+
+    /**
+     * @return the current version of this cache, to be given to {@link #put(List, Object, long, long)}.
+     */
+    synchronized long version() {
+        return version;
+    }
+
+    /**
+     * Cache the result of a call, unless the cache has been invalidated since the call started.
+     *
+     * @param key      of the call
+     * @param value    result of the call
+     * @param ttlNanos time to live of the result
+     * @param version  of the cache when the call started
+     */
+    synchronized void put(List<Object> key, Object value, long ttlNanos, long version) {
+        if (this.version == version) {
+            entries.put(key, new Entry(value, System.nanoTime() + ttlNanos));
+        }
+    }
+
+    /**
+     * Remove the cached results of the methods with the given names.
+     *
+     * @param methodNames names of the methods, or empty to remove all results
+     */
+    synchronized void invalidate(Collection<String> methodNames) {
+        version++;
+        if (methodNames.isEmpty()) {
+            entries.clear();
+            return;
+        }
+        Iterator<List<Object>> iterator = entries.keySet().iterator();
+        while (iterator.hasNext()) {
+            Method method = (Method) iterator.next().get(0);
+            if (methodNames.contains(method.getName())) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * @return the number of cached results, including expired results not yet removed.
+     */
+    synchronized int size() {
+        return entries.size();
+    }
+
+    private static final class Entry {
+        final Object value;
+        final long expiresAtNanos;
+
+        Entry(Object value, long expiresAtNanos) {
+            this.value = value;
+            this.expiresAtNanos = expiresAtNanos;
+        }
+    }
+
+}
@@ -0,0 +1,244 @@
+package com.athaydes.protobuf.tcp.internal;
+
+import com.athaydes.protobuf.tcp.api.Api;
+import com.athaydes.protobuf.tcp.api.ServerOptions;
+import com.google.protobuf.Any;
+import com.google.protobuf.InvalidProtocolBufferException;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The client side of the protocol state of a connection to a remote service.
+ * <p>
+ * When a connection is opened, the client requests the method table of the service, so that methods can be invoked
+ * by ID instead of by name. Servers that do not publish a method table respond with an error, in which case methods
+ * are always invoked by name.
+ * <p>
+ * The client may also ask the server to use compact type URLs during the handshake (see {@link TypeUrlDictionary}).
+ * If the server accepts, both sides replace the type URLs of arguments and results with short type IDs.
+ * <p>
+ * The method table also tells whether the server accepts batches of invocations, whether it sends cache
+ * invalidations, if the client asked for them, and after how long the server closes the connection if it stays idle.
+ * <p>
+ * Method IDs and type IDs are only valid for the connection they were obtained from, so each connection has its own
+ * session. Invocations must be encoded in the order they are written to the connection, and results must be decoded
+ * in the order they are read from it.
+ */
+final class ClientSession {
+
+    private static final Logger log = LoggerFactory.getLogger(ClientSession.class);
+
+    private static final Integer NO_METHOD_ID = 0;
+
+    /**
+     * Method IDs by method signature (see {@link #signatureOf(String, Iterable)}).
+     * Signatures that are ambiguous (i.e. shared by more than one method) are mapped to {@link #NO_METHOD_ID}.
+     */
+    private volatile Map<String, Integer> methodIdsBySignature = Collections.emptyMap();
+
+    private final Map<Method, Integer> methodIds = new ConcurrentHashMap<>();
+
+    /**
+     * Whether the server accepted to use compact type URLs.
+     */
+    private volatile boolean compactTypeUrls = false;
+
+    /**
+     * Whether the server accepts batches of invocations.
+     */
+    private volatile boolean batches = false;
+
+    /**
+     * Whether the server sends its cache invalidations.
+     */
+    private volatile boolean cacheInvalidations = false;
+
+    /**
+     * Time, in milliseconds, after which the server closes the connection if it stays idle. Servers that do not send
+     * a method table are assumed to use the default timeout.
+     */
+    private volatile long serverIdleTimeoutMillis = ServerOptions.defaults().getIdleTimeoutMillis();
+
+    /**
+     * Type URLs registered by the client. Invocations are encoded holding the lock of this object.
+     */
+    private final TypeUrlDictionary outgoingTypes = new TypeUrlDictionary();
+
+    /**
+     * Type URLs registered by the server. Results are decoded holding the lock of this object.
+     */
+    private final TypeUrlDictionary incomingTypes = new TypeUrlDictionary();
+
+    /**
+     * @param callId             ID of the call used to request the method table
+     * @param compactTypeUrls    whether to ask the server to use compact type URLs
+     * @param cacheInvalidations whether to ask the server to send its cache invalidations
+     * @return the invocation that requests the method table of the remote service
+     */
+    static Api.MethodInvocation handshake(long callId, boolean compactTypeUrls, boolean cacheInvalidations) {
+        Api.MethodInvocation.Builder invocation = Api.MethodInvocation.newBuilder()
+                .setMethodName(MethodDispatchTable.METHOD_TABLE_METHOD_NAME)
+                .setCallId(callId);
+        if (compactTypeUrls || cacheInvalidations) {
+            invocation.addArgs(Any.pack(Api.Handshake.newBuilder()
+                    .setCompactTypeUrls(compactTypeUrls)
+                    .setCacheInvalidations(cacheInvalidations)
+                    .build()));
+        }
+        return invocation.build();
+    }
+
+    /**
+     * Complete the handshake with the result of the invocation created by
+     * {@link #handshake(long, boolean, boolean)}.
+     *
+     * @param result of the handshake invocation, after being decoded by this session
+     * @throws InvalidProtocolBufferException if the method table cannot be parsed
+     */
+    void onHandshakeResult(Api.Result result) throws InvalidProtocolBufferException {
+        if (result.hasSuccessResult() && result.getSuccessResult().is(Api.MethodTable.class)) {
+            Api.MethodTable methodTable = result.getSuccessResult().unpack(Api.MethodTable.class);
+            Map<String, Integer> idsBySignature = new HashMap<>(methodTable.getMethodsCount());
+            for (Api.MethodEntry entry : methodTable.getMethodsList()) {
+                idsBySignature.merge(signatureOf(entry.getName(), entry.getParameterTypesList()),
+                        entry.getId(), (a, b) -> NO_METHOD_ID);
+            }
+            log.debug("Received method table with {} methods, compactTypeUrls={}, batches={}, " +
+                            "cacheInvalidations={}, idleTimeoutMillis={}", methodTable.getMethodsCount(),
+                    methodTable.getCompactTypeUrls(), methodTable.getBatches(), methodTable.getCacheInvalidations(),
+                    methodTable.getIdleTimeoutMillis());
+            methodIdsBySignature = idsBySignature;
+            compactTypeUrls = methodTable.getCompactTypeUrls();
+            batches = methodTable.getBatches();
+            cacheInvalidations = methodTable.getCacheInvalidations();
+            serverIdleTimeoutMillis = methodTable.getIdleTimeoutMillis();
+        } else {
+            log.debug("Server did not send a method table, methods will be invoked by name: {}", result);
+        }
+    }
+
+    /**
+     * Encode the invocation of a method.
+     * <p>
+     * If compact type URLs are in use, the returned invocation may register type IDs, so it must be written to
+     * the connection before any invocation encoded after it.
+     *
+     * @param callId        ID of the call
+     * @param method        to invoke
+     * @param args          arguments of the invocation
+     * @param oneWay        whether the server should not send a result back
+     * @param timeoutMillis timeout of the call, or 0 if it does not time out
+     * @return the encoded invocation
+     */
+    Api.MethodInvocation encode(long callId, Method method, List<Any> args, boolean oneWay, long timeoutMillis) {
+        Api.MethodInvocation.Builder invocation = Api.MethodInvocation.newBuilder()
+                .setCallId(callId)
+                .setOneWay(oneWay)
+                .setTimeoutMillis(timeoutMillis);
+
+        int methodId = methodIdOf(method);
+        if (methodId == 0) {
+            invocation.setMethodName(method.getName());
+        } else {
+            invocation.setMethodId(methodId);
+        }
+
+        if (compactTypeUrls) {
+            synchronized (outgoingTypes) {
+                Map<Integer, String> registrations = new HashMap<>(2);
+                for (Any arg : args) {
+                    invocation.addArgs(outgoingTypes.compact(arg, registrations));
+                }
+                invocation.putAllTypeUrls(registrations);
+            }
+        } else {
+            invocation.addAllArgs(args);
+        }
+        return invocation.build();
+    }
+
+    /**
+     * Decode a result received from the server, recording the type IDs it registers.
+     * <p>
+     * Every result read from the connection must be decoded, even if it is discarded afterwards.
+     *
+     * @param result as received from the server
+     * @return the result, with full type URLs
+     * @throws IOException if the result uses a type ID that has not been registered, or registers too many types
+     */
+    Api.Result decode(Api.Result result) throws IOException {
+        synchronized (incomingTypes) {
+            if (result.getTypeUrlsCount() > 0) {
+                try {
+                    incomingTypes.register(result.getTypeUrlsMap());
+                } catch (IllegalStateException e) {
+                    throw new IOException(e.getMessage());
+                }
+            }
+            if (result.hasSuccessResult()) {
+                Any successResult = result.getSuccessResult();
+                Any expanded = incomingTypes.expand(successResult);
+                if (expanded != successResult) {
+                    return result.toBuilder().setSuccessResult(expanded).build();
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * @return whether the server accepts batches of invocations. Only known after the handshake.
+     */
+    boolean isBatchingSupported() {
+        return batches;
+    }
+
+    /**
+     * @return whether the server sends its cache invalidations. Only known after the handshake.
+     */
+    boolean isReceivingCacheInvalidations() {
+        return cacheInvalidations;
+    }
+
+    /**
+     * @return the time, in milliseconds, after which the server closes the connection if it stays idle, or 0 if
+     * the server never closes it. Only known after the handshake.
+     */
+    long getServerIdleTimeoutMillis() {
+        return serverIdleTimeoutMillis;
+    }
+
+    /**
+     * @param method to invoke
+     * @return the ID of the given method in the remote service, or 0 if the method must be invoked by name.
+     */
+    int methodIdOf(Method method) {
+        return methodIds.computeIfAbsent(method, m -> {
+            String[] typeNames = new String[m.getParameterCount()];
+            Class<?>[] parameterTypes = m.getParameterTypes();
+            for (int i = 0; i < typeNames.length; i++) {
+                Optional<String> typeName = MethodInvocationResolver.protobufTypeNameOf(parameterTypes[i]);
+                if (!typeName.isPresent()) {
+                    return NO_METHOD_ID;
+                }
+                typeNames[i] = typeName.get();
+            }
+            return methodIdsBySignature.getOrDefault(signatureOf(m.getName(), Arrays.asList(typeNames)),
+                    NO_METHOD_ID);
+        });
+    }
+
+    private static String signatureOf(String methodName, Iterable<String> parameterTypes) {
+        return methodName + '(' + String.join(",", parameterTypes) + ')';
+    }
+
+}
@@ -0,0 +1,73 @@
+package com.athaydes.protobuf.tcp.internal;
+
+import com.athaydes.protobuf.tcp.api.Api;
+import com.athaydes.protobuf.tcp.api.ConnectionPoolStatistics;
+import com.google.protobuf.Any;
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+/**
+ * The means by which a client sends method invocations to a remote service and receives their results.
+ */
+interface ClientTransport extends AutoCloseable {
+
+    /**
+     * Invoke a method of the remote service.
+     * <p>
+     * The returned future fails with an {@link java.io.IOException} if the invocation cannot be sent or its result
+     * cannot be received. It may complete with null if the server closes the connection without sending a result.
+     *
+     * @param method        to invoke
+     * @param args          arguments of the invocation
+     * @param timeoutMillis timeout of the call, sent to the server, or 0 if it does not time out
+     * @return the result of the invocation
+     */
+    CompletableFuture<Api.Result> invoke(Method method, List<Any> args, long timeoutMillis);
+
+    /**
+     * Invoke a method of the remote service without blocking the caller.
+     * <p>
+     * Unlike {@link #invoke(Method, List, long)}, the returned future is always completed by a thread of the given
+     * executor.
+     *
+     * @param method        to invoke
+     * @param args          arguments of the invocation
+     * @param timeoutMillis timeout of the call, sent to the server, or 0 if it does not time out
+     * @param executor      to complete the returned future with
+     * @return the result of the invocation
+     */
+    CompletableFuture<Api.Result> invokeAsync(Method method, List<Any> args, long timeoutMillis, Executor executor);
+
+    /**
+     * Invoke a method of the remote service without expecting a result.
+     * <p>
+     * The returned future completes once the invocation has been handed over to the connection.
+     *
+     * @param method to invoke
+     * @param args   arguments of the invocation
+     * @return future that completes when the invocation is sent
+     */
+    CompletableFuture<Void> invokeOneWay(Method method, List<Any> args);
+
+    /**
+     * Register a listener of the cache invalidations sent by the server.
+     * <p>
+     * The listener receives the names of the methods whose cached results are no longer valid, or an empty list if
+     * no cached result is valid anymore. Transports that do not receive cache invalidations never call it.
+     *
+     * @param listener of cache invalidations
+     */
+    void addCacheInvalidationListener(Consumer<List<String>> listener);
+
+    /**
+     * @return statistics of the connections used by this transport.
+     */
+    ConnectionPoolStatistics getStatistics();
+
+    @Override
+    void close();
+
+}
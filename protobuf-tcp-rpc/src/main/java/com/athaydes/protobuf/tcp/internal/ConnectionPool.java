@@ -0,0 +1,279 @@
+package com.athaydes.protobuf.tcp.internal;
+
+import com.athaydes.protobuf.tcp.api.ClientOptions;
+import com.athaydes.protobuf.tcp.api.ConnectionPoolStatistics;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToLongFunction;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded pool of connections.
+ * <p>
+ * Connections are opened on demand by a {@link Opener}, up to the maximum number of connections.
+ * Each connection is leased by a single caller at a time, and must be given back with either
+ * {@link #release(Closeable)}, if it can be reused, or {@link #invalidate(Closeable)}, if it is broken.
+ * <p>
+ * Idle connections are reused in LIFO order, so that connections that are not needed to sustain the current load
+ * stay idle long enough to be closed. Idle connections are checked whenever a connection is leased or released.
+ * <p>
+ * Connections are also closed before they stay idle for long enough to be closed by the server, even if that leaves
+ * fewer than the minimum number of connections open, as an invocation sent over a connection closed by the server
+ * would be lost.
+ *
+ * @param <C> type of connection
+ */
+final class ConnectionPool<C extends Closeable> implements AutoCloseable {
+
+    /**
+     * Opens new connections.
+     *
+     * @param <C> type of connection
+     */
+    @FunctionalInterface
+    interface Opener<C> {
+        C open() throws IOException;
+    }
+
+    /**
+     * Thrown when a caller gives up waiting for a connection to become available.
+     */
+    static final class LeaseTimeoutException extends IOException {
+        LeaseTimeoutException(String message) {
+            super(message);
+        }
+    }
+
+    private static final class IdleConnection<C> {
+        final C connection;
+        final long idleSince;
+        final long maxIdleNanos;
+
+        IdleConnection(C connection, long idleSince, long maxIdleNanos) {
+            this.connection = connection;
+            this.idleSince = idleSince;
+            this.maxIdleNanos = maxIdleNanos;
+        }
+    }
+
+    private final Opener<C> opener;
+    private final ToLongFunction<? super C> maxIdleNanos;
+    private final int minConnections;
+    private final int maxConnections;
+    private final long idleTimeoutNanos;
+    private final long leaseTimeoutNanos;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition connectionAvailable = lock.newCondition();
+
+    // all fields below are guarded by the lock
+    private final Deque<IdleConnection<C>> idle = new ArrayDeque<>();
+    private int connections = 0;
+    private int waitingCallers = 0;
+    private long openedConnections = 0L;
+    private long closedConnections = 0L;
+    private long leaseTimeouts = 0L;
+    private boolean closed = false;
+
+    /**
+     * @param opener       of new connections
+     * @param options      of the client
+     * @param maxIdleNanos function returning for how long, in nanoseconds, a connection may stay idle before the
+     *                     server may close it, or 0 if the server never closes it
+     */
+    ConnectionPool(Opener<C> opener, ClientOptions options, ToLongFunction<? super C> maxIdleNanos) {
+        this.opener = opener;
+        this.maxIdleNanos = maxIdleNanos;
+        this.minConnections = options.getMinConnections();
+        this.maxConnections = options.getMaxConnections();
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(options.getIdleTimeoutMillis());
+        this.leaseTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(options.getLeaseTimeoutMillis());
+    }
+
+    /**
+     * Lease a connection, opening a new one if no idle connection is available and the pool is not full.
+     *
+     * @return the leased connection
+     * @throws LeaseTimeoutException if no connection becomes available within the lease timeout
+     * @throws IOException           if the pool is closed, or a new connection cannot be opened
+     */
+    C lease() throws IOException {
+        List<C> expired = new ArrayList<>(0);
+        lock.lock();
+        try {
+            long remainingNanos = leaseTimeoutNanos;
+            while (true) {
+                if (closed) {
+                    throw new IOException("Connection pool is closed");
+                }
+                removeExpired(expired);
+                IdleConnection<C> idleConnection = idle.pollFirst();
+                if (idleConnection != null) {
+                    return idleConnection.connection;
+                }
+                if (connections < maxConnections) {
+                    // reserve a slot for the new connection, which is opened without holding the lock
+                    connections++;
+                    break;
+                }
+                if (remainingNanos <= 0L) {
+                    leaseTimeouts++;
+                    throw new LeaseTimeoutException("Timed out waiting for a connection after " +
+                            TimeUnit.NANOSECONDS.toMillis(leaseTimeoutNanos) + "ms (maxConnections=" +
+                            maxConnections + ")");
+                }
+                waitingCallers++;
+                try {
+                    remainingNanos = connectionAvailable.awaitNanos(remainingNanos);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for a connection");
+                } finally {
+                    waitingCallers--;
+                }
+            }
+        } finally {
+            lock.unlock();
+            expired.forEach(Utils::closeQuietly);
+        }
+
+        try {
+            C connection = opener.open();
+            lock.lock();
+            try {
+                openedConnections++;
+            } finally {
+                lock.unlock();
+            }
+            return connection;
+        } catch (IOException | RuntimeException e) {
+            lock.lock();
+            try {
+                connections--;
+                connectionAvailable.signal();
+            } finally {
+                lock.unlock();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Return a leased connection to the pool so it can be reused.
+     *
+     * @param connection leased connection
+     */
+    void release(C connection) {
+        List<C> toClose = new ArrayList<>(0);
+        lock.lock();
+        try {
+            if (closed) {
+                connections--;
+                closedConnections++;
+                toClose.add(connection);
+            } else {
+                idle.addFirst(new IdleConnection<>(connection, System.nanoTime(),
+                        maxIdleNanos.applyAsLong(connection)));
+                removeExpired(toClose);
+                connectionAvailable.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+        toClose.forEach(Utils::closeQuietly);
+    }
+
+    /**
+     * Close a leased connection that cannot be reused, freeing its slot in the pool.
+     *
+     * @param connection leased connection
+     */
+    void invalidate(C connection) {
+        lock.lock();
+        try {
+            connections--;
+            closedConnections++;
+            connectionAvailable.signal();
+        } finally {
+            lock.unlock();
+        }
+        Utils.closeQuietly(connection);
+    }
+
+    /**
+     * Remove the connections that have been idle for longer than the idle timeout, as long as more than
+     * minConnections connections are open, and the connections the server may have closed for being idle.
+     * Must be called holding the lock.
+     * <p>
+     * Connections to the same server may stay idle for the same time, so the least recently used connections
+     * always expire first.
+     *
+     * @param expired list to which removed connections are added. They must be closed after the lock is released.
+     */
+    private void removeExpired(List<C> expired) {
+        long now = System.nanoTime();
+        IdleConnection<C> oldest;
+        while ((oldest = idle.peekLast()) != null && isExpired(oldest, now)) {
+            idle.pollLast();
+            connections--;
+            closedConnections++;
+            expired.add(oldest.connection);
+        }
+    }
+
+    /**
+     * Must be called holding the lock.
+     */
+    private boolean isExpired(IdleConnection<C> idleConnection, long now) {
+        long idleNanos = now - idleConnection.idleSince;
+        if (idleConnection.maxIdleNanos > 0L && idleNanos >= idleConnection.maxIdleNanos) {
+            return true;
+        }
+        return idleTimeoutNanos > 0L && connections > minConnections && idleNanos >= idleTimeoutNanos;
+    }
+
+    ConnectionPoolStatistics getStatistics() {
+        List<C> expired = new ArrayList<>(0);
+        lock.lock();
+        try {
+            removeExpired(expired);
+            int leased = connections - idle.size();
+            // each leased connection carries a single call
+            return new ConnectionPoolStatistics(maxConnections, leased, idle.size(), leased,
+                    waitingCallers, openedConnections, closedConnections, leaseTimeouts);
+        } finally {
+            lock.unlock();
+            expired.forEach(Utils::closeQuietly);
+        }
+    }
+
+    /**
+     * Close all idle connections. Leased connections are closed when they are released.
+     */
+    @Override
+    public void close() {
+        List<C> toClose = new ArrayList<>();
+        lock.lock();
+        try {
+            closed = true;
+            for (IdleConnection<C> idleConnection : idle) {
+                toClose.add(idleConnection.connection);
+            }
+            connections -= idle.size();
+            closedConnections += idle.size();
+            idle.clear();
+            connectionAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        toClose.forEach(Utils::closeQuietly);
+    }
+
+}
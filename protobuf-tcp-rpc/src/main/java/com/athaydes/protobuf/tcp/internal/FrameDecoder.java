@@ -0,0 +1,169 @@
+package com.athaydes.protobuf.tcp.internal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Decoder of length-delimited frames (a varint32 length followed by the message bytes) received from a socket.
+ * <p>
+ * Bytes are read into a per-connection read buffer, so that a single socket read may provide the length and body
+ * of several frames at once. Frames that do not fit in the read buffer are completed in a separate buffer of the
+ * exact frame size, so that they can be read without copying.
+ * <p>
+ * Usage:
+ * <ol>
+ * <li>call {@link #nextFrame()} until it returns null, processing each frame before requesting the next one.</li>
+ * <li>read from the socket into {@link #prepareRead()}.</li>
+ * <li>call {@link #onRead()} once the read completes, then go back to the first step.</li>
+ * </ol>
+ * This class is not thread-safe.
+ */
+final class FrameDecoder {
+
+    static final int READ_BUFFER_SIZE = 8 * 1024;
+
+    private final BufferPool bufferPool;
+
+    /**
+     * Buffer with bytes received but not yet decoded.
+     * Kept in "read mode" (i.e. flipped) except while a socket read is in progress.
+     */
+    private ByteBuffer readBuffer;
+
+    /**
+     * Buffer for a frame larger than the read buffer, or null if no such frame is being received.
+     */
+    private ByteBuffer frameBuffer;
+
+    /**
+     * The last large frame returned by {@link #nextFrame()}, which can be released once the next frame is requested.
+     */
+    private ByteBuffer lastLargeFrame;
+
+    FrameDecoder(BufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+        this.readBuffer = bufferPool.lease(READ_BUFFER_SIZE);
+        this.readBuffer.limit(0);
+    }
+
+    /**
+     * @return the buffer the next socket read should write into.
+     */
+    ByteBuffer prepareRead() {
+        if (frameBuffer != null) {
+            return frameBuffer;
+        }
+        readBuffer.compact();
+        return readBuffer;
+    }
+
+    /**
+     * Must be called after a socket read into the buffer returned by {@link #prepareRead()} completes.
+     */
+    void onRead() {
+        if (frameBuffer == null) {
+            readBuffer.flip();
+        }
+    }
+
+    /**
+     * Must not be called while a socket read is in progress, as the read buffer is not in "read mode" then.
+     *
+     * @return true if part of a frame has been received, but not the whole frame.
+     */
+    boolean hasPartialFrame() {
+        return frameBuffer != null || readBuffer.hasRemaining();
+    }
+
+    /**
+     * Decode the next frame.
+     * <p>
+     * The returned buffer is only valid until this method or {@link #prepareRead()} is called again.
+     *
+     * @return the next complete frame, or null if more bytes must be read from the socket first
+     * @throws IOException              if the frame length is not encoded correctly
+     * @throws IllegalArgumentException if the frame length is invalid. The invalid frame is skipped.
+     */
+    ByteBuffer nextFrame() throws IOException {
+        if (lastLargeFrame != null) {
+            bufferPool.release(lastLargeFrame);
+            lastLargeFrame = null;
+        }
+
+        if (frameBuffer != null) {
+            if (frameBuffer.hasRemaining()) {
+                return null;
+            }
+            frameBuffer.flip();
+            lastLargeFrame = frameBuffer;
+            frameBuffer = null;
+            return lastLargeFrame;
+        }
+
+        int start = readBuffer.position();
+        int length = readVarInt32(readBuffer);
+        if (length == -1) {
+            // wait for the rest of the length
+            readBuffer.position(start);
+            return null;
+        }
+        if (length <= 0) {
+            throw new IllegalArgumentException("Invalid message length");
+        }
+        if (readBuffer.remaining() >= length) {
+            ByteBuffer frame = readBuffer.slice();
+            frame.limit(length);
+            readBuffer.position(readBuffer.position() + length);
+            return frame;
+        }
+        if (length > readBuffer.capacity() - (readBuffer.position() - start)) {
+            // frame does not fit in the read buffer, receive the rest of it into a buffer of its own
+            frameBuffer = bufferPool.lease(length);
+            frameBuffer.put(readBuffer);
+            return null;
+        }
+        // wait for the rest of the frame
+        readBuffer.position(start);
+        return null;
+    }
+
+    /**
+     * Return all buffers to the pool. This decoder must not be used after this method is called.
+     */
+    void release() {
+        if (readBuffer != null) {
+            bufferPool.release(readBuffer);
+            readBuffer = null;
+        }
+        if (frameBuffer != null) {
+            bufferPool.release(frameBuffer);
+            frameBuffer = null;
+        }
+        if (lastLargeFrame != null) {
+            bufferPool.release(lastLargeFrame);
+            lastLargeFrame = null;
+        }
+    }
+
+    /**
+     * Read a varint32 from the buffer.
+     *
+     * @return the value, or -1 if the buffer does not contain the whole varint yet
+     * @throws IOException if the varint is longer than 5 bytes
+     */
+    private static int readVarInt32(ByteBuffer buffer) throws IOException {
+        int result = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            byte b = buffer.get();
+            result |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IOException("Incorrect varint32 encoding");
+    }
+
+}
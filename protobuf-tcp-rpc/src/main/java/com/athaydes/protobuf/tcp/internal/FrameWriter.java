@@ -0,0 +1,143 @@
+package com.athaydes.protobuf.tcp.internal;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static com.athaydes.protobuf.tcp.internal.Utils.closeQuietly;
+
+/**
+ * Writes frames to a socket in the order they are submitted.
+ * <p>
+ * It is used by the server to write results to clients, and by {@link NioClientConnection} to write method
+ * invocations to the server.
+ * <p>
+ * Only one write may be pending on a socket at any time, so frames submitted while a write is in progress
+ * are queued. Once the pending write completes, all queued frames (up to {@link #MAX_GATHERED_BUFFERS})
+ * are flushed with a single gathering write. Partial writes are resumed until every buffer has been written.
+ * <p>
+ * Buffers are returned to the buffer pool as soon as they have been written.
+ */
+final class FrameWriter implements CompletionHandler<Long, ByteBuffer[]> {
+
+    private static final Logger log = LoggerFactory.getLogger(FrameWriter.class);
+
+    static final int MAX_GATHERED_BUFFERS = 64;
+
+    private final AsynchronousSocketChannel socket;
+    private final BufferPool bufferPool;
+
+    private final Deque<ByteBuffer> queue = new ArrayDeque<>();
+    private boolean writing = false;
+    private boolean closeWhenDone = false;
+
+    FrameWriter(AsynchronousSocketChannel socket, BufferPool bufferPool) {
+        this.socket = socket;
+        this.bufferPool = bufferPool;
+    }
+
+    /**
+     * Write the given buffer to the socket, after all buffers submitted previously.
+     *
+     * @param buffer to write. Ownership of the buffer is transferred to this writer.
+     */
+    void write(ByteBuffer buffer) {
+        ByteBuffer[] buffers;
+        synchronized (this) {
+            queue.add(buffer);
+            if (writing) {
+                return;
+            }
+            writing = true;
+            buffers = nextBuffers();
+        }
+        writeToSocket(buffers);
+    }
+
+    /**
+     * Close the socket as soon as all frames submitted so far have been written.
+     */
+    void closeWhenDone() {
+        synchronized (this) {
+            if (writing) {
+                closeWhenDone = true;
+                return;
+            }
+        }
+        closeQuietly(socket);
+    }
+
+    /**
+     * Must be called while holding this object's lock.
+     *
+     * @return the next buffers to write, or null if there is nothing else to write.
+     */
+    private ByteBuffer[] nextBuffers() {
+        if (queue.isEmpty()) {
+            writing = false;
+            return null;
+        }
+        ByteBuffer[] buffers = new ByteBuffer[Math.min(queue.size(), MAX_GATHERED_BUFFERS)];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = queue.poll();
+        }
+        return buffers;
+    }
+
+    private void writeToSocket(ByteBuffer[] buffers) {
+        try {
+            socket.write(buffers, 0, buffers.length, 0L, TimeUnit.MILLISECONDS, buffers, this);
+        } catch (RuntimeException e) {
+            failed(e, buffers);
+        }
+    }
+
+    @Override
+    public void completed(Long bytesCount, ByteBuffer[] buffers) {
+        ByteBuffer[] next;
+        boolean close;
+        synchronized (this) {
+            // buffers are written in order, so any buffers not fully written are at the end of the array
+            boolean partialWrite = false;
+            for (int i = buffers.length - 1; i >= 0; i--) {
+                if (buffers[i].hasRemaining()) {
+                    partialWrite = true;
+                    queue.addFirst(buffers[i]);
+                } else {
+                    bufferPool.release(buffers[i]);
+                }
+            }
+            if (partialWrite) {
+                log.debug("Partial write of {} bytes, resuming", bytesCount);
+            }
+            next = nextBuffers();
+            close = next == null && closeWhenDone;
+        }
+        if (next != null) {
+            writeToSocket(next);
+        } else if (close) {
+            closeQuietly(socket);
+        }
+    }
+
+    @Override
+    public void failed(Throwable exc, ByteBuffer[] buffers) {
+        log.debug("Unable to write to socket: {}", exc.toString());
+        synchronized (this) {
+            for (ByteBuffer buffer : buffers) {
+                bufferPool.release(buffer);
+            }
+            ByteBuffer queued;
+            while ((queued = queue.poll()) != null) {
+                bufferPool.release(queued);
+            }
+        }
+        closeQuietly(socket);
+    }
+
+}
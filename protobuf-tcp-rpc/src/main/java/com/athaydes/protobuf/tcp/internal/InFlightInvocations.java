@@ -0,0 +1,119 @@
+package com.athaydes.protobuf.tcp.internal;
+
+import com.athaydes.protobuf.tcp.api.Api;
+import com.athaydes.protobuf.tcp.api.SingleFlight;
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The invocations of {@link SingleFlight} methods currently running on a server.
+ * <p>
+ * Invocations are identified by their {@link InvocationKey}, so they are only considered identical if their
+ * arguments are byte-identical.
+ * The first invocation, the leader of the flight, runs the method, and its result is shared with all invocations
+ * that join the flight before it completes.
+ */
+final class InFlightInvocations {
+
+    private final Set<Method> methods;
+    private final Map<InvocationKey, Flight> flights = new ConcurrentHashMap<>();
+
+    private InFlightInvocations(Set<Method> methods) {
+        this.methods = methods;
+    }
+
+    /**
+     * @param service the service
+     * @param methods methods of the service that can be invoked remotely
+     * @return the in-flight invocations of the methods annotated with {@link SingleFlight}
+     */
+    static InFlightInvocations forMethods(Object service, Collection<Method> methods) {
+        Set<Method> singleFlightMethods = new HashSet<>(2);
+        for (Method method : methods) {
+            if (MethodResolver.annotationOf(service, method, SingleFlight.class) != null) {
+                singleFlightMethods.add(method);
+            }
+        }
+        return new InFlightInvocations(singleFlightMethods.isEmpty() ?
+                Collections.emptySet() :
+                Collections.unmodifiableSet(singleFlightMethods));
+    }
+
+    /**
+     * @param method a service method
+     * @return whether identical invocations of the method must be deduplicated
+     */
+    boolean appliesTo(Method method) {
+        return methods.contains(method);
+    }
+
+    /**
+     * Join the flight of an identical invocation, or start a new flight if there is none.
+     *
+     * @param key of the invocation
+     * @return the flight. If the caller is its leader, it must invoke the method and complete the flight.
+     */
+    Flight join(InvocationKey key) {
+        Flight flight = new Flight(key);
+        Flight existing = flights.putIfAbsent(key, flight);
+        return existing == null ? flight : existing.follower();
+    }
+
+    /**
+     * @return the number of flights currently running.
+     */
+    int size() {
+        return flights.size();
+    }
+
+    final class Flight {
+        private final InvocationKey key;
+        private final CompletableFuture<Api.Result> result;
+        private final boolean leader;
+
+        private Flight(InvocationKey key) {
+            this(key, new CompletableFuture<>(), true);
+        }
+
+        private Flight(InvocationKey key, CompletableFuture<Api.Result> result, boolean leader) {
+            this.key = key;
+            this.result = result;
+            this.leader = leader;
+        }
+
+        private Flight follower() {
+            return new Flight(key, result, false);
+        }
+
+        /**
+         * @return whether the caller that joined this flight must invoke the method.
+         */
+        boolean isLeader() {
+            return leader;
+        }
+
+        /**
+         * @return the result of the invocation, shared by all invocations of the flight.
+         */
+        CompletableFuture<Api.Result> result() {
+            return result;
+        }
+
+        /**
+         * Complete the flight. Invocations received from now on start a new flight.
+         *
+         * @param result of the invocation
+         */
+        void complete(Api.Result result) {
+            flights.remove(key, this);
+            this.result.complete(result);
+        }
+    }
+
+}
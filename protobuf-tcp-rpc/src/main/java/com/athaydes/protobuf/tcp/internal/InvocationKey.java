@@ -0,0 +1,63 @@
+package com.athaydes.protobuf.tcp.internal;
+
+import com.google.protobuf.Any;
+import java.lang.reflect.Method;
+import java.util.List;
+
+/**
+ * Identifies the invocations of a service method with a given list of arguments.
+ * <p>
+ * {@link Any} arguments are compared by type URL and serialized value, so invocations only have equal keys if their
+ * arguments are byte-identical. Arguments must have full type URLs (see {@link TypeUrlDictionary}), as type IDs are
+ * only valid within a connection.
+ */
+final class InvocationKey {
+
+    private final Method method;
+    private final List<Any> args;
+    private final int hashCode;
+
+    InvocationKey(Method method, List<Any> args) {
+        this.method = method;
+        this.args = args;
+        this.hashCode = 31 * method.hashCode() + args.hashCode();
+    }
+
+    Method getMethod() {
+        return method;
+    }
+
+    /**
+     * @return the total serialized size of the arguments.
+     */
+    int argsSize() {
+        int size = 0;
+        for (Any arg : args) {
+            size += arg.getSerializedSize();
+        }
+        return size;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) return true;
+        if (!(other instanceof InvocationKey)) return false;
+        InvocationKey that = (InvocationKey) other;
+        return hashCode == that.hashCode &&
+                method.equals(that.method) &&
+                args.equals(that.args);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    @Override
+    public String toString() {
+        return "InvocationKey{" +
+                "method=" + method.getName() +
+                ", args=" + args.size() +
+                '}';
+    }
+}
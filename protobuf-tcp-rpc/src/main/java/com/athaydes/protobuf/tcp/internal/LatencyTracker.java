@@ -0,0 +1,64 @@
+package com.athaydes.protobuf.tcp.internal;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the latencies of the most recent calls to a method, and estimates a percentile of them.
+ * <p>
+ * The percentile is only computed again after every {@link #RECOMPUTE_INTERVAL} samples, so that recording a
+ * latency is cheap. No estimate is given until {@link #MIN_SAMPLES} latencies have been recorded.
+ */
+final class LatencyTracker {
+
+    static final int MAX_SAMPLES = 256;
+    static final int MIN_SAMPLES = 64;
+    static final int RECOMPUTE_INTERVAL = 32;
+
+    private final double percentile;
+
+    /**
+     * Ring buffer of the most recent samples. Guarded by the lock of this object.
+     */
+    private final long[] samples = new long[MAX_SAMPLES];
+
+    /**
+     * Number of samples recorded so far. Guarded by the lock of this object.
+     */
+    private long count = 0L;
+
+    private volatile long percentileNanos = -1L;
+
+    /**
+     * @param percentile the percentile to estimate, greater than 0 and less than 100
+     */
+    LatencyTracker(double percentile) {
+        if (percentile <= 0.0 || percentile >= 100.0) {
+            throw new IllegalArgumentException("percentile must be greater than 0 and less than 100");
+        }
+        this.percentile = percentile;
+    }
+
+    /**
+     * @param latencyNanos latency of a call, in nanoseconds
+     */
+    synchronized void record(long latencyNanos) {
+        samples[(int) (count % MAX_SAMPLES)] = latencyNanos;
+        count++;
+        if (count >= MIN_SAMPLES && count % RECOMPUTE_INTERVAL == 0) {
+            int size = (int) Math.min(count, MAX_SAMPLES);
+            long[] sorted = Arrays.copyOf(samples, size);
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(percentile / 100.0 * size) - 1;
+            percentileNanos = sorted[Math.max(0, index)];
+        }
+    }
+
+    /**
+     * @return the estimated percentile of the recent latencies, in nanoseconds, or -1 if there are not enough
+     * samples yet.
+     */
+    long percentileNanos() {
+        return percentileNanos;
+    }
+
+}
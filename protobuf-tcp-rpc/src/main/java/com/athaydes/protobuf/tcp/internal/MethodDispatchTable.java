@@ -0,0 +1,268 @@
+package com.athaydes.protobuf.tcp.internal;
+
+import com.athaydes.protobuf.tcp.api.Api;
+import com.athaydes.protobuf.tcp.internal.MethodInvocationResolver.ResolvedInvocationInfo;
+import com.athaydes.protobuf.tcp.internal.MethodInvocationResolver.TypeConverter;
+import com.google.protobuf.Any;
+import com.google.protobuf.InvalidProtocolBufferException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static java.util.Collections.emptyList;
+
+/**
+ * Immutable index of the methods of a service, used to find the method a client invocation targets.
+ * <p>
+ * Methods are indexed by their name and the protobuf type names of their parameters, so the target of an invocation
+ * can be found with a single hash lookup using the type URLs of the invocation arguments, without unpacking them.
+ * <p>
+ * Different Java types may be transmitted with the same protobuf type (e.g. {@code int} and {@code short} are both
+ * sent as {@code Int32Value}), so a few methods may share the same key. In such case, each method is tried in order
+ * until one accepts the values of the arguments.
+ * <p>
+ * The {@link MethodInvoker} of each method is also created when the table is built.
+ * <p>
+ * Each method also gets a small integer ID. Clients may request the {@link Api.MethodTable} mapping method
+ * signatures to IDs by invoking the reserved method {@link #METHOD_TABLE_METHOD_NAME}, then invoke methods by ID
+ * instead of by name.
+ */
+final class MethodDispatchTable {
+
+    /**
+     * Name of the reserved method clients can invoke to obtain the method table.
+     * It is not a valid Java identifier, so it can never clash with the name of a service method.
+     */
+    static final String METHOD_TABLE_METHOD_NAME = "#methods";
+
+    private static final Logger log = LoggerFactory.getLogger(MethodDispatchTable.class);
+
+    private final Map<DispatchKey, List<DispatchTarget>> targets;
+
+    /**
+     * Targets by ID. The ID of a target is its index plus one, as 0 means "no ID".
+     */
+    private final List<DispatchTarget> targetsById;
+
+    private final Api.MethodTable methodTable;
+
+    private MethodDispatchTable(Map<DispatchKey, List<DispatchTarget>> targets,
+                                List<DispatchTarget> targetsById) {
+        this.targets = targets;
+        this.targetsById = targetsById;
+
+        Api.MethodTable.Builder methodTable = Api.MethodTable.newBuilder();
+        for (int i = 0; i < targetsById.size(); i++) {
+            DispatchTarget target = targetsById.get(i);
+            methodTable.addMethods(Api.MethodEntry.newBuilder()
+                    .setId(i + 1)
+                    .setName(target.method.getName())
+                    .addAllParameterTypes(Arrays.asList(target.typeNames)));
+        }
+        this.methodTable = methodTable.build();
+    }
+
+    /**
+     * Create the dispatch table for the given methods.
+     * <p>
+     * Methods with parameters that cannot be transmitted as protobuf messages are not included, as they could never
+     * be invoked by a client.
+     *
+     * @param methodsByName methods to include in the table
+     * @return the dispatch table
+     */
+    static MethodDispatchTable of(Map<String, List<Method>> methodsByName) {
+        Map<DispatchKey, List<DispatchTarget>> targets = new HashMap<>();
+        List<DispatchTarget> targetsById = new ArrayList<>();
+
+        for (List<Method> methods : methodsByName.values()) {
+            for (Method method : methods) {
+                Class<?>[] parameterTypes = method.getParameterTypes();
+                String[] typeNames = new String[parameterTypes.length];
+                TypeConverter[] converters = new TypeConverter[parameterTypes.length];
+                boolean invocable = true;
+
+                for (int i = 0; i < parameterTypes.length; i++) {
+                    Optional<String> typeName = MethodInvocationResolver.protobufTypeNameOf(parameterTypes[i]);
+                    Optional<TypeConverter> converter = MethodInvocationResolver.converterOf(parameterTypes[i]);
+                    if (!typeName.isPresent() || !converter.isPresent()) {
+                        invocable = false;
+                        break;
+                    }
+                    typeNames[i] = typeName.get();
+                    converters[i] = converter.get();
+                }
+
+                if (invocable) {
+                    DispatchTarget target = new DispatchTarget(method, MethodInvoker.of(method), typeNames, converters);
+                    targets.computeIfAbsent(new DispatchKey(method.getName(), typeNames), (k) -> new ArrayList<>(1))
+                            .add(target);
+                    targetsById.add(target);
+                } else {
+                    log.debug("Method cannot be invoked remotely as not all of its parameter types are supported: {}",
+                            method);
+                }
+            }
+        }
+
+        targets.replaceAll((key, list) -> Collections.unmodifiableList(list));
+
+        return new MethodDispatchTable(Collections.unmodifiableMap(targets),
+                Collections.unmodifiableList(targetsById));
+    }
+
+    /**
+     * @return the method table, to be sent as the result of an invocation of {@link #METHOD_TABLE_METHOD_NAME}.
+     */
+    Api.MethodTable getMethodTable() {
+        return methodTable;
+    }
+
+    /**
+     * Resolve the given method invocation, using the method ID if available, or the method name otherwise.
+     *
+     * @param invocation method invocation
+     * @return the resolved invocation, or empty if no method accepts the given arguments
+     */
+    Optional<ResolvedInvocationInfo> resolve(Api.MethodInvocation invocation) {
+        int methodId = invocation.getMethodId();
+        if (methodId != 0) {
+            return resolve(methodId, invocation.getArgsList());
+        }
+        return resolve(invocation.getMethodName(), invocation.getArgsList());
+    }
+
+    /**
+     * Resolve the invocation of the method with the given ID.
+     *
+     * @param methodId ID of the method, as published in the method table
+     * @param args     arguments of the invocation
+     * @return the resolved invocation, or empty if there is no method with the given ID, or it does not accept the
+     * given arguments
+     */
+    Optional<ResolvedInvocationInfo> resolve(int methodId, List<Any> args) {
+        if (methodId < 1 || methodId > targetsById.size()) {
+            return Optional.empty();
+        }
+        DispatchTarget target = targetsById.get(methodId - 1);
+        if (!target.acceptsTypesOf(args)) {
+            return Optional.empty();
+        }
+        Object[] parameters = target.convert(args);
+        if (parameters == null) {
+            return Optional.empty();
+        }
+        return Optional.of(new ResolvedInvocationInfo(target.method, target.invoker, parameters));
+    }
+
+    /**
+     * Resolve the method invocation with the given name and arguments.
+     *
+     * @param methodName name of the method
+     * @param args       arguments of the invocation
+     * @return the resolved invocation, or empty if no method accepts the given arguments
+     */
+    Optional<ResolvedInvocationInfo> resolve(String methodName, List<Any> args) {
+        String[] typeNames = new String[args.size()];
+        for (int i = 0; i < typeNames.length; i++) {
+            typeNames[i] = typeNameOf(args.get(i).getTypeUrl());
+        }
+
+        for (DispatchTarget target : targets.getOrDefault(new DispatchKey(methodName, typeNames), emptyList())) {
+            Object[] parameters = target.convert(args);
+            if (parameters != null) {
+                return Optional.of(new ResolvedInvocationInfo(target.method, target.invoker, parameters));
+            }
+        }
+
+        return Optional.empty();
+    }
+
+    /**
+     * @return the type name in the given type URL, as in {@link Any#is(Class)}.
+     */
+    private static String typeNameOf(String typeUrl) {
+        int slashIndex = typeUrl.lastIndexOf('/');
+        return slashIndex < 0 ? typeUrl : typeUrl.substring(slashIndex + 1);
+    }
+
+    private static final class DispatchKey {
+        private final String methodName;
+        private final String[] typeNames;
+        private final int hashCode;
+
+        DispatchKey(String methodName, String[] typeNames) {
+            this.methodName = methodName;
+            this.typeNames = typeNames;
+            this.hashCode = 31 * methodName.hashCode() + Arrays.hashCode(typeNames);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) return true;
+            if (!(other instanceof DispatchKey)) return false;
+            DispatchKey that = (DispatchKey) other;
+            return hashCode == that.hashCode &&
+                    methodName.equals(that.methodName) &&
+                    Arrays.equals(typeNames, that.typeNames);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    private static final class DispatchTarget {
+        private final Method method;
+        private final MethodInvoker invoker;
+        private final String[] typeNames;
+        private final TypeConverter[] converters;
+
+        DispatchTarget(Method method, MethodInvoker invoker, String[] typeNames, TypeConverter[] converters) {
+            this.method = method;
+            this.invoker = invoker;
+            this.typeNames = typeNames;
+            this.converters = converters;
+        }
+
+        boolean acceptsTypesOf(List<Any> args) {
+            if (args.size() != typeNames.length) {
+                return false;
+            }
+            for (int i = 0; i < typeNames.length; i++) {
+                if (!typeNames[i].equals(typeNameOf(args.get(i).getTypeUrl()))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * @return the converted arguments, or null if the values of the arguments are not accepted by this target
+         */
+        Object[] convert(List<Any> args) {
+            Object[] parameters = new Object[converters.length];
+            for (int i = 0; i < converters.length; i++) {
+                try {
+                    parameters[i] = converters[i].apply(args.get(i));
+                } catch (InvalidProtocolBufferException e) {
+                    log.debug("Invalid argument for method {}: {}", method, e.toString());
+                    return null;
+                }
+                if (parameters[i] == null) {
+                    return null;
+                }
+            }
+            return parameters;
+        }
+    }
+
+}
@@ -8,17 +8,21 @@ import com.google.protobuf.DoubleValue;
 import com.google.protobuf.FloatValue;
 import com.google.protobuf.Int32Value;
 import com.google.protobuf.Int64Value;
+import com.google.protobuf.Internal;
 import com.google.protobuf.InvalidProtocolBufferException;
 import com.google.protobuf.Message;
 import com.google.protobuf.StringValue;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 
 /**
  * Resolver of method parameters given a method invocation arguments.
@@ -28,8 +32,10 @@ final class MethodInvocationResolver {
 
     /**
      * Type converter function.
+     * <p>
+     * Returns null if the value cannot be converted to the target type.
      */
-    private interface TypeConverter {
+    interface TypeConverter {
         Object apply(Any any) throws InvalidProtocolBufferException;
     }
 
@@ -43,6 +49,11 @@ final class MethodInvocationResolver {
      */
     private static final Map<Class<?>, TypeConverter> typeConverters;
 
+    /**
+     * Protobuf messages used to transmit Java types.
+     */
+    private static final Map<Class<?>, Class<? extends Message>> javaTypeMessages;
+
     static {
         Map<Class<?>, Class<?>> boxedTypes_ = new HashMap<>(8);
         boxedTypes_.put(boolean.class, Boolean.class);
@@ -110,33 +121,97 @@ final class MethodInvocationResolver {
         });
 
         typeConverters = Collections.unmodifiableMap(typeConverters_);
+
+        Map<Class<?>, Class<? extends Message>> javaTypeMessages_ = new HashMap<>(9);
+        javaTypeMessages_.put(String.class, StringValue.class);
+        javaTypeMessages_.put(Boolean.class, BoolValue.class);
+        javaTypeMessages_.put(Byte.class, BytesValue.class);
+        javaTypeMessages_.put(Short.class, Int32Value.class);
+        javaTypeMessages_.put(Character.class, StringValue.class);
+        javaTypeMessages_.put(Integer.class, Int32Value.class);
+        javaTypeMessages_.put(Long.class, Int64Value.class);
+        javaTypeMessages_.put(Float.class, FloatValue.class);
+        javaTypeMessages_.put(Double.class, DoubleValue.class);
+
+        javaTypeMessages = Collections.unmodifiableMap(javaTypeMessages_);
     }
 
     /**
-     * Resolves the method invocation parameters given the provided arguments.
+     * Find the full name of the protobuf message type used to transmit values of the given type.
+     * <p>
+     * This is the type name found in the type URL of {@link Any} messages containing such values.
      *
-     * @param method to being invoked
-     * @param args   arguments for the method
-     * @return a resolved method invocation if the arguments match the method parameters
+     * @param type Java type
+     * @return the protobuf message type name, or empty if values of the given type cannot be transmitted
      */
-    static Optional<ResolvedInvocationInfo> resolveMethodInvocation(Method method, List<Any> args) {
-        Class<?>[] parameterTypes = method.getParameterTypes();
-
-        if (args.size() != parameterTypes.length) {
+    static Optional<String> protobufTypeNameOf(Class<?> type) {
+        Class<? extends Message> messageType;
+        if (Message.class.isAssignableFrom(type)) {
+            messageType = type.asSubclass(Message.class);
+        } else {
+            messageType = javaTypeMessages.get(boxedTypes.getOrDefault(type, type));
+            if (messageType == null) {
+                return Optional.empty();
+            }
+        }
+        try {
+            return Optional.of(Internal.getDefaultInstance(messageType).getDescriptorForType().getFullName());
+        } catch (RuntimeException e) {
+            // abstract message types do not have a default instance
             return Optional.empty();
         }
+    }
 
-        Object[] resolvedArgs = new Object[parameterTypes.length];
+    /**
+     * Find a converter from {@link Any} messages to the given type.
+     * <p>
+     * The converter assumes the {@link Any} message contains a value of the type returned by
+     * {@link #protobufTypeNameOf(Class)} for the same type.
+     *
+     * @param type Java type
+     * @return converter, or empty if values of the given type cannot be transmitted
+     */
+    static Optional<TypeConverter> converterOf(Class<?> type) {
+        if (Message.class.isAssignableFrom(type)) {
+            Class<? extends Message> messageType = type.asSubclass(Message.class);
+            return Optional.of(any -> any.unpack(messageType));
+        }
+        return Optional.ofNullable(typeConverters.get(boxedTypes.getOrDefault(type, type)));
+    }
 
-        for (int i = 0; i < parameterTypes.length; i++) {
-            Object arg = tryConvert(args.get(i), parameterTypes[i]);
-            if (arg == null) {
-                return Optional.empty();
+    /**
+     * @param returnType return type of a method
+     * @return whether methods with the given return type provide their result asynchronously
+     */
+    static boolean isAsyncType(Class<?> returnType) {
+        return returnType == CompletableFuture.class || returnType == CompletionStage.class;
+    }
+
+    /**
+     * Find the type of the values returned by a method.
+     * <p>
+     * For methods that provide their result asynchronously, this is the type argument of the return type,
+     * or {@link Object} if that is not a class.
+     *
+     * @param method the method
+     * @return type of the values returned by the method
+     */
+    static Class<?> resultTypeOf(Method method) {
+        Class<?> returnType = method.getReturnType();
+        if (!isAsyncType(returnType)) {
+            return returnType;
+        }
+        Type genericReturnType = method.getGenericReturnType();
+        if (genericReturnType instanceof ParameterizedType) {
+            Type valueType = ((ParameterizedType) genericReturnType).getActualTypeArguments()[0];
+            if (valueType instanceof Class) {
+                return (Class<?>) valueType;
+            }
+            if (valueType instanceof ParameterizedType) {
+                return (Class<?>) ((ParameterizedType) valueType).getRawType();
             }
-            resolvedArgs[i] = arg;
         }
-
-        return Optional.of(new ResolvedInvocationInfo(method, resolvedArgs));
+        return Object.class;
     }
 
     static Object convert(Any any, Class<?> type) throws InvalidProtocolBufferException {
@@ -151,14 +226,6 @@ final class MethodInvocationResolver {
         return convertJavaType(any, type);
     }
 
-    static Object tryConvert(Any any, Class<?> type) {
-        try {
-            return convert(any, type);
-        } catch (Exception e) {
-            return null;
-        }
-    }
-
     private static Object convertJavaType(Any any, Class<?> type)
             throws InvalidProtocolBufferException {
         Class<?> boxedType = boxedTypes.getOrDefault(type, type);
@@ -172,19 +239,51 @@ final class MethodInvocationResolver {
 
     static final class ResolvedInvocationInfo {
         private final Method method;
+        private final MethodInvoker invoker;
         private final Object[] parameters;
 
-        private ResolvedInvocationInfo(Method method, Object[] parameters) {
+        ResolvedInvocationInfo(Method method, MethodInvoker invoker, Object[] parameters) {
             this.method = method;
+            this.invoker = invoker;
             this.parameters = parameters;
         }
 
-        Any callWith(Object object)
+        Method getMethod() {
+            return method;
+        }
+
+        Object[] getParameters() {
+            return parameters;
+        }
+
+        /**
+         * @return whether the method provides its result asynchronously (see {@link #isAsyncType(Class)}).
+         */
+        boolean isAsync() {
+            return isAsyncType(method.getReturnType());
+        }
+
+        /**
+         * Invoke the method on the given object.
+         *
+         * @param object to invoke the method on
+         * @return the value returned by the method, which for asynchronous methods is a
+         * {@link CompletionStage} that provides the actual result
+         */
+        Object invokeOn(Object object)
                 throws InvocationTargetException, IllegalAccessException {
-            Object result = method.invoke(object, parameters);
+            return invoker.invoke(object, parameters);
+        }
+
+        /**
+         * @param result returned by the method, or provided by the {@link CompletionStage} returned by it
+         * @return the result packed into an {@link Any} message
+         */
+        Any packResult(Object result) {
             Any message = ProtobufInvocationHandler.packedMessage(result);
             if (message == null) {
-                if (method.getReturnType().equals(void.class)) {
+                Class<?> resultType = resultTypeOf(method);
+                if (resultType.equals(void.class) || resultType.equals(Void.class)) {
                     return Any.getDefaultInstance();
                 } else {
                     throw new NullPointerException("Remote service cannot return null value");
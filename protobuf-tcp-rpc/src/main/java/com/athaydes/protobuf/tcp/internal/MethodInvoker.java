@@ -0,0 +1,267 @@
+package com.athaydes.protobuf.tcp.internal;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.stream.Stream;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Invoker of a service method.
+ * <p>
+ * Invokers are created once per method, so the cost of setting them up is not paid on each invocation.
+ */
+interface MethodInvoker {
+
+    /**
+     * Invoke the method.
+     *
+     * @param target object to invoke the method on
+     * @param args   arguments for the method, which must be of the method's parameter types
+     * @return the value returned by the method, or null if the method is void
+     * @throws InvocationTargetException if the method throws an exception
+     * @throws IllegalAccessException    if the method is not accessible
+     */
+    Object invoke(Object target, Object[] args) throws InvocationTargetException, IllegalAccessException;
+
+    /**
+     * Create an invoker for the given method.
+     * <p>
+     * Non-void instance methods with up to 3 parameters are invoked via a small class spun with
+     * {@link LambdaMetafactory}, which calls the method directly, so the JIT can inline it.
+     * Other methods are invoked via a {@link MethodHandle} adapted to the generic shape
+     * {@code (Object, Object[])Object}, which avoids the access checks and argument validation done by reflection
+     * on each call.
+     * Methods which cannot be accessed via a {@link MethodHandle} (e.g. methods of a non-public class) are invoked via
+     * reflection.
+     *
+     * @param method to invoke
+     * @return invoker of the method
+     */
+    static MethodInvoker of(Method method) {
+        MethodHandle handle;
+        try {
+            handle = MethodHandles.publicLookup().unreflect(method);
+        } catch (IllegalAccessException e) {
+            LoggerFactory.getLogger(MethodInvoker.class)
+                    .debug("Cannot create MethodHandle for {}, will use reflection: {}", method, e.toString());
+            return new ReflectionInvoker(method);
+        }
+        if (Modifier.isStatic(method.getModifiers())) {
+            // ignore the target, as reflection does
+            handle = MethodHandles.dropArguments(handle, 0, Object.class);
+        } else if (method.getParameterCount() <= 3 &&
+                method.getReturnType() != void.class &&
+                isVisibleToInvokers(method)) {
+            try {
+                return lambdaInvoker(method, handle);
+            } catch (Throwable e) {
+                LoggerFactory.getLogger(MethodInvoker.class)
+                        .debug("Cannot create lambda invoker for {}, will use MethodHandle: {}", method, e.toString());
+            }
+        }
+        return new MethodHandleInvoker(handle, method.getParameterCount());
+    }
+
+    /**
+     * Create an invoker for the given method which always uses reflection.
+     *
+     * @param method to invoke
+     * @return invoker of the method
+     */
+    static MethodInvoker reflective(Method method) {
+        return new ReflectionInvoker(method);
+    }
+
+    /**
+     * Classes spun by {@link LambdaMetafactory} link against the types of the method via the class loader of this
+     * class, so they can only be used if all types are visible to it. That is not always the case in OSGi
+     * environments, for example, where the service class may come from another bundle.
+     */
+    static boolean isVisibleToInvokers(Method method) {
+        ClassLoader loader = MethodInvoker.class.getClassLoader();
+        return Stream.concat(Stream.of(method.getDeclaringClass(), method.getReturnType()),
+                Stream.of(method.getParameterTypes()))
+                .allMatch(type -> {
+                    if (type.isPrimitive()) {
+                        return true;
+                    }
+                    try {
+                        return Class.forName(type.getName(), false, loader) == type;
+                    } catch (ClassNotFoundException e) {
+                        return false;
+                    }
+                });
+    }
+
+    static MethodInvoker lambdaInvoker(Method method, MethodHandle handle) throws Throwable {
+        Class<?> functionType;
+        switch (method.getParameterCount()) {
+            case 0:
+                functionType = Function0.class;
+                break;
+            case 1:
+                functionType = Function1.class;
+                break;
+            case 2:
+                functionType = Function2.class;
+                break;
+            default:
+                functionType = Function3.class;
+        }
+
+        // the receiver is the first parameter of the handle of an instance method,
+        // and primitive types are boxed by the lambda as the function interfaces only take Objects
+        MethodType instantiatedType = handle.type().wrap();
+
+        CallSite callSite = LambdaMetafactory.metafactory(MethodHandles.lookup(), "apply",
+                MethodType.methodType(functionType), instantiatedType.generic(), handle, instantiatedType);
+
+        Object function = callSite.getTarget().invoke();
+
+        switch (method.getParameterCount()) {
+            case 0:
+                return new Lambda0Invoker((Function0) function);
+            case 1:
+                return new Lambda1Invoker((Function1) function);
+            case 2:
+                return new Lambda2Invoker((Function2) function);
+            default:
+                return new Lambda3Invoker((Function3) function);
+        }
+    }
+
+    interface Function0 {
+        Object apply(Object target) throws Throwable;
+    }
+
+    interface Function1 {
+        Object apply(Object target, Object a) throws Throwable;
+    }
+
+    interface Function2 {
+        Object apply(Object target, Object a, Object b) throws Throwable;
+    }
+
+    interface Function3 {
+        Object apply(Object target, Object a, Object b, Object c) throws Throwable;
+    }
+
+    final class Lambda0Invoker implements MethodInvoker {
+
+        private final Function0 function;
+
+        Lambda0Invoker(Function0 function) {
+            this.function = function;
+        }
+
+        @Override
+        public Object invoke(Object target, Object[] args) throws InvocationTargetException {
+            try {
+                return function.apply(target);
+            } catch (Throwable t) {
+                throw new InvocationTargetException(t);
+            }
+        }
+
+    }
+
+    final class Lambda1Invoker implements MethodInvoker {
+
+        private final Function1 function;
+
+        Lambda1Invoker(Function1 function) {
+            this.function = function;
+        }
+
+        @Override
+        public Object invoke(Object target, Object[] args) throws InvocationTargetException {
+            try {
+                return function.apply(target, args[0]);
+            } catch (Throwable t) {
+                throw new InvocationTargetException(t);
+            }
+        }
+
+    }
+
+    final class Lambda2Invoker implements MethodInvoker {
+
+        private final Function2 function;
+
+        Lambda2Invoker(Function2 function) {
+            this.function = function;
+        }
+
+        @Override
+        public Object invoke(Object target, Object[] args) throws InvocationTargetException {
+            try {
+                return function.apply(target, args[0], args[1]);
+            } catch (Throwable t) {
+                throw new InvocationTargetException(t);
+            }
+        }
+
+    }
+
+    final class Lambda3Invoker implements MethodInvoker {
+
+        private final Function3 function;
+
+        Lambda3Invoker(Function3 function) {
+            this.function = function;
+        }
+
+        @Override
+        public Object invoke(Object target, Object[] args) throws InvocationTargetException {
+            try {
+                return function.apply(target, args[0], args[1], args[2]);
+            } catch (Throwable t) {
+                throw new InvocationTargetException(t);
+            }
+        }
+
+    }
+
+    final class MethodHandleInvoker implements MethodInvoker {
+
+        private final MethodHandle handle;
+
+        MethodHandleInvoker(MethodHandle handle, int parameterCount) {
+            // the receiver is the first parameter of the handle of an instance method
+            this.handle = handle.asType(MethodType.genericMethodType(parameterCount + 1))
+                    .asSpreader(Object[].class, parameterCount);
+        }
+
+        @Override
+        public Object invoke(Object target, Object[] args) throws InvocationTargetException {
+            try {
+                return (Object) handle.invokeExact(target, args);
+            } catch (Throwable t) {
+                throw new InvocationTargetException(t);
+            }
+        }
+
+    }
+
+    final class ReflectionInvoker implements MethodInvoker {
+
+        private final Method method;
+
+        ReflectionInvoker(Method method) {
+            this.method = method;
+        }
+
+        @Override
+        public Object invoke(Object target, Object[] args) throws InvocationTargetException, IllegalAccessException {
+            return method.invoke(target, args);
+        }
+
+    }
+
+}
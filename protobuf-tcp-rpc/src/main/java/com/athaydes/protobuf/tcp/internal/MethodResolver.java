@@ -1,5 +1,6 @@
 package com.athaydes.protobuf.tcp.internal;
 
+import java.lang.annotation.Annotation;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.Arrays;
@@ -27,6 +28,30 @@ final class MethodResolver {
         }
     }
 
+    /**
+     * Find an annotation of a service method.
+     * <p>
+     * The method may be declared by an exported interface, but annotated in the implementation, so the annotation
+     * is looked up in both.
+     *
+     * @param service        the service
+     * @param method         method of the service, as resolved by {@link #resolveMethods(Object, Class[])}
+     * @param annotationType type of the annotation
+     * @return the annotation, or null if the method is not annotated with it
+     */
+    static <A extends Annotation> A annotationOf(Object service, Method method, Class<A> annotationType) {
+        A annotation = method.getAnnotation(annotationType);
+        if (annotation != null) {
+            return annotation;
+        }
+        try {
+            return service.getClass().getMethod(method.getName(), method.getParameterTypes())
+                    .getAnnotation(annotationType);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
     private static Map<String, List<Method>> resolveFrom(Class[] exportedInterfaces) {
         return Collections.unmodifiableMap(Arrays.stream(exportedInterfaces)
                 .flatMap(exported -> Arrays.stream(exported.getMethods()))
@@ -0,0 +1,387 @@
+package com.athaydes.protobuf.tcp.internal;
+
+import com.athaydes.protobuf.tcp.api.Api;
+import com.athaydes.protobuf.tcp.api.ClientOptions;
+import com.google.protobuf.Any;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A non-blocking client connection to a remote service, shared by any number of concurrent callers.
+ * <p>
+ * Invocations are written with a {@link FrameWriter} as soon as they are submitted, each with its own call ID, and
+ * the futures of the callers are kept in a map until a result with the same call ID is received. As the server
+ * processes invocations that have a call ID concurrently, results may arrive in any order.
+ * <p>
+ * If batching is enabled (see {@link ClientOptions#getBatchWindowMicros()}) and the server supports it, invocations
+ * are instead collected for a short time window, and written together in a single batch.
+ * <p>
+ * If the client caches results (see {@link ClientOptions#getCachedMethods()}), the connection also asks the server to
+ * send its cache invalidations, which are handed over to the given listener as they arrive.
+ * <p>
+ * Cancelling the future of a call (e.g. when it times out) removes the call from the connection, and its result is
+ * discarded if it arrives later.
+ * <p>
+ * If the connection fails, all calls in flight fail with an {@link IOException}, and the connection cannot be
+ * used anymore.
+ */
+final class NioClientConnection implements CompletionHandler<Integer, Void> {
+
+    private static final Logger log = LoggerFactory.getLogger(NioClientConnection.class);
+
+    private final AsynchronousSocketChannel channel;
+    private final BufferPool bufferPool;
+    private final FrameWriter writer;
+    private final FrameDecoder decoder;
+    private final ClientSession session = new ClientSession();
+    private final AtomicLong callIds = new AtomicLong(0L);
+    private final Map<Long, CompletableFuture<Api.Result>> pendingCalls = new ConcurrentHashMap<>();
+    private final CompletableFuture<Void> closeFuture = new CompletableFuture<>();
+    private final long batchWindowMicros;
+    private final int maxBatchSize;
+    private final boolean cacheInvalidations;
+    private final Consumer<List<String>> invalidationListener;
+
+    /**
+     * Invocations waiting to be written in a batch. Guarded by the lock of {@link #writer}.
+     */
+    private List<Api.MethodInvocation> batch = new ArrayList<>();
+
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+
+    private NioClientConnection(AsynchronousSocketChannel channel,
+                                BufferPool bufferPool,
+                                ClientOptions options,
+                                Consumer<List<String>> invalidationListener) {
+        this.channel = channel;
+        this.bufferPool = bufferPool;
+        this.writer = new FrameWriter(channel, bufferPool);
+        this.decoder = new FrameDecoder(bufferPool);
+        this.batchWindowMicros = options.getBatchWindowMicros();
+        this.maxBatchSize = options.getMaxBatchSize();
+        this.cacheInvalidations = !options.getCachedMethods().isEmpty();
+        this.invalidationListener = invalidationListener;
+    }
+
+    /**
+     * Open a new connection to the given address, and perform the handshake described in {@link ClientSession}.
+     *
+     * @param channel              unconnected channel
+     * @param address              of the remote service
+     * @param bufferPool           pool to lease buffers from
+     * @param options              client options
+     * @param invalidationListener listener of the names of the methods whose cached results are invalidated by
+     *                             the server (an empty list invalidates all results)
+     * @return a future that completes with the connection once the handshake is complete, or fails if that takes
+     * longer than the connect timeout of the options
+     */
+    static CompletableFuture<NioClientConnection> open(AsynchronousSocketChannel channel,
+                                                       InetSocketAddress address,
+                                                       BufferPool bufferPool,
+                                                       ClientOptions options,
+                                                       Consumer<List<String>> invalidationListener) {
+        CompletableFuture<NioClientConnection> future = new CompletableFuture<>();
+        if (options.getConnectTimeoutMillis() > 0L) {
+            TimerWheel.Timeout timeout = TimerWheel.shared().schedule(() -> {
+                if (future.completeExceptionally(new SocketTimeoutException("Connection to " + address +
+                        " not established within " + options.getConnectTimeoutMillis() + "ms"))) {
+                    // also fails the handshake, if the connection is already established
+                    Utils.closeQuietly(channel);
+                }
+            }, options.getConnectTimeoutMillis(), TimeUnit.MILLISECONDS);
+            future.whenComplete((connection, error) -> timeout.cancel());
+        }
+        channel.connect(address, null, new CompletionHandler<Void, Void>() {
+            @Override
+            public void completed(Void ignore, Void attachment) {
+                NioClientConnection connection = new NioClientConnection(channel, bufferPool, options,
+                        invalidationListener);
+                connection.readMore();
+                connection.handshake().whenComplete((ok, error) -> {
+                    if (error == null) {
+                        if (!future.complete(connection)) {
+                            // the connect timeout expired
+                            connection.close();
+                        }
+                    } else {
+                        connection.close();
+                        future.completeExceptionally(error);
+                    }
+                });
+            }
+
+            @Override
+            public void failed(Throwable exc, Void attachment) {
+                Utils.closeQuietly(channel);
+                future.completeExceptionally(exc);
+            }
+        });
+        return future;
+    }
+
+    private CompletableFuture<Void> handshake() {
+        long callId = callIds.incrementAndGet();
+        return submit(callId, () -> ClientSession.handshake(callId, true, cacheInvalidations)).thenAccept(result -> {
+            if (result == null) {
+                throw new CompletionException(new EOFException(
+                        "Connection closed by the server during handshake"));
+            }
+            try {
+                session.onHandshakeResult(result);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        });
+    }
+
+    /**
+     * Invoke a method of the remote service.
+     *
+     * @param method        to invoke
+     * @param args          arguments of the invocation
+     * @param timeoutMillis timeout of the call, or 0 if it does not time out
+     * @return the result of the invocation
+     */
+    CompletableFuture<Api.Result> invoke(Method method, List<Any> args, long timeoutMillis) {
+        long callId = callIds.incrementAndGet();
+        return submit(callId, () -> session.encode(callId, method, args, false, timeoutMillis));
+    }
+
+    /**
+     * Invoke a method of the remote service without expecting a result.
+     *
+     * @param method to invoke
+     * @param args   arguments of the invocation
+     * @throws IOException if the connection is closed
+     */
+    void invokeOneWay(Method method, List<Any> args) throws IOException {
+        if (closed.get()) {
+            throw new IOException("Connection is closed");
+        }
+        synchronized (writer) {
+            send(session.encode(0L, method, args, true, 0L));
+        }
+    }
+
+    private interface InvocationEncoder {
+        Api.MethodInvocation encode();
+    }
+
+    private CompletableFuture<Api.Result> submit(long callId, InvocationEncoder encoder) {
+        CompletableFuture<Api.Result> future = new CompletableFuture<>();
+        pendingCalls.put(callId, future);
+        future.whenComplete((result, error) -> {
+            if (future.isCancelled()) {
+                pendingCalls.remove(callId, future);
+            }
+        });
+        if (closed.get()) {
+            // the connection may have failed before the call was registered
+            pendingCalls.remove(callId);
+            future.completeExceptionally(new IOException("Connection is closed"));
+            return future;
+        }
+        try {
+            // invocations must be written in the same order as they are encoded
+            synchronized (writer) {
+                send(encoder.encode());
+            }
+        } catch (RuntimeException e) {
+            pendingCalls.remove(callId);
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Write an invocation, or add it to the current batch if batching is enabled.
+     * Must be called while holding the lock of {@link #writer}.
+     */
+    private void send(Api.MethodInvocation invocation) {
+        if (batchWindowMicros == 0L || !session.isBatchingSupported()) {
+            writer.write(toBuffer(invocation));
+            return;
+        }
+        List<Api.MethodInvocation> currentBatch = batch;
+        currentBatch.add(invocation);
+        if (currentBatch.size() >= maxBatchSize) {
+            flush(currentBatch);
+        } else if (currentBatch.size() == 1) {
+            SharedTimer.schedule(() -> {
+                synchronized (writer) {
+                    flush(currentBatch);
+                }
+            }, batchWindowMicros, TimeUnit.MICROSECONDS);
+        }
+    }
+
+    /**
+     * Write the given batch, unless it has been written already.
+     * Must be called while holding the lock of {@link #writer}.
+     */
+    private void flush(List<Api.MethodInvocation> currentBatch) {
+        if (batch != currentBatch) {
+            return;
+        }
+        batch = new ArrayList<>(maxBatchSize);
+        log.debug("Sending batch of {} invocations", currentBatch.size());
+        writer.write(toBuffer(currentBatch.size() == 1 ?
+                currentBatch.get(0) :
+                Api.MethodInvocation.newBuilder()
+                        .setBatch(Api.InvocationBatch.newBuilder().addAllInvocations(currentBatch))
+                        .build()));
+    }
+
+    private ByteBuffer toBuffer(Api.MethodInvocation invocation) {
+        int length = invocation.getSerializedSize();
+        ByteBuffer buffer = bufferPool.lease(CodedOutputStream.computeUInt32SizeNoTag(length) + length);
+        try {
+            CodedOutputStream out = CodedOutputStream.newInstance(buffer);
+            out.writeUInt32NoTag(length);
+            invocation.writeTo(out);
+            out.flush();
+            buffer.flip();
+            return buffer;
+        } catch (IOException e) {
+            // never happens, the buffer is large enough for the invocation
+            bufferPool.release(buffer);
+            throw new IllegalStateException("Unable to serialize invocation", e);
+        }
+    }
+
+    private void readMore() {
+        try {
+            channel.read(decoder.prepareRead(), null, this);
+        } catch (RuntimeException e) {
+            stopReading(e);
+        }
+    }
+
+    @Override
+    public void completed(Integer bytesCount, Void attachment) {
+        if (bytesCount < 0) {
+            stopReading(new EOFException("Connection closed by the server"));
+            return;
+        }
+        decoder.onRead();
+        try {
+            ByteBuffer frame;
+            while ((frame = decoder.nextFrame()) != null) {
+                Api.Result result = Api.Result.parseFrom(CodedInputStream.newInstance(frame));
+                if (result.hasInvalidation()) {
+                    log.debug("Received cache invalidation: {}", result.getInvalidation());
+                    invalidationListener.accept(result.getInvalidation().getMethodNamesList());
+                } else if (result.hasBatch()) {
+                    for (Api.Result batchResult : result.getBatch().getResultsList()) {
+                        onResult(session.decode(batchResult));
+                    }
+                } else {
+                    onResult(session.decode(result));
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            stopReading(e);
+            return;
+        }
+        readMore();
+    }
+
+    @Override
+    public void failed(Throwable exc, Void attachment) {
+        stopReading(exc);
+    }
+
+    /**
+     * Called when no more reads will be made, which is the only time the decoder buffers can be safely released.
+     */
+    private void stopReading(Throwable error) {
+        decoder.release();
+        fail(error);
+    }
+
+    private void onResult(Api.Result result) {
+        CompletableFuture<Api.Result> future = pendingCalls.remove(result.getCallId());
+        if (future != null) {
+            future.complete(result);
+        } else {
+            log.debug("Discarding result of unknown call with ID {}: {}", result.getCallId(), result);
+        }
+    }
+
+    private void fail(Throwable error) {
+        boolean firstFailure = closed.compareAndSet(false, true);
+        if (firstFailure) {
+            log.debug("Closing connection due to {}", error.toString());
+        }
+        IOException exception = error instanceof IOException ?
+                (IOException) error :
+                new IOException(error);
+        for (Long callId : pendingCalls.keySet()) {
+            CompletableFuture<Api.Result> future = pendingCalls.remove(callId);
+            if (future != null) {
+                future.completeExceptionally(exception);
+            }
+        }
+        if (firstFailure) {
+            // closing the channel also stops any pending read
+            Utils.closeQuietly(channel);
+            closeFuture.complete(null);
+        }
+    }
+
+    /**
+     * @return whether this connection can still be used.
+     */
+    boolean isOpen() {
+        return !closed.get();
+    }
+
+    /**
+     * @return whether the server sends its cache invalidations over this connection.
+     */
+    boolean isReceivingCacheInvalidations() {
+        return session.isReceivingCacheInvalidations();
+    }
+
+    /**
+     * @return the number of calls waiting for their results.
+     */
+    int getPendingCalls() {
+        return pendingCalls.size();
+    }
+
+    /**
+     * @return a future that completes when this connection is closed.
+     */
+    CompletableFuture<Void> closeFuture() {
+        return closeFuture;
+    }
+
+    /**
+     * Close the connection, failing all calls in flight.
+     */
+    void close() {
+        fail(new IOException("Connection closed by the client"));
+    }
+
+}
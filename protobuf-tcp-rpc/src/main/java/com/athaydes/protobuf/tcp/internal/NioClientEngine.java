@@ -0,0 +1,310 @@
+package com.athaydes.protobuf.tcp.internal;
+
+import com.athaydes.protobuf.tcp.api.Api;
+import com.athaydes.protobuf.tcp.api.ClientOptions;
+import com.athaydes.protobuf.tcp.api.ConnectionPoolStatistics;
+import com.athaydes.protobuf.tcp.api.DeadlineExceededException;
+import com.google.protobuf.Any;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Client engine that multiplexes the calls of all clients of a remote service over a few
+ * {@link NioClientConnection}s.
+ * <p>
+ * Engines are shared by all clients of the same address that use the same number of multiplexed connections (see
+ * {@link ClientOptions#getMultiplexedConnections()}), the same connect timeout and batching options, and that either
+ * all cache results or all do not, and are closed when the last of those clients is closed.
+ * Connections use the JVM-wide default {@link java.nio.channels.AsynchronousChannelGroup}, so no threads are
+ * created per client, per connection or per call.
+ * <p>
+ * Calls are spread over the connections in round-robin order. Connections are opened on demand, and replaced when
+ * they fail (e.g. when the server closes an idle connection). Failed calls are not retried by the engine, as only the
+ * client knows whether they may be (see {@link ClientOptions#getRetryPolicy()}).
+ * <p>
+ * Calls with a timeout fail with a {@link DeadlineExceededException} if their result is not received in time, using
+ * the {@link TimerWheel} shared by all clients. Timed out and cancelled calls are removed from their connection.
+ * <p>
+ * Cache invalidations received on any connection are passed on to the listeners of all clients. When a connection
+ * that receives cache invalidations is closed, invalidations may have been missed, so all cached results are
+ * invalidated.
+ */
+final class NioClientEngine {
+
+    private static final Logger log = LoggerFactory.getLogger(NioClientEngine.class);
+
+    /**
+     * Engines in use, by key (see {@link #keyOf(URI, ClientOptions)}). Also guards {@link #references}.
+     */
+    private static final Map<String, NioClientEngine> engines = new HashMap<>();
+
+    private final String key;
+    private final URI address;
+    private final ClientOptions options;
+    private final BufferPool bufferPool = new BufferPool(false, 32);
+    private final AtomicReferenceArray<CompletableFuture<NioClientConnection>> connections;
+    private final AtomicInteger nextConnection = new AtomicInteger();
+    private final LongAdder openedConnections = new LongAdder();
+    private final LongAdder closedConnections = new LongAdder();
+    private final List<Consumer<List<String>>> invalidationListeners = new CopyOnWriteArrayList<>();
+
+    private int references = 0;
+    private volatile boolean closed = false;
+
+    private NioClientEngine(String key, URI address, ClientOptions options) {
+        this.key = key;
+        this.address = address;
+        this.options = options;
+        this.connections = new AtomicReferenceArray<>(options.getMultiplexedConnections());
+    }
+
+    /**
+     * Get a transport that uses the engine shared by all clients of the given address.
+     * <p>
+     * The engine is created if necessary. Closing the returned transport releases the engine.
+     *
+     * @param address of the remote service
+     * @param options client options, whose {@link ClientOptions#getMultiplexedConnections()} must be positive
+     * @return transport using the shared engine
+     */
+    static ClientTransport acquire(URI address, ClientOptions options) {
+        int connectionCount = options.getMultiplexedConnections();
+        if (connectionCount <= 0) {
+            throw new IllegalArgumentException("Multiplexed connections not enabled");
+        }
+        String key = keyOf(address, options);
+        NioClientEngine engine;
+        synchronized (engines) {
+            engine = engines.computeIfAbsent(key, k -> new NioClientEngine(k, address, options));
+            engine.references++;
+        }
+        return engine.new SharedTransport();
+    }
+
+    private static String keyOf(URI address, ClientOptions options) {
+        return address + "#" + options.getMultiplexedConnections() +
+                "#" + options.getConnectTimeoutMillis() +
+                "#" + options.getBatchWindowMicros() + "#" + options.getMaxBatchSize() +
+                "#" + !options.getCachedMethods().isEmpty();
+    }
+
+    private void release() {
+        synchronized (engines) {
+            if (--references > 0) {
+                return;
+            }
+            engines.remove(key);
+        }
+        log.debug("Closing client engine of {}", address);
+        closed = true;
+        for (int i = 0; i < connections.length(); i++) {
+            CompletableFuture<NioClientConnection> connection = connections.getAndSet(i, null);
+            if (connection != null) {
+                connection.thenAccept(NioClientConnection::close);
+            }
+        }
+    }
+
+    private CompletableFuture<Api.Result> invoke(Method method, List<Any> args, long timeoutMillis) {
+        CompletableFuture<Api.Result> result = new CompletableFuture<>();
+        if (timeoutMillis > 0L) {
+            TimerWheel.Timeout timeout = TimerWheel.shared().schedule(() -> result.completeExceptionally(
+                    new DeadlineExceededException("No result received within " + timeoutMillis + "ms")),
+                    timeoutMillis, TimeUnit.MILLISECONDS);
+            result.whenComplete((value, error) -> timeout.cancel());
+        }
+        CompletableFuture<Api.Result> call = connection().thenCompose(c -> {
+            CompletableFuture<Api.Result> attempt = c.invoke(method, args, timeoutMillis);
+            // once the result future is done (e.g. it timed out), the call is removed from the connection
+            result.whenComplete((value, error) -> attempt.cancel(false));
+            return attempt;
+        });
+        call.whenComplete((value, error) -> {
+            if (error == null) {
+                result.complete(value);
+            } else {
+                result.completeExceptionally(unwrap(error));
+            }
+        });
+        return result;
+    }
+
+    private CompletableFuture<Void> invokeOneWay(Method method, List<Any> args) {
+        return connection().thenAccept(c -> {
+            try {
+                c.invokeOneWay(method, args);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        });
+    }
+
+    private CompletableFuture<NioClientConnection> connection() {
+        int index = Math.floorMod(nextConnection.getAndIncrement(), connections.length());
+        while (true) {
+            if (closed) {
+                CompletableFuture<NioClientConnection> failed = new CompletableFuture<>();
+                failed.completeExceptionally(new IOException("Client is closed"));
+                return failed;
+            }
+            CompletableFuture<NioClientConnection> current = connections.get(index);
+            if (current != null && isUsable(current)) {
+                return current;
+            }
+            CompletableFuture<NioClientConnection> replacement = new CompletableFuture<>();
+            if (connections.compareAndSet(index, current, replacement)) {
+                open(replacement);
+                return replacement;
+            }
+        }
+    }
+
+    private static boolean isUsable(CompletableFuture<NioClientConnection> connection) {
+        if (!connection.isDone()) {
+            return true;
+        }
+        return !connection.isCompletedExceptionally() && connection.join().isOpen();
+    }
+
+    private void open(CompletableFuture<NioClientConnection> future) {
+        log.debug("Opening multiplexed connection to {}", address);
+        AsynchronousSocketChannel channel;
+        try {
+            channel = AsynchronousSocketChannel.open();
+        } catch (IOException e) {
+            future.completeExceptionally(e);
+            return;
+        }
+        InetSocketAddress socketAddress = new InetSocketAddress(address.getHost(), address.getPort());
+        NioClientConnection.open(channel, socketAddress, bufferPool, options, this::onCacheInvalidation)
+                .whenComplete((connection, error) -> {
+                    if (error != null) {
+                        future.completeExceptionally(unwrap(error));
+                        return;
+                    }
+                    onOpen(connection);
+                    future.complete(connection);
+                });
+    }
+
+    private void onOpen(NioClientConnection connection) {
+        openedConnections.increment();
+        connection.closeFuture().thenRun(() -> {
+            closedConnections.increment();
+            if (connection.isReceivingCacheInvalidations()) {
+                // invalidations sent after the connection was closed are lost
+                onCacheInvalidation(Collections.emptyList());
+            }
+        });
+        if (closed) {
+            // the engine was closed while the connection was being opened
+            connection.close();
+        }
+    }
+
+    private void onCacheInvalidation(List<String> methodNames) {
+        for (Consumer<List<String>> listener : invalidationListeners) {
+            listener.accept(methodNames);
+        }
+    }
+
+    private ConnectionPoolStatistics getStatistics() {
+        int busy = 0;
+        int idle = 0;
+        int inFlightCalls = 0;
+        for (int i = 0; i < connections.length(); i++) {
+            CompletableFuture<NioClientConnection> future = connections.get(i);
+            if (future != null && future.isDone() && !future.isCompletedExceptionally()) {
+                NioClientConnection connection = future.join();
+                if (connection.isOpen()) {
+                    int pendingCalls = connection.getPendingCalls();
+                    inFlightCalls += pendingCalls;
+                    if (pendingCalls > 0) {
+                        busy++;
+                    } else {
+                        idle++;
+                    }
+                }
+            }
+        }
+        return new ConnectionPoolStatistics(connections.length(), busy, idle, inFlightCalls, 0,
+                openedConnections.sum(), closedConnections.sum(), 0L);
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+    /**
+     * The transport used by each client of the engine.
+     */
+    private final class SharedTransport implements ClientTransport {
+
+        private final AtomicBoolean released = new AtomicBoolean(false);
+        private final List<Consumer<List<String>>> listeners = new CopyOnWriteArrayList<>();
+
+        @Override
+        public CompletableFuture<Api.Result> invoke(Method method, List<Any> args, long timeoutMillis) {
+            return NioClientEngine.this.invoke(method, args, timeoutMillis);
+        }
+
+        @Override
+        public CompletableFuture<Api.Result> invokeAsync(Method method, List<Any> args, long timeoutMillis,
+                                                         Executor executor) {
+            // hand over the completion to the executor, so dependent actions do not run on the I/O threads
+            CompletableFuture<Api.Result> call = invoke(method, args, timeoutMillis);
+            CompletableFuture<Api.Result> result = call.whenCompleteAsync((value, error) -> {
+            }, executor);
+            result.whenComplete((value, error) -> {
+                if (result.isCancelled()) {
+                    call.cancel(false);
+                }
+            });
+            return result;
+        }
+
+        @Override
+        public CompletableFuture<Void> invokeOneWay(Method method, List<Any> args) {
+            return NioClientEngine.this.invokeOneWay(method, args);
+        }
+
+        @Override
+        public void addCacheInvalidationListener(Consumer<List<String>> listener) {
+            listeners.add(listener);
+            invalidationListeners.add(listener);
+        }
+
+        @Override
+        public ConnectionPoolStatistics getStatistics() {
+            return NioClientEngine.this.getStatistics();
+        }
+
+        @Override
+        public void close() {
+            if (released.compareAndSet(false, true)) {
+                invalidationListeners.removeAll(listeners);
+                release();
+            }
+        }
+    }
+
+}
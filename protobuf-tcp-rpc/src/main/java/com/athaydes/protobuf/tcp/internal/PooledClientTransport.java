@@ -0,0 +1,151 @@
+package com.athaydes.protobuf.tcp.internal;
+
+import com.athaydes.protobuf.tcp.api.Api;
+import com.athaydes.protobuf.tcp.api.ClientOptions;
+import com.athaydes.protobuf.tcp.api.ConnectionPoolStatistics;
+import com.athaydes.protobuf.tcp.api.DeadlineExceededException;
+import com.google.protobuf.Any;
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link ClientTransport} that uses blocking {@link ClientConnection}s leased from a {@link ConnectionPool}.
+ * <p>
+ * Each invocation holds a connection, and the calling thread, until its result is received, so invocations
+ * complete before {@link #invoke(Method, List, long)} returns. Asynchronous invocations hold a thread of the
+ * given executor instead.
+ * <p>
+ * Call timeouts are enforced by the sockets of the connections. A connection whose call times out is closed, as the
+ * late result would otherwise have to be read by the next call.
+ * <p>
+ * Connections are closed before the server would close them for being idle, and failed calls are not retried by
+ * the transport, as only the client knows whether they may be (see {@link ClientOptions#getRetryPolicy()}).
+ * <p>
+ * Cache invalidations are not received, so results cached by the client only expire after their time to live.
+ */
+final class PooledClientTransport implements ClientTransport {
+
+    private static final Logger log = LoggerFactory.getLogger(PooledClientTransport.class);
+
+    private final URI address;
+    private final long connectTimeoutMillis;
+    private final ConnectionPool<ClientConnection> connectionPool;
+    private final AtomicLong callIds = new AtomicLong(0L);
+
+    PooledClientTransport(URI address, ClientOptions options) {
+        this.address = address;
+        this.connectTimeoutMillis = options.getConnectTimeoutMillis();
+        this.connectionPool = new ConnectionPool<>(this::openConnection, options,
+                PooledClientTransport::maxIdleNanos);
+    }
+
+    @Override
+    public CompletableFuture<Api.Result> invoke(Method method, List<Any> args, long timeoutMillis) {
+        CompletableFuture<Api.Result> future = new CompletableFuture<>();
+        try {
+            future.complete(call(method, args, timeoutMillis));
+        } catch (IOException | RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    @Override
+    public CompletableFuture<Api.Result> invokeAsync(Method method, List<Any> args, long timeoutMillis,
+                                                     Executor executor) {
+        // blocking connections need a thread for the whole duration of the call
+        return CompletableFuture.supplyAsync(() -> invoke(method, args, timeoutMillis), executor)
+                .thenCompose(Function.identity());
+    }
+
+    @Override
+    public CompletableFuture<Void> invokeOneWay(Method method, List<Any> args) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        ClientConnection connection = null;
+        try {
+            connection = connectionPool.lease();
+            connection.send(0L, method, args, true, 0L);
+            connectionPool.release(connection);
+            future.complete(null);
+        } catch (IOException | RuntimeException e) {
+            if (connection != null) {
+                connectionPool.invalidate(connection);
+            }
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    private Api.Result call(Method method, List<Any> args, long timeoutMillis) throws IOException {
+        long callId = callIds.incrementAndGet();
+        ClientConnection connection = connectionPool.lease();
+        try {
+            log.debug("Leased connection to server {}, sending method invocation", address);
+            connection.send(callId, method, args, false, timeoutMillis);
+
+            log.debug("Waiting for server response");
+            Api.Result result;
+            try {
+                result = connection.readResult(callId, timeoutMillis);
+            } catch (SocketTimeoutException e) {
+                // the connection is invalidated below, so the late result is never read
+                throw new DeadlineExceededException("No result received within " + timeoutMillis + "ms");
+            }
+            if (result == null) {
+                throw new EOFException("Connection closed by the server");
+            }
+            connectionPool.release(connection);
+            return result;
+        } catch (IOException | RuntimeException e) {
+            log.debug("Problem calling server: {}", e.toString());
+            connectionPool.invalidate(connection);
+            throw e;
+        }
+    }
+
+    /**
+     * An invocation written to a connection that the server has already closed is lost, and the caller cannot tell
+     * whether the method was invoked (one-way invocations are even lost without notice, as there is no result to
+     * reveal the problem). So connections are not used for more than four fifths of the server's idle timeout after
+     * their last call, leaving the rest as a margin for the server to start its timeout before the client does, and
+     * for the next invocation to reach the server.
+     */
+    private static long maxIdleNanos(ClientConnection connection) {
+        long serverIdleTimeoutMillis = connection.getServerIdleTimeoutMillis();
+        return TimeUnit.MILLISECONDS.toNanos(serverIdleTimeoutMillis - serverIdleTimeoutMillis / 5);
+    }
+
+    private ClientConnection openConnection() throws IOException {
+        log.debug("Creating new connection to {}", address);
+        return ClientConnection.open(address, callIds.incrementAndGet(), true, connectTimeoutMillis);
+    }
+
+    @Override
+    public void addCacheInvalidationListener(Consumer<List<String>> listener) {
+        // blocking connections only read from the server while waiting for a result, so they would not receive
+        // invalidations in time, and do not ask for them
+    }
+
+    @Override
+    public ConnectionPoolStatistics getStatistics() {
+        return connectionPool.getStatistics();
+    }
+
+    @Override
+    public void close() {
+        connectionPool.close();
+    }
+
+}
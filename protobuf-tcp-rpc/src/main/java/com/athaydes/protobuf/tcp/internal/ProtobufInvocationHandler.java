@@ -1,9 +1,14 @@
 package com.athaydes.protobuf.tcp.internal;
 
 import com.athaydes.protobuf.tcp.api.Api;
-import com.athaydes.protobuf.tcp.api.Api.MethodInvocation;
+import com.athaydes.protobuf.tcp.api.ClientOptions;
 import com.athaydes.protobuf.tcp.api.CommunicationException;
+import com.athaydes.protobuf.tcp.api.ConnectionPoolStatistics;
+import com.athaydes.protobuf.tcp.api.DeadlineExceededException;
+import com.athaydes.protobuf.tcp.api.Idempotent;
+import com.athaydes.protobuf.tcp.api.OneWay;
 import com.athaydes.protobuf.tcp.api.RemoteException;
+import com.athaydes.protobuf.tcp.api.RetryPolicy;
 import com.google.protobuf.Any;
 import com.google.protobuf.BoolValue;
 import com.google.protobuf.ByteString;
@@ -16,18 +21,25 @@ import com.google.protobuf.Message;
 import com.google.protobuf.StringValue;
 import java.io.Closeable;
 import java.io.IOException;
-import java.io.OutputStream;
+import java.io.InterruptedIOException;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
-import java.net.Socket;
 import java.net.URI;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Optional;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
+import java.util.function.LongFunction;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -38,6 +50,22 @@ import static java.util.stream.Collectors.toList;
  * <p>
  * This class can be used to create a {@link java.lang.reflect.Proxy} for a service
  * whose implementation is provided by a remote service.
+ * <p>
+ * Calls may be made concurrently from several threads. Depending on the {@link ClientOptions} given to the handler,
+ * each call either leases a connection from a {@link ConnectionPool} (see {@link PooledClientTransport}), or is sent
+ * over a connection shared by all clients of the same remote service (see {@link NioClientEngine}).
+ * <p>
+ * Methods returning {@link CompletableFuture} or {@link java.util.concurrent.CompletionStage} are called
+ * asynchronously: the proxy returns a future immediately, which is completed once the result is received.
+ * <p>
+ * One-way methods (see {@link OneWay}) return as soon as the invocation is sent.
+ * <p>
+ * Results of the methods configured with {@link ClientOptions.Builder#cacheResults(String, long)} are kept in a
+ * {@link ClientResultCache}, so that calls with equal arguments return without invoking the remote method.
+ * <p>
+ * Calls to {@link Idempotent} methods that fail because of a communication error are retried as allowed by the
+ * {@link RetryPolicy} of the client, within the timeout of the call. Transports never retry calls themselves.
+ * Slow calls to idempotent methods may also be hedged (see {@link CallHedger}).
  */
 public class ProtobufInvocationHandler implements InvocationHandler, AutoCloseable {
 
@@ -81,16 +109,39 @@ public class ProtobufInvocationHandler implements InvocationHandler, AutoCloseab
     }
 
     private final URI address;
-    private final AtomicReference<Socket> socketRef = new AtomicReference<>();
+    private final ClientTransport transport;
+    private final Executor executor;
     private final boolean forwardCloseMethodCall;
+    private final boolean oneWayVoidMethods;
+    private final ClientOptions options;
+    private final Map<String, Long> cachedMethods;
+    private final ClientResultCache resultCache;
+    private final RetryPolicy retryPolicy;
+    private final Map<Method, RemoteMethod> remoteMethods = new ConcurrentHashMap<>();
 
     public ProtobufInvocationHandler(URI address) {
         this(address, false);
     }
 
     public ProtobufInvocationHandler(URI address, boolean forwardCloseMethodCall) {
+        this(address, forwardCloseMethodCall, ClientOptions.defaults());
+    }
+
+    public ProtobufInvocationHandler(URI address, boolean forwardCloseMethodCall, ClientOptions options) {
         this.address = address;
         this.forwardCloseMethodCall = forwardCloseMethodCall;
+        this.transport = options.getMultiplexedConnections() > 0 ?
+                NioClientEngine.acquire(address, options) :
+                new PooledClientTransport(address, options);
+        this.executor = options.getExecutor().orElseGet(ForkJoinPool::commonPool);
+        this.oneWayVoidMethods = options.isOneWayVoidMethods();
+        this.options = options;
+        this.cachedMethods = options.getCachedMethods();
+        this.resultCache = new ClientResultCache(options.getMaxCachedResults());
+        this.retryPolicy = options.getRetryPolicy();
+        if (!cachedMethods.isEmpty()) {
+            transport.addCacheInvalidationListener(resultCache::invalidate);
+        }
     }
 
     @Override
@@ -121,71 +172,290 @@ public class ProtobufInvocationHandler implements InvocationHandler, AutoCloseab
     }
 
     private Object callRemoteMethod(Method method, Object[] args) {
+        RemoteMethod remoteMethod = remoteMethods.computeIfAbsent(method, this::remoteMethodOf);
+        if (remoteMethod.cacheTtlNanos > 0L) {
+            return callCachedMethod(method, args == null ? new Object[]{} : args, remoteMethod);
+        }
+        return callRemoteMethod(method, args, remoteMethod);
+    }
+
+    private Object callCachedMethod(Method method, Object[] args, RemoteMethod remoteMethod) {
+        List<Object> key = ClientResultCache.keyOf(method, args);
+        Object cached = resultCache.get(key);
+        if (cached != ClientResultCache.MISS) {
+            log.debug("Using cached result of remote method '{}'", method.getName());
+            return remoteMethod.async ? CompletableFuture.completedFuture(cached) : cached;
+        }
+        long version = resultCache.version();
+        Object result = callRemoteMethod(method, args, remoteMethod);
+        if (remoteMethod.async) {
+            // the call's own future is returned, so that cancelling it cancels the call
+            CompletableFuture<?> future = (CompletableFuture<?>) result;
+            future.thenAccept(value -> resultCache.put(key, value, remoteMethod.cacheTtlNanos, version));
+            return future;
+        }
+        resultCache.put(key, result, remoteMethod.cacheTtlNanos, version);
+        return result;
+    }
+
+    private Object callRemoteMethod(Method method, Object[] args, RemoteMethod remoteMethod) {
         log.debug("Calling remote method '{}'", method.getName());
-        MethodInvocation invocation = MethodInvocation.newBuilder()
-                .setMethodName(method.getName())
-                .addAllArgs(Arrays.stream(args == null ? new Object[]{} : args)
-                        .map(ProtobufInvocationHandler::packedMessage)
-                        .peek(msg -> {
-                            if (msg == null) {
-                                throw new NullPointerException("Remote method invocation cannot accept null argument");
-                            }
-                        }).collect(toList())).build();
-
-        Api.Result result = null;
-        int retries = 1;
-
-        while (retries >= 0) {
-            Socket socket = null;
+        List<Any> packedArgs = Arrays.stream(args == null ? new Object[]{} : args)
+                .map(ProtobufInvocationHandler::packedMessage)
+                .peek(msg -> {
+                    if (msg == null) {
+                        throw new NullPointerException("Remote method invocation cannot accept null argument");
+                    }
+                }).collect(toList());
+
+        if (remoteMethod.async) {
+            return callRemoteMethodAsync(method, packedArgs, remoteMethod);
+        }
+
+        if (remoteMethod.oneWay) {
+            awaitWithRetries(method, remoteMethod, timeoutMillis -> transport.invokeOneWay(method, packedArgs));
+            return null;
+        }
+
+        return resultValue(awaitWithRetries(method, remoteMethod, timeoutMillis -> remoteMethod.hedger == null ?
+                        transport.invoke(method, packedArgs, timeoutMillis) :
+                        remoteMethod.hedger.call(t -> transport.invoke(method, packedArgs, t), timeoutMillis)),
+                remoteMethod.resultType);
+    }
+
+    /**
+     * Wait for the result of a call, retrying it if allowed.
+     *
+     * @param attempt makes an attempt of the call, given the timeout of the attempt
+     */
+    private <T> T awaitWithRetries(Method method, RemoteMethod remoteMethod,
+                                   LongFunction<CompletableFuture<T>> attempt) {
+        retryPolicy.onCall(method);
+        long deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(remoteMethod.timeoutMillis);
+        long timeoutMillis = remoteMethod.timeoutMillis;
+        for (int failedAttempts = 1; ; failedAttempts++) {
             try {
-                socket = createOrReuseSocket();
-                log.debug("Connected to server {}, sending message with length: {}",
-                        address, invocation.getSerializedSize());
-                OutputStream out = socket.getOutputStream();
-                invocation.writeDelimitedTo(out);
-                out.flush();
-
-                log.debug("Waiting for server response");
-                result = Api.Result.parseDelimitedFrom(socket.getInputStream());
-                if (result == null) {
-                    log.debug("Received EOF, resetting the socket");
-                    socketRef.set(null);
-                } else {
-                    break;
+                return await(attempt.apply(timeoutMillis));
+            } catch (RuntimeException e) {
+                long delayMillis = retryDelayMillis(method, remoteMethod, failedAttempts, e, deadlineNanos);
+                if (delayMillis < 0L) {
+                    throw e;
                 }
-            } catch (IOException e) {
-                log.debug("Problem connecting to server [retries={}]: {}", retries, e.toString());
-                socketRef.set(null);
-                Optional.ofNullable(socket).ifPresent(Utils::closeQuietly);
-                if (retries <= 0) {
-                    throw new CommunicationException(e);
+                try {
+                    Thread.sleep(delayMillis);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+                timeoutMillis = remainingMillis(remoteMethod, deadlineNanos);
+            }
+        }
+    }
+
+    /**
+     * @return the delay before retrying a call that failed with the given error, or -1 if it must not be retried.
+     */
+    private long retryDelayMillis(Method method, RemoteMethod remoteMethod, int failedAttempts,
+                                  RuntimeException error, long deadlineNanos) {
+        if (!remoteMethod.idempotent ||
+                !(error instanceof CommunicationException) ||
+                // timeouts are not retried, and neither are calls that could not even get a connection
+                error.getCause() instanceof InterruptedIOException ||
+                error.getCause() instanceof ConnectionPool.LeaseTimeoutException) {
+            return -1L;
+        }
+        long delayMillis = retryPolicy.retryDelayMillis(method, failedAttempts, (IOException) error.getCause());
+        if (delayMillis < 0L) {
+            return -1L;
+        }
+        if (remoteMethod.timeoutMillis > 0L &&
+                TimeUnit.MILLISECONDS.toNanos(delayMillis) >= deadlineNanos - System.nanoTime()) {
+            log.debug("Not retrying call to remote method '{}', as it would time out first", method.getName());
+            return -1L;
+        }
+        log.debug("Retrying call to remote method '{}' in {}ms [failedAttempts={}]: {}",
+                method.getName(), delayMillis, failedAttempts, error.getCause().toString());
+        return delayMillis;
+    }
+
+    /**
+     * @return the timeout of the next attempt of a call.
+     */
+    private static long remainingMillis(RemoteMethod remoteMethod, long deadlineNanos) {
+        if (remoteMethod.timeoutMillis == 0L) {
+            return 0L;
+        }
+        return Math.max(1L, TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime()));
+    }
+
+    private static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            // nobody is waiting for the result anymore
+            future.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new CommunicationException(new InterruptedIOException("Interrupted while waiting for result"));
+        } catch (ExecutionException e) {
+            throw toRuntimeException(e.getCause());
+        }
+    }
+
+    private CompletableFuture<Object> callRemoteMethodAsync(Method method, List<Any> args, RemoteMethod remoteMethod) {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        retryPolicy.onCall(method);
+        long deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(remoteMethod.timeoutMillis);
+        attemptAsync(method, args, remoteMethod, future, 1, remoteMethod.timeoutMillis, deadlineNanos);
+        return future;
+    }
+
+    private void attemptAsync(Method method, List<Any> args, RemoteMethod remoteMethod, CompletableFuture<Object> future,
+                              int attempt, long timeoutMillis, long deadlineNanos) {
+        CompletableFuture<Api.Result> call = remoteMethod.hedger == null ?
+                transport.invokeAsync(method, args, timeoutMillis, executor) :
+                remoteMethod.hedger.call(t -> transport.invokeAsync(method, args, t, executor), timeoutMillis);
+        call.whenComplete((result, error) -> {
+            if (error != null) {
+                RuntimeException exception = toRuntimeException(error instanceof CompletionException ?
+                        error.getCause() : error);
+                long delayMillis = retryDelayMillis(method, remoteMethod, attempt, exception, deadlineNanos);
+                if (delayMillis >= 0L && !future.isDone()) {
+                    TimerWheel.shared().schedule(() -> retryAsync(method, args, remoteMethod, future, attempt + 1,
+                            deadlineNanos, exception), delayMillis, TimeUnit.MILLISECONDS);
+                } else {
+                    future.completeExceptionally(exception);
                 }
-            } finally {
-                retries--;
+            } else try {
+                future.complete(resultValue(result, remoteMethod.resultType));
+            } catch (RuntimeException e) {
+                future.completeExceptionally(e);
             }
+        });
+        future.whenComplete((result, error) -> {
+            if (future.isCancelled()) {
+                call.cancel(false);
+            }
+        });
+    }
+
+    private void retryAsync(Method method, List<Any> args, RemoteMethod remoteMethod, CompletableFuture<Object> future,
+                            int attempt, long deadlineNanos, RuntimeException lastError) {
+        if (future.isDone()) {
+            // cancelled while waiting to retry
+            return;
+        }
+        try {
+            // the attempt must not run in the timer thread, as blocking transports submit it to the executor
+            executor.execute(() -> attemptAsync(method, args, remoteMethod, future, attempt,
+                    remainingMillis(remoteMethod, deadlineNanos), deadlineNanos));
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(lastError);
         }
+    }
 
+    private static RuntimeException toRuntimeException(Throwable error) {
+        if (error instanceof IOException) {
+            return new CommunicationException((IOException) error);
+        }
+        if (error instanceof RuntimeException) {
+            return (RuntimeException) error;
+        }
+        return new CommunicationException(new IOException(error));
+    }
+
+    /**
+     * @param result     of a method invocation
+     * @param resultType type of the values returned by the method, see {@link MethodInvocationResolver#resultTypeOf}
+     * @return the value of the result
+     * @throws RemoteException           if the result is an exception
+     * @throws DeadlineExceededException if the server did not invoke the method because the call timed out
+     */
+    private static Object resultValue(Api.Result result, Class<?> resultType) {
         log.debug("Received result: {}", result);
 
         if (result == null) {
             return null;
         } else switch (result.getResultCase()) {
             case SUCCESSRESULT:
-                if (method.getReturnType().equals(void.class)) {
+                if (resultType.equals(void.class) || resultType.equals(Void.class)) {
                     return null;
                 }
                 try {
-                    return MethodInvocationResolver.convert(result.getSuccessResult(), method.getReturnType());
+                    return MethodInvocationResolver.convert(result.getSuccessResult(), resultType);
                 } catch (IOException e) {
                     throw new CommunicationException(e);
                 }
             case EXCEPTION:
+                if (DeadlineExceededException.class.getName().equals(result.getException().getType())) {
+                    throw new DeadlineExceededException(result.getException().getMessage());
+                }
                 throw new RemoteException(result.getException().getType(), result.getException().getMessage());
             default:
                 return null;
         }
     }
 
+    private RemoteMethod remoteMethodOf(Method method) {
+        boolean isVoid = method.getReturnType().equals(void.class);
+        boolean oneWay = method.isAnnotationPresent(OneWay.class);
+        if (oneWay && !isVoid) {
+            throw new IllegalArgumentException("One-way method must return void: " + method);
+        }
+        Class<?> resultType = MethodInvocationResolver.resultTypeOf(method);
+        long cacheTtlMillis = cachedMethods.getOrDefault(method.getName(), 0L);
+        if (cacheTtlMillis > 0L && (resultType.equals(void.class) || resultType.equals(Void.class))) {
+            throw new IllegalArgumentException("Results of methods without a result cannot be cached: " + method);
+        }
+        boolean idempotent = method.isAnnotationPresent(Idempotent.class);
+        boolean isOneWay = oneWay || (oneWayVoidMethods && isVoid);
+        CallHedger hedger = idempotent && !isOneWay && options.getHedgeDelayMillis() > 0L ?
+                new CallHedger(method.getName(), options.getHedgeDelayMillis(), options.getHedgeDelayPercentile()) :
+                null;
+        return new RemoteMethod(resultType,
+                MethodInvocationResolver.isAsyncType(method.getReturnType()),
+                isOneWay,
+                idempotent,
+                hedger,
+                TimeUnit.MILLISECONDS.toNanos(cacheTtlMillis),
+                options.getCallTimeoutMillis(method.getName()));
+    }
+
+    /**
+     * Information about a method of the remote service, computed the first time it is called.
+     */
+    private static final class RemoteMethod {
+        final Class<?> resultType;
+        final boolean async;
+        final boolean oneWay;
+        final boolean idempotent;
+
+        /**
+         * Hedger of the calls to the method, or null if they are not hedged.
+         */
+        final CallHedger hedger;
+
+        /**
+         * Time to live of the cached results of the method, or 0 if its results are not cached.
+         */
+        final long cacheTtlNanos;
+
+        /**
+         * Timeout of the calls to the method, or 0 if they do not time out.
+         */
+        final long timeoutMillis;
+
+        RemoteMethod(Class<?> resultType, boolean async, boolean oneWay, boolean idempotent, CallHedger hedger,
+                     long cacheTtlNanos, long timeoutMillis) {
+            this.resultType = resultType;
+            this.async = async;
+            this.oneWay = oneWay;
+            this.idempotent = idempotent;
+            this.hedger = hedger;
+            this.cacheTtlNanos = cacheTtlNanos;
+            this.timeoutMillis = timeoutMillis;
+        }
+    }
+
     private Object handleCloseMethod() {
         if (forwardCloseMethodCall) try {
             callRemoteMethod(closeMethod, new Object[]{});
@@ -200,17 +470,11 @@ public class ProtobufInvocationHandler implements InvocationHandler, AutoCloseab
         return null;
     }
 
-    private Socket createOrReuseSocket() throws IOException {
-        Socket oldSocket = socketRef.get();
-        if (oldSocket != null) {
-            log.debug("Reusing socket for {}", address);
-            return oldSocket;
-        } else {
-            log.debug("Creating new socket for {}", address);
-            Socket newSocket = new Socket(address.getHost(), address.getPort());
-            socketRef.set(newSocket);
-            return newSocket;
-        }
+    /**
+     * @return statistics of the pool of connections of this client.
+     */
+    public ConnectionPoolStatistics getConnectionPoolStatistics() {
+        return transport.getStatistics();
     }
 
     /**
@@ -239,7 +503,7 @@ public class ProtobufInvocationHandler implements InvocationHandler, AutoCloseab
 
     @Override
     public void close() {
-        Optional.ofNullable(socketRef.getAndSet(null)).ifPresent(Utils::closeQuietly);
+        transport.close();
     }
 
 }
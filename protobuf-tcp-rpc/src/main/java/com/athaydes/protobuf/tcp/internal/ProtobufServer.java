@@ -1,52 +1,106 @@
 package com.athaydes.protobuf.tcp.internal;
 
 import com.athaydes.protobuf.tcp.api.Api;
+import com.athaydes.protobuf.tcp.api.BufferPoolStatistics;
+import com.athaydes.protobuf.tcp.api.DeadlineExceededException;
+import com.athaydes.protobuf.tcp.api.ResultCacheStatistics;
+import com.athaydes.protobuf.tcp.api.ServerOptions;
 import com.athaydes.protobuf.tcp.api.ServiceReference;
 import com.google.protobuf.Any;
 import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
 import com.google.protobuf.StringValue;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousChannelGroup;
 import java.nio.channels.AsynchronousCloseException;
 import java.nio.channels.AsynchronousServerSocketChannel;
 import java.nio.channels.AsynchronousSocketChannel;
 import java.nio.channels.CompletionHandler;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.OptionalInt;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import static com.athaydes.protobuf.tcp.internal.MethodResolver.resolveMethods;
 import static com.athaydes.protobuf.tcp.internal.Utils.closeQuietly;
-import static java.util.Collections.emptyList;
+import static com.athaydes.protobuf.tcp.internal.Utils.daemonThreadFactory;
+import static java.util.stream.Collectors.toList;
 
 /**
  * A TCP implementation of a Protobuf RPC server that sends method invocations to a local service.
+ * <p>
+ * Service methods returning {@link java.util.concurrent.CompletableFuture} or {@link CompletionStage} are
+ * asynchronous: their result is sent by the thread that completes the returned future, so no server thread waits
+ * for it.
+ * <p>
+ * Invocations of service methods annotated with {@link com.athaydes.protobuf.tcp.api.Coalesce} are gathered from all
+ * connections, and the service's bulk method is invoked for all of them at once (see {@link CallCoalescer}).
+ * Identical concurrent invocations of methods annotated with {@link com.athaydes.protobuf.tcp.api.SingleFlight}
+ * share the result of a single invocation (see {@link InFlightInvocations}).
  */
 public class ProtobufServer<T> implements ServiceReference<T> {
 
     private static final Logger log = LoggerFactory.getLogger(ProtobufServer.class);
 
+    /**
+     * Executor that runs service methods directly on the I/O threads.
+     */
+    private static final Executor DIRECT_EXECUTOR = Runnable::run;
+
     private final int port;
     private final T service;
+    private final ServerOptions options;
     private final AtomicBoolean running = new AtomicBoolean(false);
     private final AtomicReference<AsynchronousServerSocketChannel> serverSocketRef = new AtomicReference<>();
-    private final Map<String, List<Method>> methodsByName;
+    private final AtomicReference<AsynchronousChannelGroup> ownedChannelGroupRef = new AtomicReference<>();
+    private final AtomicReference<ExecutorService> ownedExecutorRef = new AtomicReference<>();
+    private final AtomicReference<ExecutorService> ownedBulkExecutorRef = new AtomicReference<>();
+    private final MethodDispatchTable dispatchTable;
+    private final Map<Method, CallCoalescer> coalescers;
+    private final InFlightInvocations inFlightInvocations;
+    private final ResultCache resultCache;
+    private final Set<Handler> invalidationSubscribers = ConcurrentHashMap.newKeySet();
+    private final BufferPool bufferPool;
 
     public ProtobufServer(T service, int port, Class... exportedInterfaces) {
+        this(service, port, ServerOptions.defaults(), exportedInterfaces);
+    }
+
+    public ProtobufServer(T service, int port, ServerOptions options, Class... exportedInterfaces) {
         this.port = port;
         this.service = service;
-        this.methodsByName = resolveMethods(service, exportedInterfaces);
+        this.options = options;
+        Map<String, List<Method>> methods = resolveMethods(service, exportedInterfaces);
+        this.dispatchTable = MethodDispatchTable.of(methods);
+        List<Method> allMethods = methods.values().stream().flatMap(List::stream).collect(toList());
+        this.coalescers = CallCoalescer.forMethods(service, allMethods);
+        this.inFlightInvocations = InFlightInvocations.forMethods(service, allMethods);
+        this.resultCache = ResultCache.forMethods(service, allMethods, options.getResultCacheMaxBytes());
+        this.bufferPool = new BufferPool(options.isDirectBuffers(), options.getPooledBuffersPerSize());
     }
 
     @Override
@@ -54,6 +108,29 @@ public class ProtobufServer<T> implements ServiceReference<T> {
         return service;
     }
 
+    @Override
+    public Optional<BufferPoolStatistics> getBufferPoolStatistics() {
+        return Optional.of(bufferPool.statistics());
+    }
+
+    @Override
+    public Optional<ResultCacheStatistics> getResultCacheStatistics() {
+        return resultCache.isEnabled() ? Optional.of(resultCache.statistics()) : Optional.empty();
+    }
+
+    @Override
+    public void invalidateCachedResults(String... methodNames) {
+        List<String> names = Arrays.asList(methodNames);
+        log.debug("Invalidating cached results of methods {}", names);
+        resultCache.invalidate(names);
+        Api.Result invalidation = Api.Result.newBuilder()
+                .setInvalidation(Api.CacheInvalidation.newBuilder().addAllMethodNames(names))
+                .build();
+        for (Handler subscriber : invalidationSubscribers) {
+            subscriber.sendResult(invalidation, false);
+        }
+    }
+
     /**
      * Run this server.
      * <p>
@@ -64,10 +141,15 @@ public class ProtobufServer<T> implements ServiceReference<T> {
         log.info("Starting ProtobufServer on port " + port);
 
         AsynchronousServerSocketChannel serverSocket;
+        Executor executor;
+        Executor bulkExecutor;
         try {
-            if (!serverSocketRef.compareAndSet(null, serverSocket = AsynchronousServerSocketChannel.open())) {
+            if (!serverSocketRef.compareAndSet(null, serverSocket = openServerSocket())) {
                 throw new RuntimeException("Server already running");
             }
+            // the executors are created before binding, so the port is not left bound if they cannot be created
+            executor = createExecutor();
+            bulkExecutor = createBulkExecutor(executor);
             serverSocket.bind(new InetSocketAddress("127.0.0.1", port));
         } catch (IOException e) {
             log.warn("Error starting server", e);
@@ -85,7 +167,10 @@ public class ProtobufServer<T> implements ServiceReference<T> {
                     try {
                         log.debug("Accepting connection from: {}", clientSocket.getRemoteAddress());
                         serverSocket.accept(null, this);
-                        new Handler(service, methodsByName, clientSocket).run();
+                        new Handler(service, dispatchTable, coalescers, inFlightInvocations, resultCache,
+                                invalidationSubscribers, executor, bulkExecutor, bufferPool,
+                                options.isCompactTypeUrls(),
+                                options.getIdleTimeoutMillis(), clientSocket).run();
                     } catch (IOException e) {
                         log.warn("Unable to get client remote address");
                         closeQuietly(clientSocket);
@@ -106,6 +191,91 @@ public class ProtobufServer<T> implements ServiceReference<T> {
         });
     }
 
+    /**
+     * Open the server socket using the channel group configured in the server options.
+     * <p>
+     * If the server options require a dedicated channel group, it is created here and owned by this server.
+     */
+    private AsynchronousServerSocketChannel openServerSocket() throws IOException {
+        Optional<AsynchronousChannelGroup> providedGroup = options.getChannelGroup();
+        if (providedGroup.isPresent()) {
+            log.debug("Using provided channel group");
+            return AsynchronousServerSocketChannel.open(providedGroup.get());
+        }
+        if (options.getIoThreads() > 0) {
+            log.debug("Creating dedicated channel group with {} threads", options.getIoThreads());
+            ThreadFactory threadFactory = options.getIoThreadFactory()
+                    .orElseGet(() -> daemonThreadFactory("protobuf-server-" + port + "-io-"));
+            AsynchronousChannelGroup group = AsynchronousChannelGroup.withFixedThreadPool(
+                    options.getIoThreads(), threadFactory);
+            AsynchronousChannelGroup oldGroup = ownedChannelGroupRef.getAndSet(group);
+            if (oldGroup != null) {
+                shutdown(oldGroup);
+            }
+            return AsynchronousServerSocketChannel.open(group);
+        }
+        return AsynchronousServerSocketChannel.open();
+    }
+
+    /**
+     * Create the executor to run service methods with, as configured in the server options.
+     * <p>
+     * If the server options require a worker thread pool or virtual threads, the executor is created here
+     * and owned by this server.
+     * If no executor is configured, service methods run directly on the I/O threads.
+     */
+    private Executor createExecutor() {
+        Optional<Executor> providedExecutor = options.getExecutor();
+        if (providedExecutor.isPresent()) {
+            log.debug("Using provided executor");
+            return providedExecutor.get();
+        }
+        if (options.isVirtualThreads()) {
+            Optional<ExecutorService> virtualThreadExecutor = VirtualThreads.newVirtualThreadPerTaskExecutor();
+            if (virtualThreadExecutor.isPresent()) {
+                log.debug("Using virtual threads to run service methods");
+                return own(virtualThreadExecutor.get());
+            }
+            log.warn("Virtual threads are not supported by this JVM (JDK 21+ is required), " +
+                    "ignoring the virtualThreads option");
+        }
+        if (options.getWorkerThreads() > 0) {
+            log.debug("Creating worker thread pool with {} threads", options.getWorkerThreads());
+            return own(Executors.newFixedThreadPool(options.getWorkerThreads(),
+                    daemonThreadFactory("protobuf-server-" + port + "-worker-")));
+        }
+        return DIRECT_EXECUTOR;
+    }
+
+    /**
+     * Create the executor to run the bulk methods of coalesced invocations with (see {@link CallCoalescer}).
+     * <p>
+     * Bulk methods are invoked by the timer thread that closes the time window of a batch, or by the I/O thread that
+     * fills a batch, so they must never run directly on the calling thread. If service methods run directly on the
+     * I/O threads, bulk methods run on a thread pool owned by this server, with one thread per coalesced method.
+     */
+    private Executor createBulkExecutor(Executor executor) {
+        if (executor != DIRECT_EXECUTOR || coalescers.isEmpty()) {
+            return executor;
+        }
+        log.debug("Creating bulk method thread pool with {} threads", coalescers.size());
+        ExecutorService bulkExecutor = Executors.newFixedThreadPool(coalescers.size(),
+                daemonThreadFactory("protobuf-server-" + port + "-bulk-"));
+        ExecutorService oldExecutor = ownedBulkExecutorRef.getAndSet(bulkExecutor);
+        if (oldExecutor != null) {
+            oldExecutor.shutdownNow();
+        }
+        return bulkExecutor;
+    }
+
+    private ExecutorService own(ExecutorService executor) {
+        ExecutorService oldExecutor = ownedExecutorRef.getAndSet(executor);
+        if (oldExecutor != null) {
+            oldExecutor.shutdownNow();
+        }
+        return executor;
+    }
+
     @Override
     public void close() {
         log.info("Stopping server");
@@ -114,162 +284,779 @@ public class ProtobufServer<T> implements ServiceReference<T> {
         if (serverSocket != null) {
             closeQuietly(serverSocket);
         }
+        AsynchronousChannelGroup ownedGroup = ownedChannelGroupRef.getAndSet(null);
+        if (ownedGroup != null) {
+            shutdown(ownedGroup);
+        }
+        ExecutorService ownedExecutor = ownedExecutorRef.getAndSet(null);
+        if (ownedExecutor != null) {
+            log.debug("Shutting down executor");
+            ownedExecutor.shutdown();
+        }
+        ExecutorService ownedBulkExecutor = ownedBulkExecutorRef.getAndSet(null);
+        if (ownedBulkExecutor != null) {
+            log.debug("Shutting down bulk method executor");
+            ownedBulkExecutor.shutdown();
+        }
     }
 
-    private static class Handler implements CompletionHandler<Integer, VarIntReader> {
+    private static void shutdown(AsynchronousChannelGroup group) {
+        log.debug("Shutting down dedicated channel group");
+        try {
+            // closes all client connections still open in the group
+            group.shutdownNow();
+            if (!group.awaitTermination(5, TimeUnit.SECONDS)) {
+                log.warn("Channel group did not terminate within the timeout");
+            }
+        } catch (IOException e) {
+            log.warn("Error shutting down channel group", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static class Handler implements CompletionHandler<Integer, ByteBuffer> {
 
         private final Object service;
-        private final Map<String, List<Method>> methodsByName;
+        private final MethodDispatchTable dispatchTable;
+        private final Map<Method, CallCoalescer> coalescers;
+        private final InFlightInvocations inFlightInvocations;
+        private final ResultCache resultCache;
+        private final Set<Handler> invalidationSubscribers;
+        private final Executor executor;
+        private final Executor bulkExecutor;
+        private final BufferPool bufferPool;
         private final AsynchronousSocketChannel clientSocket;
+        private final FrameDecoder decoder;
+        private final FrameWriter frameWriter;
+
+        /**
+         * Whether compact type URLs may be sent to the client, if it asks for them.
+         */
+        private final boolean compactTypeUrlsAllowed;
+
+        /**
+         * Time, in milliseconds, the connection may stay idle before it is closed, or 0 if it is never closed.
+         */
+        private final long idleTimeoutMillis;
+
+        /**
+         * Type URLs registered by the client. Only used by the thread processing frames.
+         */
+        private final TypeUrlDictionary incomingTypes = new TypeUrlDictionary();
+
+        /**
+         * Type URLs registered by the server. Results must be compacted and queued for writing atomically
+         * (holding the lock of this object), so registrations are always written before the IDs are used.
+         */
+        private final TypeUrlDictionary outgoingTypes = new TypeUrlDictionary();
+
+        private volatile boolean compactTypeUrls = false;
+
+        /**
+         * Whether the client receives cache invalidations, in which case the connection is kept open even if idle.
+         */
+        private volatile boolean cacheInvalidations = false;
+
+        /**
+         * Number of pipelined method invocations (i.e. invocations with a call ID) still being processed.
+         */
+        private final AtomicInteger pipelinedCalls = new AtomicInteger(0);
+
+        /**
+         * Number of socket reads completed, used to tell whether the client sent anything while the connection was idle.
+         */
+        private final AtomicLong completedReads = new AtomicLong(0L);
+
+        /**
+         * Whether the pending socket read was issued without a timeout because pipelined calls were running.
+         */
+        private volatile boolean readWithoutIdleTimeout = false;
+
+        /**
+         * Whether part of a frame had already been received when the pending socket read was issued.
+         */
+        private volatile boolean readingPartialFrame = false;
+
+        /**
+         * Number of requests to resume processing frames.
+         * Only the thread that increments this counter from 0 processes frames, so frames are always processed
+         * by one thread at a time, without recursion.
+         */
+        private final AtomicInteger resumeRequests = new AtomicInteger(0);
+
+        private volatile boolean readFailed = false;
 
         Handler(Object service,
-                Map<String, List<Method>> methodsByName,
+                MethodDispatchTable dispatchTable,
+                Map<Method, CallCoalescer> coalescers,
+                InFlightInvocations inFlightInvocations,
+                ResultCache resultCache,
+                Set<Handler> invalidationSubscribers,
+                Executor executor,
+                Executor bulkExecutor,
+                BufferPool bufferPool,
+                boolean compactTypeUrlsAllowed,
+                long idleTimeoutMillis,
                 AsynchronousSocketChannel clientSocket) {
             this.service = service;
-            this.methodsByName = methodsByName;
+            this.dispatchTable = dispatchTable;
+            this.coalescers = coalescers;
+            this.inFlightInvocations = inFlightInvocations;
+            this.resultCache = resultCache;
+            this.invalidationSubscribers = invalidationSubscribers;
+            this.executor = executor;
+            this.bulkExecutor = bulkExecutor;
+            this.bufferPool = bufferPool;
+            this.compactTypeUrlsAllowed = compactTypeUrlsAllowed;
+            this.idleTimeoutMillis = idleTimeoutMillis;
             this.clientSocket = clientSocket;
+            this.decoder = new FrameDecoder(bufferPool);
+            this.frameWriter = new FrameWriter(clientSocket, bufferPool);
         }
 
         void run() {
-            VarIntReader reader = new VarIntReader();
+            resume();
+        }
+
+        /**
+         * Resume processing the frames received from the client, reading from the socket when needed.
+         */
+        private void resume() {
+            if (resumeRequests.getAndIncrement() == 0) {
+                do {
+                    processFrames();
+                } while (resumeRequests.decrementAndGet() != 0);
+            }
+        }
+
+        /**
+         * Process all frames already received, until either more bytes need to be read from the socket,
+         * or an invocation whose result must be sent before the next invocation can be processed is found.
+         */
+        private void processFrames() {
+            if (readFailed) {
+                closeConnection();
+                return;
+            }
+            while (true) {
+                ByteBuffer frame;
+                try {
+                    frame = decoder.nextFrame();
+                } catch (IllegalArgumentException e) {
+                    sendError(0L, e, true);
+                    return;
+                } catch (IOException e) {
+                    // the stream cannot be decoded anymore
+                    sendError(0L, e, false);
+                    frameWriter.closeWhenDone();
+                    decoder.release();
+                    return;
+                }
+
+                if (frame == null) {
+                    readMore();
+                    return;
+                }
+
+                log.debug("Received full message with length {}, parsing it.", frame.remaining());
+
+                if (!handleFrame(frame)) {
+                    // processing resumes once the result is sent
+                    return;
+                }
+            }
+        }
+
+        private void readMore() {
+            readingPartialFrame = decoder.hasPartialFrame();
+            // set before choosing the timeout, so that a pipelined call completing meanwhile schedules the idle timeout
+            readWithoutIdleTimeout = !readingPartialFrame && idleTimeoutMillis > 0L && !cacheInvalidations;
+            long timeoutMillis = readTimeoutMillis();
+            if (timeoutMillis != 0L) {
+                readWithoutIdleTimeout = false;
+            }
             try {
-                clientSocket.read(reader.buffer(), 5, TimeUnit.SECONDS, reader, this);
+                clientSocket.read(decoder.prepareRead(), timeoutMillis, TimeUnit.MILLISECONDS, null, this);
             } catch (IllegalStateException e) {
                 log.debug("Unable to continue listening to client socket due to {}", e.toString());
-                closeQuietly(clientSocket);
+                closeConnection();
+                return;
+            }
+            if (readWithoutIdleTimeout && pipelinedCalls.get() == 0) {
+                // the last pipelined call completed after the timeout was chosen
+                scheduleIdleTimeout();
+            }
+        }
+
+        /**
+         * The connection is closed if the client does not send anything within the read timeout.
+         * <p>
+         * While pipelined calls are running, the client is not expected to send anything else, so there is no timeout
+         * (a timeout would make the channel unusable, and the responses could not be sent). Neither is there a
+         * timeout for clients that receive cache invalidations, which may rely on their cache for a long time.
+         * The idle timeout of a read issued while pipelined calls were running starts once the last of them completes
+         * (see {@link #scheduleIdleTimeout()}).
+         */
+        private long readTimeoutMillis() {
+            if (readingPartialFrame) {
+                return 10_000L;
             }
+            return pipelinedCalls.get() > 0 || cacheInvalidations ? 0L : idleTimeoutMillis;
+        }
+
+        /**
+         * Close the connection if the client sends nothing else within the idle timeout, as the pending read has none.
+         * <p>
+         * May be called more than once for the same read, as closing the connection twice is harmless.
+         */
+        private void scheduleIdleTimeout() {
+            long reads = completedReads.get();
+            TimerWheel.shared().schedule(() -> {
+                if (completedReads.get() == reads && pipelinedCalls.get() == 0 && !cacheInvalidations) {
+                    log.debug("Closing connection idle since its last pipelined call completed");
+                    closeQuietly(clientSocket);
+                }
+            }, idleTimeoutMillis, TimeUnit.MILLISECONDS);
         }
 
         @Override
-        public void completed(Integer bytesCount, VarIntReader lengthReader) {
+        public void completed(Integer bytesCount, ByteBuffer ignore) {
+            completedReads.incrementAndGet();
             if (bytesCount < 0) {
                 log.debug("Received bytesCount = {}, closing client socket", bytesCount);
-                closeQuietly(clientSocket);
+                readFailed = true;
+            } else {
+                decoder.onRead();
+            }
+            resume();
+        }
+
+        @Override
+        public void failed(Throwable exc, ByteBuffer ignore) {
+            log.debug("Handler failed: {}", exc.toString());
+            if (readingPartialFrame) {
+                // let the client know its message was not received in time, closing the connection once all
+                // pending results and the error are sent
+                invalidationSubscribers.remove(this);
+                sendError(0L, exc, false);
+                frameWriter.closeWhenDone();
+                decoder.release();
                 return;
             }
+            readFailed = true;
+            resume();
+        }
+
+        private void closeConnection() {
+            invalidationSubscribers.remove(this);
+            closeQuietly(clientSocket);
+            decoder.release();
+        }
 
-            OptionalInt length;
+        /**
+         * Handle a complete frame.
+         *
+         * @return true if the next frame can be processed immediately, false if the next frame may only be
+         * processed after the result of this frame's invocation is sent.
+         */
+        private boolean handleFrame(ByteBuffer frame) {
+            Api.MethodInvocation message;
             try {
-                length = lengthReader.read();
-                if (!length.isPresent()) {
-                    clientSocket.read(lengthReader.buffer(), 5, TimeUnit.SECONDS, lengthReader, this);
-                    return; // wait for more bytes
-                }
+                // the message does not alias the buffer, so the frame may be discarded right after parsing
+                message = Api.MethodInvocation.parseFrom(CodedInputStream.newInstance(frame));
             } catch (IOException e) {
-                sendError(e);
-                return;
+                sendError(0L, e, true);
+                return false;
             }
 
-            int messageLength = length.getAsInt();
-            log.debug("Expecting message with length {}", messageLength);
-            if (messageLength <= 0) {
-                sendError(new IllegalArgumentException("Invalid message length"));
-            } else {
-                ByteBuffer msgBuffer = ByteBuffer.allocate(messageLength);
-                clientSocket.read(msgBuffer, 10, TimeUnit.SECONDS, msgBuffer, new ServiceMethodInvoker(messageLength));
+            if (message.hasBatch()) {
+                handleBatch(message.getBatch().getInvocationsList());
+                return true;
             }
+
+            return handleInvocation(message, null);
         }
 
-        @Override
-        public void failed(Throwable exc, VarIntReader reader) {
-            log.debug("Handler failed: {}", exc.toString());
-            closeQuietly(clientSocket);
+        /**
+         * Handle the invocations of a batch. Their results are sent back together once all of them are available.
+         */
+        private void handleBatch(List<Api.MethodInvocation> invocations) {
+            int resultCount = 0;
+            for (Api.MethodInvocation invocation : invocations) {
+                if (!invocation.getOneWay()) {
+                    resultCount++;
+                }
+            }
+
+            log.debug("Received batch of {} invocations", invocations.size());
+
+            PendingBatch batch = resultCount > 0 ? new PendingBatch(resultCount) : null;
+            for (Api.MethodInvocation invocation : invocations) {
+                handleInvocation(invocation, invocation.getOneWay() ? null : batch);
+            }
         }
 
-        private void sendError(Throwable error) {
-            Api.Result response = Api.Result.newBuilder().setException(Api.Exception.newBuilder()
-                    .setType(error.getClass().getName())
-                    .setMessage(Optional.ofNullable(error.getMessage()).orElse(""))
-                    .build()).build();
+        /**
+         * Handle a single method invocation.
+         *
+         * @param batch the batch the invocation belongs to, or null if it was not sent in a batch
+         * @return true if the next frame can be processed immediately, false if the next frame may only be
+         * processed after the result of this invocation is sent.
+         */
+        private boolean handleInvocation(Api.MethodInvocation message, PendingBatch batch) {
+            // clients that send a call ID can receive results out of order, one-way invocations have
+            // no result at all, and results of batched invocations are sent together, so we can start
+            // processing the next invocation right away
+            Call call = new Call(message.getCallId(),
+                    batch != null || message.getCallId() != 0L || message.getOneWay(),
+                    message.getOneWay(),
+                    batch,
+                    null,
+                    null,
+                    0L,
+                    message.getTimeoutMillis());
+
+            if (call.pipelined) {
+                pipelinedCalls.incrementAndGet();
+            }
+
+            try {
+                message = expandTypeUrls(message);
+            } catch (InvalidProtocolBufferException | IllegalStateException e) {
+                fail(call, e);
+                return call.pipelined;
+            }
+
+            String methodName = message.getMethodId() == 0
+                    ? message.getMethodName()
+                    : "#" + message.getMethodId();
+
+            if (message.getMethodId() == 0 && MethodDispatchTable.METHOD_TABLE_METHOD_NAME.equals(methodName)) {
+                complete(call);
+                sendMethodTable(message.getArgsList(), call);
+                return call.pipelined;
+            }
+
+            log.debug("Looking up method '{}' of service {}", methodName, service);
 
-            sendResult(response);
+            Optional<MethodInvocationResolver.ResolvedInvocationInfo> resolvedInvocationInfo =
+                    dispatchTable.resolve(message);
+
+            if (resolvedInvocationInfo.isPresent()) {
+                MethodInvocationResolver.ResolvedInvocationInfo invocationInfo = resolvedInvocationInfo.get();
+                log.debug("Resolved method invocation: {}", invocationInfo);
+                Method method = invocationInfo.getMethod();
+                boolean cacheable = !call.oneWay && resultCache.appliesTo(method);
+                boolean singleFlight = !call.oneWay && inFlightInvocations.appliesTo(method);
+                InvocationKey key = cacheable || singleFlight
+                        ? new InvocationKey(method, message.getArgsList())
+                        : null;
+                // the version must be read before looking up the result, so that the result of an invocation
+                // started before an invalidation is never cached
+                long cacheVersion = cacheable ? resultCache.version() : 0L;
+                Any cachedResult = cacheable ? resultCache.get(key) : null;
+                if (cachedResult != null) {
+                    log.debug("Sending cached result of {}", method);
+                    complete(call);
+                    send(call, Api.Result.newBuilder()
+                            .setSuccessResult(cachedResult)
+                            .setCallId(call.id)
+                            .build());
+                } else if (singleFlight) {
+                    joinFlight(invocationInfo, key, cacheable, cacheVersion, call);
+                } else {
+                    execute(invocationInfo, cacheable ? call.withCacheKey(key, cacheVersion) : call);
+                }
+            } else {
+                log.debug("Method not found");
+                fail(call, new NoSuchMethodException(methodName));
+            }
+
+            return call.pipelined;
         }
 
-        private void sendResult(Api.Result result) {
-            int resultLength = result.getSerializedSize();
-            ByteArrayOutputStream out = new ByteArrayOutputStream(resultLength + 4);
+        private void execute(MethodInvocationResolver.ResolvedInvocationInfo invocationInfo, Call call) {
             try {
-                log.debug("Sending result to client: {}", result);
-                result.writeDelimitedTo(out);
-                clientSocket.write(ByteBuffer.wrap(out.toByteArray()));
-            } catch (IOException ignore) {
-                // never happens, write is async
-            } finally {
-                // start waiting for new invocations again
-                run();
+                // decoding happens in the I/O thread, but the service method runs in the executor
+                executor.execute(() -> invoke(invocationInfo, call));
+            } catch (RejectedExecutionException e) {
+                log.warn("Executor rejected method invocation: {}", e.toString());
+                fail(call, e);
             }
         }
 
-        private class ServiceMethodInvoker implements CompletionHandler<Integer, ByteBuffer> {
+        /**
+         * Send the result of the flight of identical invocations the given call belongs to, invoking the method
+         * only if there is no such flight yet.
+         */
+        private void joinFlight(MethodInvocationResolver.ResolvedInvocationInfo invocationInfo,
+                                InvocationKey key,
+                                boolean cacheable,
+                                long cacheVersion,
+                                Call call) {
+            InFlightInvocations.Flight flight = inFlightInvocations.join(key);
+            flight.result().thenAccept(result -> {
+                complete(call);
+                send(call, result.toBuilder().setCallId(call.id).build());
+            });
+            if (flight.isLeader()) {
+                // the leader call only completes the flight, the result is sent to each caller above.
+                // It has no timeout, as callers that join the flight later may wait for longer
+                execute(invocationInfo, new Call(call.id, false, false, null, flight, cacheable ? key : null,
+                        cacheVersion, 0L));
+            } else {
+                log.debug("Joined in-flight invocation of {}", invocationInfo.getMethod());
+            }
+        }
 
-            private final int messageLength;
-            private final AtomicInteger bytesReceived = new AtomicInteger(0);
+        /**
+         * Record the type URLs registered by the client, and expand the type IDs of the arguments of the given
+         * message into full type URLs.
+         */
+        private Api.MethodInvocation expandTypeUrls(Api.MethodInvocation message)
+                throws InvalidProtocolBufferException {
+            if (message.getTypeUrlsCount() > 0) {
+                incomingTypes.register(message.getTypeUrlsMap());
+            }
+            Api.MethodInvocation.Builder builder = null;
+            for (int i = 0; i < message.getArgsCount(); i++) {
+                Any arg = message.getArgs(i);
+                Any expanded = incomingTypes.expand(arg);
+                if (expanded != arg) {
+                    if (builder == null) {
+                        builder = message.toBuilder();
+                    }
+                    builder.setArgs(i, expanded);
+                }
+            }
+            return builder == null ? message : builder.build();
+        }
 
-            ServiceMethodInvoker(int messageLength) {
-                this.messageLength = messageLength;
+        private void sendMethodTable(List<Any> args, Call call) {
+            if (call.batch != null) {
+                // the handshake changes how the results that follow it are encoded, so it must be sent on its own
+                sendError(call, new IllegalArgumentException(
+                        MethodDispatchTable.METHOD_TABLE_METHOD_NAME + " cannot be invoked in a batch"));
+                return;
             }
 
-            @Override
-            public void completed(Integer bytesCount, ByteBuffer msgBuffer) {
-                if (bytesCount < 0) {
-                    log.debug("Received bytesCount = {}, closing client socket", bytesCount);
-                    closeQuietly(clientSocket);
+            Api.Handshake handshake = Api.Handshake.getDefaultInstance();
+            if (args.size() == 1 && args.get(0).is(Api.Handshake.class)) {
+                try {
+                    handshake = args.get(0).unpack(Api.Handshake.class);
+                } catch (InvalidProtocolBufferException e) {
+                    sendError(call, e);
                     return;
                 }
+            } else if (!args.isEmpty()) {
+                sendError(call, new NoSuchMethodException(MethodDispatchTable.METHOD_TABLE_METHOD_NAME));
+                return;
+            }
 
-                int received = bytesReceived.addAndGet(bytesCount);
+            boolean compact = compactTypeUrlsAllowed && handshake.getCompactTypeUrls();
 
-                if (received < messageLength) {
-                    log.debug("Received {} bytes so far, waiting for a total of {}.", received, messageLength);
-                    clientSocket.read(msgBuffer, 5, TimeUnit.SECONDS, msgBuffer, this);
+            log.debug("Sending method table to client, compactTypeUrls={}, cacheInvalidations={}",
+                    compact, handshake.getCacheInvalidations());
+
+            if (handshake.getCacheInvalidations()) {
+                cacheInvalidations = true;
+                invalidationSubscribers.add(this);
+            }
+
+            send(call, Api.Result.newBuilder()
+                    .setSuccessResult(Any.pack(dispatchTable.getMethodTable().toBuilder()
+                            .setCompactTypeUrls(compact)
+                            .setBatches(true)
+                            .setCacheInvalidations(handshake.getCacheInvalidations())
+                            // connections of clients that receive cache invalidations are never closed for being idle
+                            .setIdleTimeoutMillis(handshake.getCacheInvalidations() ? 0L : idleTimeoutMillis)
+                            .build()))
+                    .setCallId(call.id)
+                    .build());
+
+            // only results sent after the method table use compact type URLs
+            if (compact) {
+                compactTypeUrls = true;
+            }
+        }
+
+        private void invoke(MethodInvocationResolver.ResolvedInvocationInfo invocationInfo, Call call) {
+            if (call.isExpired()) {
+                // the client is not waiting for the result anymore
+                log.debug("Not invoking method {}, the call timed out", invocationInfo.getMethod().getName());
+                fail(call, new DeadlineExceededException("Call timed out before method " +
+                        invocationInfo.getMethod().getName() + " was invoked"));
+                return;
+            }
+
+            CallCoalescer coalescer = coalescers.get(invocationInfo.getMethod());
+            if (coalescer != null) {
+                // the result is sent once the bulk method returns
+                coalescer.submit(invocationInfo.getParameters()[0], bulkExecutor).whenComplete((value, error) ->
+                        sendValue(invocationInfo, value, error, call));
+                return;
+            }
+
+            Object value;
+            try {
+                value = invocationInfo.invokeOn(service);
+            } catch (InvocationTargetException e) {
+                fail(call, e.getCause());
+                return;
+            } catch (Exception e) {
+                fail(call, e);
+                return;
+            }
+
+            if (invocationInfo.isAsync()) {
+                if (value == null) {
+                    fail(call, new NullPointerException("Remote service cannot return null future"));
                     return;
                 }
+                // no thread waits for the result, which is sent by the thread that completes the future
+                ((CompletionStage<?>) value).whenComplete((asyncValue, error) ->
+                        sendValue(invocationInfo, asyncValue, unwrap(error), call));
+            } else {
+                sendValue(invocationInfo, value, null, call);
+            }
+        }
 
-                log.debug("Received full message with length {}, parsing it.", messageLength);
-                msgBuffer.flip();
-                Api.MethodInvocation message;
-                try {
-                    message = Api.MethodInvocation.parseFrom(CodedInputStream.newInstance(msgBuffer));
-                } catch (IOException e) {
-                    // should not happen, the msgBuffer is read from the socket already
-                    sendError(e);
-                    return;
+        private void sendValue(MethodInvocationResolver.ResolvedInvocationInfo invocationInfo,
+                               Object value,
+                               Throwable error,
+                               Call call) {
+            if (error != null) {
+                fail(call, error);
+                return;
+            }
+            if (call.oneWay) {
+                complete(call);
+                log.debug("Successfully processed one-way method invocation");
+                return;
+            }
+            Api.Result result;
+            try {
+                Any successResult = invocationInfo.packResult(value);
+                result = Api.Result.newBuilder().setSuccessResult(successResult).setCallId(call.id).build();
+                log.debug("Successfully processed method invocation");
+            } catch (Exception e) {
+                fail(call, e);
+                return;
+            }
+            complete(call);
+            send(call, result);
+        }
+
+        /**
+         * Complete a call that failed, sending the error to the client unless the call is one-way.
+         */
+        private void fail(Call call, Throwable error) {
+            complete(call);
+            if (call.oneWay) {
+                log.warn("One-way method invocation failed: {}", error.toString());
+            } else {
+                sendError(call, error);
+            }
+        }
+
+        private Throwable unwrap(Throwable error) {
+            if ((error instanceof CompletionException || error instanceof ExecutionException) &&
+                    error.getCause() != null) {
+                return error.getCause();
+            }
+            return error;
+        }
+
+        private void complete(Call call) {
+            if (call.pipelined) {
+                log.debug("Completed pipelined call with ID {}", call.id);
+                if (pipelinedCalls.decrementAndGet() == 0 && readWithoutIdleTimeout) {
+                    scheduleIdleTimeout();
                 }
+            }
+        }
 
-                String methodName = message.getMethodName();
-                List<Any> args = message.getArgsList();
+        private void sendError(Call call, Throwable error) {
+            send(call, errorResult(call.id, error));
+        }
+
+        private void sendError(long callId, Throwable error, boolean resumeReading) {
+            sendResult(errorResult(callId, error), resumeReading);
+        }
 
-                log.debug("Looking up method '{}' of service {}", methodName, service);
+        private static Api.Result errorResult(long callId, Throwable error) {
+            return Api.Result.newBuilder().setException(Api.Exception.newBuilder()
+                    .setType(error.getClass().getName())
+                    .setMessage(Optional.ofNullable(error.getMessage()).orElse(""))
+                    .build())
+                    .setCallId(callId)
+                    .build();
+        }
 
-                Optional<MethodInvocationResolver.ResolvedInvocationInfo> resolvedInvocationInfo = methodsByName
-                        .getOrDefault(methodName, emptyList()).stream()
-                        .map(m -> MethodInvocationResolver.resolveMethodInvocation(m, args))
-                        .filter(Optional::isPresent)
-                        .map(Optional::get)
-                        .findAny();
+        /**
+         * Send the result of a call, either on its own or as part of the results of its batch.
+         */
+        private void send(Call call, Api.Result result) {
+            if (call.cacheKey != null && result.hasSuccessResult()) {
+                resultCache.put(call.cacheKey, result.getSuccessResult(), call.cacheVersion);
+            }
+            if (call.flight != null) {
+                call.flight.complete(result);
+            } else if (call.batch != null) {
+                call.batch.add(result);
+            } else {
+                sendResult(result, !call.pipelined);
+            }
+        }
 
-                if (resolvedInvocationInfo.isPresent()) {
-                    log.debug("Resolved method invocation: {}", resolvedInvocationInfo.get());
-                    try {
-                        Any result = resolvedInvocationInfo.get().callWith(service);
-                        sendResult(Api.Result.newBuilder().setSuccessResult(result).build());
-                        log.debug("Successfully processed method invocation");
-                    } catch (InvocationTargetException e) {
-                        sendError(e.getCause());
-                    } catch (Exception e) {
-                        sendError(e);
+        private void sendResult(Api.Result result, boolean resumeReading) {
+            log.debug("Sending result to client: {}", result);
+            try {
+                synchronized (outgoingTypes) {
+                    if (compactTypeUrls) {
+                        result = compactTypeUrls(result);
                     }
-                } else {
-                    log.debug("Method not found");
-                    sendError(new NoSuchMethodException(methodName));
+                    writeResult(result);
+                }
+            } finally {
+                if (resumeReading) {
+                    // start processing new invocations again
+                    resume();
                 }
             }
+        }
 
-            @Override
-            public void failed(Throwable exc, ByteBuffer attachment) {
-                sendError(exc);
+        private Api.Result compactTypeUrls(Api.Result result) {
+            if (result.hasBatch()) {
+                // the client decodes the results of a batch in order, so registrations precede their use
+                Api.ResultBatch.Builder batch = Api.ResultBatch.newBuilder();
+                for (Api.Result batchResult : result.getBatch().getResultsList()) {
+                    batch.addResults(compactTypeUrls(batchResult));
+                }
+                return result.toBuilder().setBatch(batch).build();
             }
+            if (!result.hasSuccessResult()) {
+                return result;
+            }
+            Map<Integer, String> registrations = new HashMap<>(2);
+            Any compacted = outgoingTypes.compact(result.getSuccessResult(), registrations);
+            return result.toBuilder()
+                    .setSuccessResult(compacted)
+                    .putAllTypeUrls(registrations)
+                    .build();
+        }
+
+        private void writeResult(Api.Result result) {
+            int resultLength = result.getSerializedSize();
+            ByteBuffer buffer = bufferPool.lease(CodedOutputStream.computeUInt32SizeNoTag(resultLength) + resultLength);
+            try {
+                CodedOutputStream out = CodedOutputStream.newInstance(buffer);
+                out.writeUInt32NoTag(resultLength);
+                result.writeTo(out);
+                out.flush();
+                buffer.flip();
+                frameWriter.write(buffer);
+            } catch (IOException e) {
+                // never happens, the buffer is large enough for the result
+                log.warn("Unable to serialize result", e);
+                bufferPool.release(buffer);
+            }
+        }
+
+        /**
+         * A method invocation being processed.
+         */
+        private static final class Call {
+            final long id;
+            final boolean pipelined;
+            final boolean oneWay;
+
+            /**
+             * The batch whose results this call's result must be sent with, or null if it is sent on its own.
+             */
+            final PendingBatch batch;
+
+            /**
+             * The flight this call is the leader of, which receives its result instead of the client, or null.
+             */
+            final InFlightInvocations.Flight flight;
+
+            /**
+             * The key the result of this call must be cached with, or null if it must not be cached.
+             */
+            final InvocationKey cacheKey;
+
+            /**
+             * The version of the result cache when the call started. Only meaningful if the call has a cache key.
+             */
+            final long cacheVersion;
+
+            /**
+             * The timeout of the call, or 0 if it does not time out.
+             */
+            final long timeoutMillis;
+
+            /**
+             * Time, as given by {@link System#nanoTime()}, after which the method must not be invoked anymore.
+             * Only meaningful if the call has a timeout.
+             */
+            final long deadlineNanos;
 
+            Call(long id, boolean pipelined, boolean oneWay, PendingBatch batch, InFlightInvocations.Flight flight,
+                 InvocationKey cacheKey, long cacheVersion, long timeoutMillis) {
+                this(id, pipelined, oneWay, batch, flight, cacheKey, cacheVersion, timeoutMillis,
+                        System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis));
+            }
+
+            private Call(long id, boolean pipelined, boolean oneWay, PendingBatch batch,
+                         InFlightInvocations.Flight flight, InvocationKey cacheKey, long cacheVersion,
+                         long timeoutMillis, long deadlineNanos) {
+                this.id = id;
+                this.pipelined = pipelined;
+                this.oneWay = oneWay;
+                this.batch = batch;
+                this.flight = flight;
+                this.cacheKey = cacheKey;
+                this.cacheVersion = cacheVersion;
+                this.timeoutMillis = timeoutMillis;
+                this.deadlineNanos = deadlineNanos;
+            }
+
+            Call withCacheKey(InvocationKey cacheKey, long cacheVersion) {
+                return new Call(id, pipelined, oneWay, batch, flight, cacheKey, cacheVersion, timeoutMillis,
+                        deadlineNanos);
+            }
+
+            boolean isExpired() {
+                return timeoutMillis > 0L && System.nanoTime() - deadlineNanos >= 0L;
+            }
+        }
+
+        /**
+         * Collects the results of the invocations of a batch, and sends them once all of them are available.
+         */
+        private final class PendingBatch {
+            private final List<Api.Result> results;
+            private final int size;
+
+            PendingBatch(int size) {
+                this.results = new ArrayList<>(size);
+                this.size = size;
+            }
+
+            void add(Api.Result result) {
+                synchronized (this) {
+                    results.add(result);
+                    if (results.size() < size) {
+                        return;
+                    }
+                }
+                log.debug("Sending results of batch of {} invocations", size);
+                sendResult(Api.Result.newBuilder()
+                        .setBatch(Api.ResultBatch.newBuilder().addAllResults(results))
+                        .build(), false);
+            }
         }
 
     }
@@ -0,0 +1,208 @@
+package com.athaydes.protobuf.tcp.internal;
+
+import com.athaydes.protobuf.tcp.api.Cacheable;
+import com.athaydes.protobuf.tcp.api.ResultCacheStatistics;
+import com.google.protobuf.Any;
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cache of the results of the {@link Cacheable} methods of a service, shared by all connections of a server.
+ * <p>
+ * Results are kept already packed into {@link Any} messages, so cache hits skip both the invocation of the method and
+ * the serialization of its result. Each result is kept for the time to live of its method, and the least recently
+ * used results are evicted when the estimated size of the cache exceeds its maximum size.
+ * <p>
+ * Each invalidation increments the version of the cache. Results of invocations started before an invalidation are
+ * not cached, as they may have been computed before the change that caused it.
+ */
+final class ResultCache {
+
+    /**
+     * Estimated memory used by each entry in addition to the serialized arguments and result.
+     */
+    static final int ENTRY_OVERHEAD_BYTES = 128;
+
+    private final Map<Method, Long> ttlNanosByMethod;
+    private final long maxBytes;
+
+    /**
+     * Entries in access order, from least to most recently used. Guarded by the lock of this object.
+     */
+    private final LinkedHashMap<InvocationKey, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Estimated size of the entries. Guarded by the lock of this object.
+     */
+    private long sizeBytes = 0L;
+
+    /**
+     * Number of invalidations so far. Guarded by the lock of this object.
+     */
+    private long version = 0L;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    private ResultCache(Map<Method, Long> ttlNanosByMethod, long maxBytes) {
+        this.ttlNanosByMethod = ttlNanosByMethod;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @param service  the service
+     * @param methods  methods of the service that can be invoked remotely
+     * @param maxBytes maximum size of the cache
+     * @return the cache of the results of the methods annotated with {@link Cacheable}
+     * @throws IllegalArgumentException if the time to live of a cacheable method is not positive
+     */
+    static ResultCache forMethods(Object service, Collection<Method> methods, long maxBytes) {
+        Map<Method, Long> ttlNanosByMethod = new HashMap<>(2);
+        for (Method method : methods) {
+            Cacheable cacheable = MethodResolver.annotationOf(service, method, Cacheable.class);
+            if (cacheable == null) {
+                continue;
+            }
+            if (cacheable.ttlMillis() <= 0) {
+                throw new IllegalArgumentException("ttlMillis must be positive: " + method);
+            }
+            if (method.getReturnType().equals(void.class) ||
+                    MethodInvocationResolver.isAsyncType(method.getReturnType()) &&
+                            MethodInvocationResolver.resultTypeOf(method).equals(Void.class)) {
+                throw new IllegalArgumentException("Methods without a result cannot be cacheable: " + method);
+            }
+            ttlNanosByMethod.put(method, TimeUnit.MILLISECONDS.toNanos(cacheable.ttlMillis()));
+        }
+        return new ResultCache(ttlNanosByMethod.isEmpty() ?
+                Collections.emptyMap() :
+                Collections.unmodifiableMap(ttlNanosByMethod), maxBytes);
+    }
+
+    /**
+     * @return whether any method has results that may be cached.
+     */
+    boolean isEnabled() {
+        return maxBytes > 0 && !ttlNanosByMethod.isEmpty();
+    }
+
+    /**
+     * @param method a service method
+     * @return whether results of the method may be cached
+     */
+    boolean appliesTo(Method method) {
+        return maxBytes > 0 && ttlNanosByMethod.containsKey(method);
+    }
+
+    /**
+     * @param key of the invocation
+     * @return the cached result, or null if there is none
+     */
+    Any get(InvocationKey key) {
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                if (entry.expiresAtNanos - System.nanoTime() > 0) {
+                    hits.increment();
+                    return entry.result;
+                }
+                entries.remove(key);
+                sizeBytes -= entry.sizeBytes;
+                expirations.increment();
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * @return the current version of this cache, to be given to {@link #put(InvocationKey, Any, long)}.
+     */
+    synchronized long version() {
+        return version;
+    }
+
+    /**
+     * Cache the result of an invocation, evicting the least recently used results if the cache becomes full,
+     * unless the cache has been invalidated since the invocation started.
+     *
+     * @param key     of the invocation of a cacheable method
+     * @param result  of the invocation
+     * @param version of the cache when the invocation started
+     */
+    void put(InvocationKey key, Any result, long version) {
+        long entrySize = ENTRY_OVERHEAD_BYTES + key.argsSize() + result.getSerializedSize();
+        if (entrySize > maxBytes) {
+            return;
+        }
+        Entry entry = new Entry(result, System.nanoTime() + ttlNanosByMethod.get(key.getMethod()), entrySize);
+        synchronized (this) {
+            if (this.version != version) {
+                return;
+            }
+            Entry previous = entries.put(key, entry);
+            if (previous != null) {
+                sizeBytes -= previous.sizeBytes;
+            }
+            sizeBytes += entrySize;
+            Iterator<Entry> iterator = entries.values().iterator();
+            while (sizeBytes > maxBytes) {
+                Entry eldest = iterator.next();
+                iterator.remove();
+                sizeBytes -= eldest.sizeBytes;
+                evictions.increment();
+            }
+        }
+    }
+
+    /**
+     * Remove the cached results of the methods with the given names.
+     *
+     * @param methodNames names of the methods, or empty to remove all results
+     */
+    void invalidate(Collection<String> methodNames) {
+        synchronized (this) {
+            version++;
+            Iterator<Map.Entry<InvocationKey, Entry>> iterator = entries.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<InvocationKey, Entry> entry = iterator.next();
+                if (methodNames.isEmpty() || methodNames.contains(entry.getKey().getMethod().getName())) {
+                    iterator.remove();
+                    sizeBytes -= entry.getValue().sizeBytes;
+                }
+            }
+        }
+    }
+
+    ResultCacheStatistics statistics() {
+        int entryCount;
+        long size;
+        synchronized (this) {
+            entryCount = entries.size();
+            size = sizeBytes;
+        }
+        return new ResultCacheStatistics(hits.sum(), misses.sum(), evictions.sum(), expirations.sum(),
+                entryCount, size, maxBytes);
+    }
+
+    private static final class Entry {
+        final Any result;
+        final long expiresAtNanos;
+        final long sizeBytes;
+
+        Entry(Any result, long expiresAtNanos, long sizeBytes) {
+            this.result = result;
+            this.expiresAtNanos = expiresAtNanos;
+            this.sizeBytes = sizeBytes;
+        }
+    }
+
+}
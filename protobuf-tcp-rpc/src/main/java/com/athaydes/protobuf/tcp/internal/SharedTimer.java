@@ -0,0 +1,36 @@
+package com.athaydes.protobuf.tcp.internal;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timer shared by all clients and servers in the JVM, used to run short tasks after a delay.
+ * <p>
+ * Tasks run in a single daemon thread, which is only started the first time a task is scheduled, so they must
+ * never block. Longer work must be handed over to an executor.
+ */
+final class SharedTimer {
+
+    private SharedTimer() {
+    }
+
+    /**
+     * Run the given task after the given delay.
+     *
+     * @param task  to run
+     * @param delay time to wait before running the task
+     * @param unit  unit of the delay
+     * @return a future that can be used to cancel the task
+     */
+    static ScheduledFuture<?> schedule(Runnable task, long delay, TimeUnit unit) {
+        return Holder.SCHEDULER.schedule(task, delay, unit);
+    }
+
+    private static final class Holder {
+        static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(
+                Utils.daemonThreadFactory("protobuf-timer-"));
+    }
+
+}
@@ -0,0 +1,209 @@
+package com.athaydes.protobuf.tcp.internal;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hashed timer wheel used to run the timeouts of client calls and connections, and of idle server connections.
+ * <p>
+ * Timeouts are kept in a circular array of buckets, each covering one tick of time. A single thread advances the wheel
+ * once per tick and runs the timeouts of the current bucket that are due, so scheduling and cancelling a timeout are
+ * O(1), and no thread or scheduled task is created per timeout. Timeouts run up to one tick late, but never early.
+ * <p>
+ * As with {@link SharedTimer}, tasks run in the timer thread, so they must never block. Unlike {@link SharedTimer},
+ * whose resolution is suitable for sub-millisecond batching windows, the wheel is meant for the many timeouts that are
+ * scheduled, and almost always cancelled, by calls in flight.
+ */
+final class TimerWheel {
+
+    private static final Logger log = LoggerFactory.getLogger(TimerWheel.class);
+
+    private final long tickNanos;
+    private final List<List<Timeout>> buckets;
+    private final int mask;
+    private final Queue<Timeout> newTimeouts = new ConcurrentLinkedQueue<>();
+    private final long startNanos = System.nanoTime();
+    private final Thread worker;
+    private volatile boolean stopped = false;
+
+    /**
+     * Number of ticks since the wheel started. Only used by the worker thread.
+     */
+    private long tick = 0L;
+
+    /**
+     * @param tickDuration  duration of each tick
+     * @param unit          unit of the tick duration
+     * @param ticksPerWheel number of buckets of the wheel, rounded up to a power of two
+     * @param threadFactory factory of the worker thread, which is started immediately
+     */
+    TimerWheel(long tickDuration, TimeUnit unit, int ticksPerWheel, ThreadFactory threadFactory) {
+        if (tickDuration <= 0 || ticksPerWheel <= 0) {
+            throw new IllegalArgumentException("tickDuration and ticksPerWheel must be positive");
+        }
+        int size = Integer.highestOneBit(ticksPerWheel - 1) << 1;
+        if (size == 0) {
+            size = 1;
+        }
+        this.tickNanos = unit.toNanos(tickDuration);
+        this.mask = size - 1;
+        this.buckets = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            buckets.add(new ArrayList<>());
+        }
+        this.worker = threadFactory.newThread(this::run);
+        worker.start();
+    }
+
+    /**
+     * @return the wheel shared by all clients and servers in the JVM, which ticks every 10 milliseconds.
+     */
+    static TimerWheel shared() {
+        return Holder.SHARED;
+    }
+
+    /**
+     * Run the given task after the given delay, unless the returned timeout is cancelled first.
+     *
+     * @param task  to run, which must not block
+     * @param delay time to wait before running the task
+     * @param unit  unit of the delay
+     * @return the timeout, which can be cancelled
+     */
+    Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        Timeout timeout = new Timeout(task, System.nanoTime() + unit.toNanos(delay));
+        newTimeouts.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * Stop the worker thread. Pending timeouts never run.
+     */
+    void stop() {
+        stopped = true;
+        worker.interrupt();
+    }
+
+    private void run() {
+        while (!stopped) {
+            if (!waitForNextTick()) {
+                return;
+            }
+            transferNewTimeouts();
+            expireTimeouts(buckets.get((int) (tick & mask)));
+            tick++;
+        }
+    }
+
+    /**
+     * Wait until the current tick is over.
+     *
+     * @return false if the worker was stopped while waiting.
+     */
+    private boolean waitForNextTick() {
+        long tickEndNanos = startNanos + (tick + 1) * tickNanos;
+        while (true) {
+            long sleepNanos = tickEndNanos - System.nanoTime();
+            if (sleepNanos <= 0L) {
+                return true;
+            }
+            try {
+                TimeUnit.NANOSECONDS.sleep(sleepNanos);
+            } catch (InterruptedException e) {
+                if (stopped) {
+                    return false;
+                }
+            }
+        }
+    }
+
+    private void transferNewTimeouts() {
+        Timeout timeout;
+        while ((timeout = newTimeouts.poll()) != null) {
+            if (timeout.isCancelled()) {
+                continue;
+            }
+            // timeouts that are already due go into the current bucket
+            long dueTick = Math.max((timeout.deadlineNanos - startNanos) / tickNanos, tick);
+            timeout.remainingRounds = (dueTick - tick) / buckets.size();
+            buckets.get((int) (dueTick & mask)).add(timeout);
+        }
+    }
+
+    private static void expireTimeouts(List<Timeout> bucket) {
+        Iterator<Timeout> iterator = bucket.iterator();
+        while (iterator.hasNext()) {
+            Timeout timeout = iterator.next();
+            if (timeout.isCancelled()) {
+                iterator.remove();
+            } else if (timeout.remainingRounds <= 0L) {
+                iterator.remove();
+                timeout.expire();
+            } else {
+                timeout.remainingRounds--;
+            }
+        }
+    }
+
+    /**
+     * A task scheduled to run on a {@link TimerWheel}.
+     */
+    static final class Timeout {
+
+        private final Runnable task;
+        private final long deadlineNanos;
+        private final AtomicBoolean done = new AtomicBoolean(false);
+        private volatile boolean cancelled = false;
+
+        /**
+         * Number of full rotations of the wheel left before the timeout is due. Only used by the worker thread.
+         */
+        long remainingRounds;
+
+        private Timeout(Runnable task, long deadlineNanos) {
+            this.task = task;
+            this.deadlineNanos = deadlineNanos;
+        }
+
+        /**
+         * Cancel this timeout.
+         *
+         * @return true if the timeout was cancelled, false if it had already run or been cancelled.
+         */
+        boolean cancel() {
+            if (done.compareAndSet(false, true)) {
+                cancelled = true;
+                return true;
+            }
+            return false;
+        }
+
+        boolean isCancelled() {
+            return cancelled;
+        }
+
+        private void expire() {
+            if (done.compareAndSet(false, true)) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    log.warn("Timeout task failed", e);
+                }
+            }
+        }
+    }
+
+    private static final class Holder {
+        static final TimerWheel SHARED = new TimerWheel(10L, TimeUnit.MILLISECONDS, 512,
+                Utils.daemonThreadFactory("protobuf-timer-wheel-"));
+    }
+
+}
@@ -0,0 +1,94 @@
+package com.athaydes.protobuf.tcp.internal;
+
+import com.google.protobuf.Any;
+import com.google.protobuf.InvalidProtocolBufferException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Dictionary of the type URLs of the {@link Any} messages sent in one direction of a connection.
+ * <p>
+ * Instead of sending the full type URL of an {@link Any} message (e.g.
+ * {@code type.googleapis.com/google.protobuf.Int32Value}), the sender may replace it with a short ID of the form
+ * {@code #<id>}. The first time a type is sent, the sender registers its ID by including the mapping from the ID
+ * to the full type URL in the message (see the {@code typeUrls} field of {@code MethodInvocation} and
+ * {@code Result}). The receiver records registrations and expands IDs back into full type URLs, so the
+ * {@link Any} messages it hands over to the application are exactly the ones the sender started with.
+ * <p>
+ * Registrations must be received before the IDs are used, so the sender must encode messages in the same order as
+ * they are written to the connection, and the receiver must decode them in the order they are read.
+ * <p>
+ * Each side of a connection uses one dictionary for the messages it sends, and another for the messages it
+ * receives. This class is not thread-safe.
+ */
+final class TypeUrlDictionary {
+
+    static final String ID_PREFIX = "#";
+
+    /**
+     * Maximum number of types registered per dictionary, which bounds the memory used by each connection.
+     * Types seen after the dictionary is full are sent with their full type URLs.
+     */
+    static final int MAX_TYPES = 1024;
+
+    private final Map<String, Integer> idsByTypeUrl = new HashMap<>();
+    private final Map<Integer, String> typeUrlsById = new HashMap<>();
+
+    /**
+     * Replace the type URL of the given message with its ID, registering the type if necessary.
+     *
+     * @param any           message to compact
+     * @param registrations map to which new registrations are added. They must be sent together with the message.
+     * @return the compacted message
+     */
+    Any compact(Any any, Map<Integer, String> registrations) {
+        String typeUrl = any.getTypeUrl();
+        Integer id = idsByTypeUrl.get(typeUrl);
+        if (id == null) {
+            if (idsByTypeUrl.size() >= MAX_TYPES || typeUrl.startsWith(ID_PREFIX)) {
+                return any;
+            }
+            id = idsByTypeUrl.size() + 1;
+            idsByTypeUrl.put(typeUrl, id);
+            registrations.put(id, typeUrl);
+        }
+        return any.toBuilder().setTypeUrl(ID_PREFIX + id).build();
+    }
+
+    /**
+     * Record the registrations received from the other side of the connection.
+     *
+     * @param registrations map from type ID to full type URL
+     */
+    void register(Map<Integer, String> registrations) {
+        if (typeUrlsById.size() + registrations.size() > MAX_TYPES) {
+            throw new IllegalStateException("Too many type URL registrations");
+        }
+        typeUrlsById.putAll(registrations);
+    }
+
+    /**
+     * Expand the type ID of the given message into its full type URL.
+     *
+     * @param any message to expand
+     * @return the expanded message, or the given message if it has a full type URL already
+     * @throws InvalidProtocolBufferException if the type ID of the message has not been registered
+     */
+    Any expand(Any any) throws InvalidProtocolBufferException {
+        String typeUrl = any.getTypeUrl();
+        if (!typeUrl.startsWith(ID_PREFIX)) {
+            return any;
+        }
+        String fullTypeUrl = null;
+        try {
+            fullTypeUrl = typeUrlsById.get(Integer.valueOf(typeUrl.substring(ID_PREFIX.length())));
+        } catch (NumberFormatException e) {
+            // invalid ID
+        }
+        if (fullTypeUrl == null) {
+            throw new InvalidProtocolBufferException("Unknown type ID: " + typeUrl);
+        }
+        return any.toBuilder().setTypeUrl(fullTypeUrl).build();
+    }
+
+}
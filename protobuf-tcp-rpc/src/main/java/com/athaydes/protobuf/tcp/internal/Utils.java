@@ -6,6 +6,8 @@ import java.io.IOException;
 import java.util.Map;
 import java.util.Optional;
 import java.util.OptionalInt;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A few stateless, helper functions.
@@ -34,6 +36,22 @@ public final class Utils implements ServicePropertyReader {
         }
     }
 
+    /**
+     * Create a {@link ThreadFactory} that creates daemon threads named with the given prefix
+     * followed by a sequential number.
+     *
+     * @param namePrefix prefix of the thread names
+     * @return thread factory
+     */
+    public static ThreadFactory daemonThreadFactory(String namePrefix) {
+        AtomicInteger threadCount = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, namePrefix + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
     public static Class[] appendIfNotPresent(Class[] classes, Class type) {
         for (Class item : classes) {
             if (item.equals(type)) {
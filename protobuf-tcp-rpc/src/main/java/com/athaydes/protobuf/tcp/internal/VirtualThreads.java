@@ -0,0 +1,58 @@
+package com.athaydes.protobuf.tcp.internal;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Access to virtual threads, which are only available on JDK 21+.
+ * <p>
+ * This module is compiled against Java 8, so virtual threads are looked up at runtime.
+ */
+final class VirtualThreads {
+
+    /**
+     * Handle to {@code Executors.newVirtualThreadPerTaskExecutor()}, or null if not available.
+     */
+    private static final MethodHandle newVirtualThreadPerTaskExecutor;
+
+    static {
+        MethodHandle handle;
+        try {
+            handle = MethodHandles.publicLookup().findStatic(Executors.class,
+                    "newVirtualThreadPerTaskExecutor", MethodType.methodType(ExecutorService.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            handle = null;
+        }
+        newVirtualThreadPerTaskExecutor = handle;
+    }
+
+    private VirtualThreads() {
+        // hide constructor
+    }
+
+    /**
+     * Create an executor that starts a new virtual thread for each task.
+     *
+     * @return the executor, or empty if the current JVM does not support virtual threads
+     */
+    static Optional<ExecutorService> newVirtualThreadPerTaskExecutor() {
+        if (newVirtualThreadPerTaskExecutor == null) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.of((ExecutorService) newVirtualThreadPerTaskExecutor.invokeExact());
+        } catch (UnsupportedOperationException e) {
+            // JDK 19 and 20 only support virtual threads if preview features are enabled
+            return Optional.empty();
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+}
@@ -0,0 +1,128 @@
+package com.athaydes.protobuf.tcp.api;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class BackoffRetryPolicyTest {
+
+    private static final Method method;
+    private static final IOException error = new EOFException("connection closed");
+
+    static {
+        try {
+            method = Object.class.getMethod("toString");
+        } catch (NoSuchMethodException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    @Test
+    public void delaysGrowExponentiallyUpToTheMaximum() {
+        RetryPolicy policy = BackoffRetryPolicy.newBuilder()
+                .maxAttempts(10)
+                .initialBackoffMillis(10L)
+                .maxBackoffMillis(50L)
+                .jitter(0.0)
+                .build();
+
+        assertThat(policy.retryDelayMillis(method, 1, error), equalTo(10L));
+        assertThat(policy.retryDelayMillis(method, 2, error), equalTo(20L));
+        assertThat(policy.retryDelayMillis(method, 3, error), equalTo(40L));
+        assertThat(policy.retryDelayMillis(method, 4, error), equalTo(50L));
+        assertThat(policy.retryDelayMillis(method, 5, error), equalTo(50L));
+    }
+
+    @Test
+    public void jitterReducesDelaysByUpToTheGivenFraction() {
+        RetryPolicy policy = BackoffRetryPolicy.newBuilder()
+                .initialBackoffMillis(100L)
+                .jitter(0.5)
+                .maxRetryBurst(100)
+                .build();
+
+        for (int i = 0; i < 100; i++) {
+            long delay = policy.retryDelayMillis(method, 1, error);
+            assertTrue("Unexpected delay: " + delay, delay >= 50L && delay <= 100L);
+        }
+    }
+
+    @Test
+    public void callsAreNotRetriedAfterTheMaximumNumberOfAttempts() {
+        RetryPolicy policy = BackoffRetryPolicy.newBuilder().maxAttempts(3).build();
+
+        assertTrue(policy.retryDelayMillis(method, 1, error) >= 0L);
+        assertTrue(policy.retryDelayMillis(method, 2, error) >= 0L);
+        assertThat(policy.retryDelayMillis(method, 3, error), equalTo(-1L));
+    }
+
+    @Test
+    public void retriesAreLimitedByTheBudget() {
+        RetryPolicy policy = BackoffRetryPolicy.newBuilder()
+                .retryBudgetPercent(25.0)
+                .maxRetryBurst(2)
+                .build();
+
+        // the budget starts full
+        assertTrue(policy.retryDelayMillis(method, 1, error) >= 0L);
+        assertTrue(policy.retryDelayMillis(method, 1, error) >= 0L);
+        assertThat(policy.retryDelayMillis(method, 1, error), equalTo(-1L));
+
+        // each call adds a quarter of a retry to the budget
+        for (int i = 0; i < 3; i++) {
+            policy.onCall(method);
+        }
+        assertThat(policy.retryDelayMillis(method, 1, error), equalTo(-1L));
+        policy.onCall(method);
+        assertTrue(policy.retryDelayMillis(method, 1, error) >= 0L);
+        assertThat(policy.retryDelayMillis(method, 1, error), equalTo(-1L));
+
+        // the budget never holds more than the maximum burst
+        for (int i = 0; i < 100; i++) {
+            policy.onCall(method);
+        }
+        assertTrue(policy.retryDelayMillis(method, 1, error) >= 0L);
+        assertTrue(policy.retryDelayMillis(method, 1, error) >= 0L);
+        assertThat(policy.retryDelayMillis(method, 1, error), equalTo(-1L));
+    }
+
+    @Test
+    public void smallRetryBudgetsStillRefillTheBudget() {
+        RetryPolicy policy = BackoffRetryPolicy.newBuilder()
+                .retryBudgetPercent(0.01)
+                .maxRetryBurst(1)
+                .build();
+
+        assertTrue(policy.retryDelayMillis(method, 1, error) >= 0L);
+        assertThat(policy.retryDelayMillis(method, 1, error), equalTo(-1L));
+
+        // each call adds a ten-thousandth of a retry to the budget
+        for (int i = 0; i < 9_999; i++) {
+            policy.onCall(method);
+        }
+        assertThat(policy.retryDelayMillis(method, 1, error), equalTo(-1L));
+        policy.onCall(method);
+        assertTrue(policy.retryDelayMillis(method, 1, error) >= 0L);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void retryBudgetMustNotBeTooSmallToRefillTheBudget() {
+        BackoffRetryPolicy.newBuilder().retryBudgetPercent(0.00001);
+    }
+
+    @Test
+    public void noRetryPolicyNeverRetries() {
+        assertThat(RetryPolicy.none().retryDelayMillis(method, 1, error), equalTo(-1L));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void initialBackoffMustNotExceedTheMaximum() {
+        BackoffRetryPolicy.newBuilder().initialBackoffMillis(100L).maxBackoffMillis(10L).build();
+    }
+
+}
@@ -3,11 +3,30 @@ package com.athaydes.protobuf.tcp.api;
 import com.athaydes.protobuf.tcp.internal.Utils;
 import java.io.Closeable;
 import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
 import java.net.URI;
+import java.nio.channels.AsynchronousChannelGroup;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 import org.junit.After;
 import org.junit.Test;
 
+import static org.hamcrest.CoreMatchers.containsString;
 import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.startsWith;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
@@ -19,10 +38,45 @@ public class RemoteServicesTest {
         String hello(String name);
     }
 
+    public interface AsyncSimpleService {
+        CompletableFuture<String> hello(String name);
+    }
+
+    public interface StageSimpleService {
+        CompletionStage<String> hello(String name);
+    }
+
     public interface OtherService {
         boolean mirror(boolean value);
     }
 
+    public interface EventService {
+        @OneWay
+        void publish(String event);
+
+        void publishAndWait(String event);
+
+        String events();
+    }
+
+    public interface DirectoryService {
+        String lookup(int id);
+    }
+
+    public interface AsyncDirectoryService {
+        CompletableFuture<String> lookup(int id);
+    }
+
+    public interface KeyValueService {
+        @Idempotent
+        String get(String key);
+
+        @Idempotent
+        CompletableFuture<String> fetch(String key);
+
+        String increment(String key);
+    }
+
     public static class ImplementsTwoServices implements SimpleService, OtherService {
         @Override
         public String hello(String name) {
@@ -35,6 +89,165 @@ public class RemoteServicesTest {
         }
     }
 
+    public static class ThreadNameService implements SimpleService {
+        @Override
+        public String hello(String name) {
+            return Thread.currentThread().getName();
+        }
+    }
+
+    public static class ThreadDescriptionService implements SimpleService {
+        @Override
+        public String hello(String name) {
+            return Thread.currentThread().toString();
+        }
+    }
+
+    public static class SlowService implements SimpleService {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final List<String> invocations = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public String hello(String name) {
+            invocations.add(name);
+            if (name.equals("slow")) try {
+                latch.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return "Hello " + name;
+        }
+    }
+
+    public static class FirstCallStallsService implements KeyValueService {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicInteger invocations = new AtomicInteger();
+
+        @Override
+        public String get(String key) {
+            if (invocations.incrementAndGet() == 1) try {
+                latch.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return "value of " + key;
+        }
+
+        @Override
+        public CompletableFuture<String> fetch(String key) {
+            return CompletableFuture.completedFuture(get(key));
+        }
+
+        @Override
+        public String increment(String key) {
+            return get(key);
+        }
+    }
+
+    public static class FailingService implements SimpleService {
+        @Override
+        public String hello(String name) {
+            throw new IllegalArgumentException("Unknown name: " + name);
+        }
+    }
+
+    public static class AsyncService implements AsyncSimpleService {
+        final Map<String, CompletableFuture<String>> responses = new ConcurrentHashMap<>();
+
+        @Override
+        public CompletableFuture<String> hello(String name) {
+            return responses.computeIfAbsent(name, n -> new CompletableFuture<>());
+        }
+    }
+
+    public static class EventRecorder implements EventService {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final StringBuffer events = new StringBuffer();
+
+        @Override
+        public void publish(String event) {
+            if (event.equals("slow")) try {
+                latch.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (event.equals("bad")) {
+                throw new IllegalArgumentException("Bad event");
+            }
+            events.append(event).append(';');
+        }
+
+        @Override
+        public void publishAndWait(String event) {
+            publish(event);
+        }
+
+        @Override
+        public String events() {
+            return events.toString();
+        }
+    }
+
+    public static class Directory implements DirectoryService {
+        final List<List<Integer>> bulkCalls = Collections.synchronizedList(new ArrayList<>());
+        final List<String> bulkCallThreads = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        @Coalesce(value = "lookupAll", windowMicros = 100_000L)
+        public String lookup(int id) {
+            return lookupAll(Collections.singletonList(id)).get(0);
+        }
+
+        public List<String> lookupAll(List<Integer> ids) {
+            bulkCalls.add(ids);
+            bulkCallThreads.add(Thread.currentThread().getName());
+            return ids.stream().map(id -> "entry-" + id).collect(Collectors.toList());
+        }
+    }
+
+    public static class SingleFlightService implements SimpleService {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final CountDownLatch maryInvoked = new CountDownLatch(1);
+        final AtomicInteger invocations = new AtomicInteger();
+
+        @Override
+        @SingleFlight
+        public String hello(String name) {
+            if (name.equals("warm-up")) {
+                return "Hello " + name;
+            }
+            invocations.incrementAndGet();
+            if (name.equals("Mary")) {
+                maryInvoked.countDown();
+            }
+            try {
+                latch.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return "Hello " + name + " #" + invocations.get();
+        }
+    }
+
+    public static class CountingService implements SimpleService {
+        final AtomicInteger invocations = new AtomicInteger();
+
+        @Override
+        public String hello(String name) {
+            return "Hello " + name + " #" + invocations.incrementAndGet();
+        }
+    }
+
+    public static class CachingService implements SimpleService {
+        final AtomicInteger invocations = new AtomicInteger();
+
+        @Override
+        @Cacheable(ttlMillis = 60_000L)
+        public String hello(String name) {
+            return "Hello " + name + " #" + invocations.incrementAndGet();
+        }
+    }
+
     public static class CloseableService implements SimpleService, Closeable {
         boolean isClosed = false;
 
@@ -247,4 +460,842 @@ public class RemoteServicesTest {
         assertFalse(remoteService.isClosed);
     }
 
+    @Test
+    public void canProvideServiceUsingDedicatedChannelGroup() throws Exception {
+        ServerOptions options = ServerOptions.newBuilder()
+                .ioThreads(2)
+                .ioThreadFactory(runnable -> new Thread(runnable, "my-io-thread"))
+                .build();
+
+        serviceToClose = RemoteServices.provideService(new ThreadNameService(), 8000, options,
+                SimpleService.class);
+
+        SimpleService client = RemoteServices.createClient(SimpleService.class, "127.0.0.1", 8000);
+
+        try {
+            // the service is called from one of the threads of the dedicated channel group
+            assertThat(client.hello("Joe"), startsWith("my-io-thread"));
+        } finally {
+            ((Closeable) client).close();
+        }
+    }
+
+    @Test
+    public void providedChannelGroupIsNotShutdownWhenServerIsClosed() throws Exception {
+        AsynchronousChannelGroup group = AsynchronousChannelGroup.withFixedThreadPool(1,
+                runnable -> new Thread(runnable, "provided-io-thread"));
+
+        try {
+            ServerOptions options = ServerOptions.newBuilder()
+                    .channelGroup(group)
+                    .build();
+
+            Closeable server = RemoteServices.provideService(new ThreadNameService(), 8000, options,
+                    SimpleService.class);
+
+            SimpleService client = RemoteServices.createClient(SimpleService.class, "127.0.0.1", 8000);
+
+            try {
+                assertThat(client.hello("Joe"), startsWith("provided-io-thread"));
+            } finally {
+                ((Closeable) client).close();
+                server.close();
+            }
+
+            assertFalse(group.isShutdown());
+        } finally {
+            group.shutdownNow();
+            group.awaitTermination(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void canRunServiceMethodsInWorkerThreads() throws Exception {
+        ServerOptions options = ServerOptions.newBuilder()
+                .workerThreads(2)
+                .build();
+
+        serviceToClose = RemoteServices.provideService(new ThreadNameService(), 8000, options,
+                SimpleService.class);
+
+        SimpleService client = RemoteServices.createClient(SimpleService.class, "127.0.0.1", 8000);
+
+        try {
+            assertThat(client.hello("Joe"), startsWith("protobuf-server-8000-worker-"));
+        } finally {
+            ((Closeable) client).close();
+        }
+    }
+
+    @Test
+    public void slowServiceMethodDoesNotBlockIoThread() throws Exception {
+        ServerOptions options = ServerOptions.newBuilder()
+                .ioThreads(1)
+                .workerThreads(2)
+                .build();
+
+        SlowService slowService = new SlowService();
+
+        serviceToClose = RemoteServices.provideService(slowService, 8000, options, SimpleService.class);
+
+        SimpleService slowClient = RemoteServices.createClient(SimpleService.class, "127.0.0.1", 8000);
+        SimpleService fastClient = RemoteServices.createClient(SimpleService.class, "127.0.0.1", 8000);
+
+        try {
+            CompletableFuture<String> slowResponse = CompletableFuture.supplyAsync(() -> slowClient.hello("slow"));
+
+            // the single I/O thread is free to serve another client while the slow call is running
+            assertThat(fastClient.hello("fast"), equalTo("Hello fast"));
+            assertFalse(slowResponse.isDone());
+
+            slowService.latch.countDown();
+            assertThat(slowResponse.get(5, TimeUnit.SECONDS), equalTo("Hello slow"));
+        } finally {
+            ((Closeable) slowClient).close();
+            ((Closeable) fastClient).close();
+        }
+    }
+
+    @Test
+    public void canRunServiceMethodsInVirtualThreadsIfSupportedByTheJvm() throws Exception {
+        ServerOptions options = ServerOptions.newBuilder()
+                .virtualThreads(true)
+                .workerThreads(1)
+                .build();
+
+        serviceToClose = RemoteServices.provideService(new ThreadDescriptionService(), 8000, options,
+                SimpleService.class);
+
+        SimpleService client = RemoteServices.createClient(SimpleService.class, "127.0.0.1", 8000);
+
+        boolean virtualThreadsSupported;
+        try {
+            Thread.class.getMethod("isVirtual");
+            virtualThreadsSupported = true;
+        } catch (NoSuchMethodException e) {
+            virtualThreadsSupported = false;
+        }
+
+        try {
+            if (virtualThreadsSupported) {
+                assertThat(client.hello("Joe"), startsWith("VirtualThread"));
+            } else {
+                // falls back to the worker threads
+                assertThat(client.hello("Joe"), containsString("protobuf-server-8000-worker-"));
+            }
+        } finally {
+            ((Closeable) client).close();
+        }
+    }
+
+    @Test
+    public void serverReusesPooledBuffers() throws Exception {
+        ServiceReference<?> server = RemoteServices.createService(new ImplementsTwoServices(), 8000,
+                SimpleService.class);
+        serviceToClose = server;
+        server.run();
+
+        SimpleService client = RemoteServices.createClient(SimpleService.class, "127.0.0.1", 8000);
+
+        try {
+            for (int i = 0; i < 10; i++) {
+                assertThat(client.hello("Joe"), equalTo("Hello Joe"));
+            }
+        } finally {
+            ((Closeable) client).close();
+        }
+
+        BufferPoolStatistics statistics = server.getBufferPoolStatistics()
+                .orElseThrow(() -> new AssertionError("No buffer pool statistics"));
+
+        // the last result buffer is released only after the write completes, which may take a little while
+        long deadline = System.currentTimeMillis() + 2000L;
+        while (statistics.getIdleBuffers() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+            statistics = server.getBufferPoolStatistics().orElseThrow(AssertionError::new);
+        }
+
+        // the connection leases one buffer to read invocations, and each call (including the handshake, which
+        // requests the method table) leases one to write the result
+        assertThat(statistics.getHits() + statistics.getMisses(), equalTo(12L));
+        assertTrue(statistics.getHits() > 0);
+        assertTrue(statistics.getIdleBuffers() > 0);
+    }
+
+    @Test
+    public void concurrentCallsOnTheSameClientUsePooledConnections() throws Exception {
+        ServerOptions serverOptions = ServerOptions.newBuilder()
+                .workerThreads(2)
+                .build();
+
+        SlowService slowService = new SlowService();
+
+        serviceToClose = RemoteServices.provideService(slowService, 8000, serverOptions, SimpleService.class);
+
+        ClientOptions clientOptions = ClientOptions.newBuilder()
+                .maxConnections(2)
+                .leaseTimeoutMillis(50L)
+                .build();
+
+        SimpleService client = RemoteServices.createClient(SimpleService.class, "127.0.0.1", 8000, clientOptions);
+
+        try {
+            CompletableFuture<String> slowResponse = CompletableFuture.supplyAsync(() -> client.hello("slow"));
+
+            long deadline = System.currentTimeMillis() + 2000L;
+            while (RemoteServices.getConnectionPoolStatistics(client).getLeasedConnections() == 0 &&
+                    System.currentTimeMillis() < deadline) {
+                Thread.sleep(10L);
+            }
+
+            // a second connection is opened while the slow call holds the first one
+            assertThat(client.hello("fast"), equalTo("Hello fast"));
+            assertFalse(slowResponse.isDone());
+
+            ConnectionPoolStatistics statistics = RemoteServices.getConnectionPoolStatistics(client);
+            assertThat(statistics.getOpenedConnections(), equalTo(2L));
+            assertThat(statistics.getLeasedConnections(), equalTo(1));
+            assertThat(statistics.getIdleConnections(), equalTo(1));
+
+            CompletableFuture<String> otherSlowResponse = CompletableFuture.supplyAsync(() -> client.hello("slow"));
+
+            // both connections are now leased, so the next call times out waiting for one
+            deadline = System.currentTimeMillis() + 2000L;
+            while (RemoteServices.getConnectionPoolStatistics(client).getIdleConnections() > 0 &&
+                    System.currentTimeMillis() < deadline) {
+                Thread.sleep(10L);
+            }
+            try {
+                client.hello("fast");
+                fail("Expected CommunicationException");
+            } catch (CommunicationException e) {
+                assertThat(e.getCause().getMessage(), containsString("Timed out waiting for a connection"));
+            }
+
+            slowService.latch.countDown();
+            assertThat(slowResponse.get(5, TimeUnit.SECONDS), equalTo("Hello slow"));
+            assertThat(otherSlowResponse.get(5, TimeUnit.SECONDS), equalTo("Hello slow"));
+
+            statistics = RemoteServices.getConnectionPoolStatistics(client);
+            assertThat(statistics.getOpenedConnections(), equalTo(2L));
+            assertThat(statistics.getLeasedConnections(), equalTo(0));
+            assertThat(statistics.getIdleConnections(), equalTo(2));
+            assertThat(statistics.getLeaseTimeouts(), equalTo(1L));
+        } finally {
+            ((Closeable) client).close();
+        }
+
+        assertThat(RemoteServices.getConnectionPoolStatistics(client).getIdleConnections(), equalTo(0));
+    }
+
+    @Test
+    public void connectionsAreClosedBeforeTheServerClosesThemForBeingIdle() throws Exception {
+        serviceToClose = RemoteServices.provideService(new SlowService(), 8000,
+                ServerOptions.newBuilder().idleTimeoutMillis(200L).build(), SimpleService.class);
+
+        // the pool would otherwise keep the connection open for as long as the client exists
+        SimpleService client = RemoteServices.createClient(SimpleService.class, "127.0.0.1", 8000,
+                ClientOptions.newBuilder().minConnections(1).build());
+
+        try {
+            assertThat(client.hello("first"), equalTo("Hello first"));
+
+            Thread.sleep(300L);
+
+            // the call is sent over a new connection, as the server has closed the first one
+            assertThat(client.hello("second"), equalTo("Hello second"));
+
+            ConnectionPoolStatistics statistics = RemoteServices.getConnectionPoolStatistics(client);
+            assertThat(statistics.getOpenedConnections(), equalTo(2L));
+            assertThat(statistics.getClosedConnections(), equalTo(1L));
+        } finally {
+            ((Closeable) client).close();
+        }
+    }
+
+    @Test
+    public void asyncMethodsDoNotBlockTheCaller() throws Exception {
+        SlowService slowService = new SlowService();
+
+        serviceToClose = RemoteServices.provideService(slowService, 8000,
+                ServerOptions.newBuilder().workerThreads(2).build(), SimpleService.class);
+
+        AsyncSimpleService client = RemoteServices.createClient(AsyncSimpleService.class, "127.0.0.1", 8000);
+
+        try {
+            CompletableFuture<String> response = client.hello("slow");
+            assertFalse(response.isDone());
+
+            slowService.latch.countDown();
+            assertThat(response.get(5, TimeUnit.SECONDS), equalTo("Hello slow"));
+        } finally {
+            ((Closeable) client).close();
+        }
+    }
+
+    @Test
+    public void asyncMethodsCanUseMultiplexedConnections() throws Exception {
+        SlowService slowService = new SlowService();
+
+        serviceToClose = RemoteServices.provideService(slowService, 8000,
+                ServerOptions.newBuilder().workerThreads(2).build(), SimpleService.class);
+
+        StageSimpleService client = RemoteServices.createClient(StageSimpleService.class, "127.0.0.1", 8000,
+                ClientOptions.newBuilder().multiplexedConnections(1).build());
+
+        try {
+            CompletableFuture<String> slowResponse = client.hello("slow").toCompletableFuture();
+            CompletableFuture<String> fastResponse = client.hello("fast").toCompletableFuture();
+
+            // results arrive out of order over the same connection
+            assertThat(fastResponse.get(5, TimeUnit.SECONDS), equalTo("Hello fast"));
+            assertFalse(slowResponse.isDone());
+
+            slowService.latch.countDown();
+            assertThat(slowResponse.get(5, TimeUnit.SECONDS), equalTo("Hello slow"));
+        } finally {
+            ((Closeable) client).close();
+        }
+    }
+
+    @Test
+    public void asyncMethodsCompleteExceptionallyOnRemoteErrors() throws Exception {
+        serviceToClose = RemoteServices.provideService(new FailingService(), 8000, SimpleService.class);
+
+        AsyncSimpleService client = RemoteServices.createClient(AsyncSimpleService.class, "127.0.0.1", 8000,
+                ClientOptions.newBuilder().multiplexedConnections(1).build());
+
+        try {
+            client.hello("Joe").get(5, TimeUnit.SECONDS);
+            fail("Expected ExecutionException");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), instanceOf(RemoteException.class));
+            assertThat(e.getCause().getMessage(), containsString("Unknown name: Joe"));
+        } finally {
+            ((Closeable) client).close();
+        }
+    }
+
+    @Test
+    public void serverDoesNotHoldThreadsWhileAsyncMethodsRun() throws Exception {
+        AsyncService asyncService = new AsyncService();
+
+        // a single worker thread is enough to run any number of asynchronous methods concurrently
+        serviceToClose = RemoteServices.provideService(asyncService, 8000,
+                ServerOptions.newBuilder().workerThreads(1).build(), AsyncSimpleService.class);
+
+        AsyncSimpleService client = RemoteServices.createClient(AsyncSimpleService.class, "127.0.0.1", 8000,
+                ClientOptions.newBuilder().multiplexedConnections(1).build());
+
+        try {
+            CompletableFuture<String> joe = client.hello("Joe");
+            CompletableFuture<String> mary = client.hello("Mary");
+            CompletableFuture<String> bob = client.hello("Bob");
+
+            long deadline = System.currentTimeMillis() + 2000L;
+            while (asyncService.responses.size() < 3 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10L);
+            }
+            assertThat(asyncService.responses.size(), equalTo(3));
+
+            asyncService.responses.get("Mary").complete("Hi Mary");
+            assertThat(mary.get(5, TimeUnit.SECONDS), equalTo("Hi Mary"));
+            assertFalse(joe.isDone());
+
+            asyncService.responses.get("Joe").complete("Hi Joe");
+            assertThat(joe.get(5, TimeUnit.SECONDS), equalTo("Hi Joe"));
+
+            asyncService.responses.get("Bob").completeExceptionally(new IllegalStateException("Bob is away"));
+            try {
+                bob.get(5, TimeUnit.SECONDS);
+                fail("Expected ExecutionException");
+            } catch (ExecutionException e) {
+                assertThat(e.getCause(), instanceOf(RemoteException.class));
+                assertThat(e.getCause().getMessage(), equalTo("Bob is away"));
+            }
+        } finally {
+            ((Closeable) client).close();
+        }
+    }
+
+    @Test
+    public void syncClientsCanCallAsyncServiceMethods() {
+        AsyncService asyncService = new AsyncService();
+        asyncService.responses.put("Joe", CompletableFuture.completedFuture("Hi Joe"));
+
+        serviceToClose = RemoteServices.provideService(asyncService, 8000, AsyncSimpleService.class);
+
+        SimpleService client = RemoteServices.createClient(SimpleService.class, "127.0.0.1", 8000);
+
+        try {
+            assertThat(client.hello("Joe"), equalTo("Hi Joe"));
+        } finally {
+            Utils.closeQuietly((Closeable) client);
+        }
+    }
+
+    @Test
+    public void oneWayMethodsDoNotWaitForTheServiceMethodToRun() throws Exception {
+        EventRecorder recorder = new EventRecorder();
+
+        serviceToClose = RemoteServices.provideService(recorder, 8000,
+                ServerOptions.newBuilder().workerThreads(2).build(), EventService.class);
+
+        EventService client = RemoteServices.createClient(EventService.class, "127.0.0.1", 8000);
+
+        try {
+            // returns even though the service method is blocked
+            client.publish("slow");
+            client.publish("bad");
+            assertThat(recorder.events(), equalTo(""));
+
+            recorder.latch.countDown();
+            waitForEvents(recorder, "slow;");
+        } finally {
+            ((Closeable) client).close();
+        }
+    }
+
+    @Test
+    public void voidMethodsAreOneWayIfConfiguredInTheClientOptions() throws Exception {
+        EventRecorder recorder = new EventRecorder();
+
+        serviceToClose = RemoteServices.provideService(recorder, 8000,
+                ServerOptions.newBuilder().workerThreads(2).build(), EventService.class);
+
+        EventService client = RemoteServices.createClient(EventService.class, "127.0.0.1", 8000,
+                ClientOptions.newBuilder().multiplexedConnections(1).oneWayVoidMethods(true).build());
+
+        try {
+            // errors of one-way methods are not reported to the caller
+            client.publishAndWait("bad");
+            client.publishAndWait("slow");
+            client.publishAndWait("fast");
+
+            // no results of the one-way calls are sent back to be confused with this one
+            assertThat(client.events(), equalTo("fast;"));
+
+            recorder.latch.countDown();
+            waitForEvents(recorder, "fast;slow;");
+        } finally {
+            ((Closeable) client).close();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void oneWayMethodsMustReturnVoid() {
+        serviceToClose = RemoteServices.provideService(new ImplementsTwoServices(), 8000, SimpleService.class);
+
+        InvalidOneWayService client = RemoteServices.createClient(InvalidOneWayService.class, "127.0.0.1", 8000);
+
+        try {
+            client.hello("Joe");
+        } finally {
+            Utils.closeQuietly((Closeable) client);
+        }
+    }
+
+    public interface InvalidOneWayService {
+        @OneWay
+        String hello(String name);
+    }
+
+    private static void waitForEvents(EventRecorder recorder, String expectedEvents) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000L;
+        while (!recorder.events().equals(expectedEvents) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+        assertThat(recorder.events(), equalTo(expectedEvents));
+    }
+
+    @Test
+    public void concurrentInvocationsOfCoalescedMethodsCallTheBulkMethodOnce() throws Exception {
+        Directory directory = new Directory();
+
+        serviceToClose = RemoteServices.provideService(directory, 8000,
+                ServerOptions.newBuilder().workerThreads(2).build(), DirectoryService.class);
+
+        AsyncDirectoryService client = RemoteServices.createClient(AsyncDirectoryService.class, "127.0.0.1", 8000,
+                ClientOptions.newBuilder().multiplexedConnections(1).build());
+
+        try {
+            List<CompletableFuture<String>> responses = new ArrayList<>();
+            for (int id = 0; id < 5; id++) {
+                responses.add(client.lookup(id));
+            }
+
+            for (int id = 0; id < 5; id++) {
+                assertThat(responses.get(id).get(5, TimeUnit.SECONDS), equalTo("entry-" + id));
+            }
+
+            assertThat(directory.bulkCalls.size(), equalTo(1));
+            assertThat(directory.bulkCalls.get(0).size(), equalTo(5));
+        } finally {
+            ((Closeable) client).close();
+        }
+    }
+
+    @Test
+    public void bulkMethodsDoNotRunOnServerThreadsIfServiceMethodsRunOnTheIoThreads() throws Exception {
+        Directory directory = new Directory();
+
+        serviceToClose = RemoteServices.provideService(directory, 8000, ServerOptions.defaults(),
+                DirectoryService.class);
+
+        AsyncDirectoryService client = RemoteServices.createClient(AsyncDirectoryService.class, "127.0.0.1", 8000,
+                ClientOptions.newBuilder().multiplexedConnections(1).build());
+
+        try {
+            List<CompletableFuture<String>> responses = new ArrayList<>();
+            for (int id = 0; id < 3; id++) {
+                responses.add(client.lookup(id));
+            }
+
+            for (int id = 0; id < 3; id++) {
+                assertThat(responses.get(id).get(5, TimeUnit.SECONDS), equalTo("entry-" + id));
+            }
+
+            assertFalse(directory.bulkCallThreads.isEmpty());
+            for (String threadName : directory.bulkCallThreads) {
+                assertThat(threadName, containsString("-bulk-"));
+            }
+        } finally {
+            ((Closeable) client).close();
+        }
+    }
+
+    @Test
+    public void identicalConcurrentInvocationsOfSingleFlightMethodsShareTheirResult() throws Exception {
+        SingleFlightService service = new SingleFlightService();
+
+        serviceToClose = RemoteServices.provideService(service, 8000,
+                ServerOptions.newBuilder().workerThreads(4).build(), SimpleService.class);
+
+        AsyncSimpleService client = RemoteServices.createClient(AsyncSimpleService.class, "127.0.0.1", 8000,
+                ClientOptions.newBuilder().multiplexedConnections(1).build());
+
+        try {
+            // once the connection is open, invocations are sent, and handled by the server, in order
+            assertThat(client.hello("warm-up").get(5, TimeUnit.SECONDS), equalTo("Hello warm-up"));
+
+            List<CompletableFuture<String>> joeResponses = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                joeResponses.add(client.hello("Joe"));
+            }
+            CompletableFuture<String> maryResponse = client.hello("Mary");
+
+            // by the time Mary's invocation runs, the first invocation for Joe is running and the others joined it
+            assertTrue("Mary's invocation did not run", service.maryInvoked.await(10, TimeUnit.SECONDS));
+
+            service.latch.countDown();
+
+            for (CompletableFuture<String> joeResponse : joeResponses) {
+                assertThat(joeResponse.get(5, TimeUnit.SECONDS), startsWith("Hello Joe #"));
+            }
+            assertThat(joeResponses.get(1).get(), equalTo(joeResponses.get(0).get()));
+            assertThat(joeResponses.get(2).get(), equalTo(joeResponses.get(0).get()));
+            assertThat(maryResponse.get(5, TimeUnit.SECONDS), startsWith("Hello Mary #"));
+            assertThat(service.invocations.get(), equalTo(2));
+
+            // once the flight is over, the method runs again
+            assertThat(client.hello("Joe").get(5, TimeUnit.SECONDS), equalTo("Hello Joe #3"));
+        } finally {
+            ((Closeable) client).close();
+        }
+    }
+
+    @Test
+    public void resultsOfCacheableMethodsAreCachedByTheServer() throws Exception {
+        CachingService service = new CachingService();
+        ServiceReference<?> server = RemoteServices.createService(service, 8000, SimpleService.class);
+        serviceToClose = server;
+        server.run();
+
+        SimpleService client = RemoteServices.createClient(SimpleService.class, "127.0.0.1", 8000);
+
+        try {
+            for (int i = 0; i < 3; i++) {
+                assertThat(client.hello("Joe"), equalTo("Hello Joe #1"));
+            }
+            assertThat(client.hello("Mary"), equalTo("Hello Mary #2"));
+        } finally {
+            ((Closeable) client).close();
+        }
+
+        ResultCacheStatistics statistics = server.getResultCacheStatistics()
+                .orElseThrow(() -> new AssertionError("No result cache statistics"));
+
+        assertThat(service.invocations.get(), equalTo(2));
+        assertThat(statistics.getHits(), equalTo(2L));
+        assertThat(statistics.getMisses(), equalTo(2L));
+        assertThat(statistics.getEntries(), equalTo(2));
+    }
+
+    @Test
+    public void clientsCacheResultsUntilTheServerInvalidatesThem() throws Exception {
+        CountingService service = new CountingService();
+        ServiceReference<?> server = RemoteServices.createService(service, 8000, SimpleService.class);
+        serviceToClose = server;
+        server.run();
+
+        SimpleService client = RemoteServices.createClient(SimpleService.class, "127.0.0.1", 8000,
+                ClientOptions.newBuilder()
+                        .multiplexedConnections(1)
+                        .cacheResults("hello", 60_000L)
+                        .build());
+
+        try {
+            for (int i = 0; i < 3; i++) {
+                assertThat(client.hello("Joe"), equalTo("Hello Joe #1"));
+            }
+            assertThat(client.hello("Mary"), equalTo("Hello Mary #2"));
+            assertThat(service.invocations.get(), equalTo(2));
+
+            server.invalidateCachedResults("hello");
+
+            // the invalidation is received asynchronously
+            String result = client.hello("Joe");
+            long deadline = System.currentTimeMillis() + 2000L;
+            while (result.equals("Hello Joe #1") && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10L);
+                result = client.hello("Joe");
+            }
+
+            assertThat(result, equalTo("Hello Joe #3"));
+            assertThat(client.hello("Joe"), equalTo("Hello Joe #3"));
+        } finally {
+            ((Closeable) client).close();
+        }
+    }
+
+    @Test
+    public void cancellingTheFutureOfACachedAsyncMethodCancelsTheCall() throws Exception {
+        SlowService slowService = new SlowService();
+
+        serviceToClose = RemoteServices.provideService(slowService, 8000,
+                ServerOptions.newBuilder().workerThreads(2).build(), SimpleService.class);
+
+        AsyncSimpleService client = RemoteServices.createClient(AsyncSimpleService.class, "127.0.0.1", 8000,
+                ClientOptions.newBuilder()
+                        .multiplexedConnections(1)
+                        .cacheResults("hello", 60_000L)
+                        .build());
+
+        try {
+            CompletableFuture<String> response = client.hello("slow");
+
+            // the call is sent once the connection is open
+            long deadline = System.currentTimeMillis() + 5000L;
+            while (RemoteServices.getConnectionPoolStatistics(client).getInFlightCalls() == 0 &&
+                    System.currentTimeMillis() < deadline) {
+                Thread.sleep(10L);
+            }
+            assertThat(RemoteServices.getConnectionPoolStatistics(client).getInFlightCalls(), equalTo(1));
+
+            assertTrue(response.cancel(false));
+
+            // the call is removed from the connection without waiting for its result, which is never sent
+            deadline = System.currentTimeMillis() + 5000L;
+            while (RemoteServices.getConnectionPoolStatistics(client).getInFlightCalls() > 0 &&
+                    System.currentTimeMillis() < deadline) {
+                Thread.sleep(10L);
+            }
+            assertThat(RemoteServices.getConnectionPoolStatistics(client).getInFlightCalls(), equalTo(0));
+        } finally {
+            slowService.latch.countDown();
+            ((Closeable) client).close();
+        }
+    }
+
+    @Test
+    public void serverDoesNotInvokeMethodsAfterTheCallTimesOut() throws Exception {
+        SlowService service = new SlowService();
+
+        // a single worker thread, so the second call waits for the first one to complete
+        serviceToClose = RemoteServices.provideService(service, 8000,
+                ServerOptions.newBuilder().workerThreads(1).build(), SimpleService.class);
+
+        AsyncSimpleService client = RemoteServices.createClient(AsyncSimpleService.class, "127.0.0.1", 8000,
+                ClientOptions.newBuilder()
+                        .multiplexedConnections(1)
+                        .callTimeoutMillis(200L)
+                        .build());
+
+        try {
+            CompletableFuture<String> slowResponse = client.hello("slow");
+
+            // make sure the slow invocation is running before queueing the next one
+            long startNanos = System.nanoTime();
+            while (service.invocations.isEmpty() && System.nanoTime() - startNanos < TimeUnit.SECONDS.toNanos(5)) {
+                Thread.sleep(5L);
+            }
+
+            CompletableFuture<String> queuedResponse = client.hello("queued");
+
+            // let the queued call time out before the worker thread is free
+            Thread.sleep(400L);
+            service.latch.countDown();
+
+            for (CompletableFuture<String> response : Arrays.asList(slowResponse, queuedResponse)) {
+                try {
+                    response.get(5, TimeUnit.SECONDS);
+                    fail("Expected DeadlineExceededException");
+                } catch (ExecutionException e) {
+                    assertThat(e.getCause(), instanceOf(DeadlineExceededException.class));
+                }
+            }
+
+            // the worker thread only gets to this call after skipping the queued one
+            assertThat(client.hello("next").get(5, TimeUnit.SECONDS), equalTo("Hello next"));
+
+            assertThat(service.invocations, equalTo(Arrays.asList("slow", "next")));
+        } finally {
+            ((Closeable) client).close();
+        }
+    }
+
+    @Test
+    public void clientsStopWaitingForResultsWhenTheCallTimesOut() throws Exception {
+        SlowService service = new SlowService();
+        serviceToClose = RemoteServices.provideService(service, 8000, SimpleService.class);
+
+        SimpleService multiplexedClient = RemoteServices.createClient(SimpleService.class, "127.0.0.1", 8000,
+                ClientOptions.newBuilder()
+                        .multiplexedConnections(1)
+                        .callTimeoutMillis(200L)
+                        .build());
+        SimpleService pooledClient = RemoteServices.createClient(SimpleService.class, "127.0.0.1", 8000,
+                ClientOptions.newBuilder()
+                        .maxConnections(1)
+                        .callTimeoutMillis(200L)
+                        .build());
+
+        try {
+            for (SimpleService client : Arrays.asList(multiplexedClient, pooledClient)) {
+                long startNanos = System.nanoTime();
+                try {
+                    client.hello("slow");
+                    fail("Expected DeadlineExceededException");
+                } catch (DeadlineExceededException e) {
+                    long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+                    assertTrue("Timed out too early: " + elapsedMillis + "ms", elapsedMillis >= 190L);
+                    assertTrue("Timed out too late: " + elapsedMillis + "ms", elapsedMillis < 2000L);
+                }
+            }
+
+            service.latch.countDown();
+
+            // late results are discarded, and do not get in the way of the next calls
+            for (SimpleService client : Arrays.asList(multiplexedClient, pooledClient)) {
+                assertThat(client.hello("fast"), equalTo("Hello fast"));
+            }
+        } finally {
+            ((Closeable) multiplexedClient).close();
+            ((Closeable) pooledClient).close();
+        }
+    }
+
+    @Test
+    public void onlyCallsToIdempotentMethodsAreRetried() throws Exception {
+        // a server that closes every connection right away
+        ServerSocket server = new ServerSocket(0);
+        AtomicInteger connections = new AtomicInteger();
+        Thread acceptor = new Thread(() -> {
+            while (!server.isClosed()) {
+                try (Socket socket = server.accept()) {
+                    connections.incrementAndGet();
+                } catch (IOException e) {
+                    // server closed
+                }
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        RetryPolicy retryPolicy = BackoffRetryPolicy.newBuilder()
+                .maxAttempts(3)
+                .initialBackoffMillis(1L)
+                .build();
+
+        try {
+            for (ClientOptions.Builder options : Arrays.asList(
+                    ClientOptions.newBuilder(),
+                    ClientOptions.newBuilder().multiplexedConnections(1))) {
+                KeyValueService client = RemoteServices.createClient(KeyValueService.class,
+                        "127.0.0.1", server.getLocalPort(), options.retryPolicy(retryPolicy).build());
+                try {
+                    connections.set(0);
+                    try {
+                        client.get("a");
+                        fail("Expected CommunicationException");
+                    } catch (CommunicationException e) {
+                        assertThat(connections.get(), equalTo(3));
+                    }
+
+                    connections.set(0);
+                    try {
+                        client.fetch("a").get(5, TimeUnit.SECONDS);
+                        fail("Expected ExecutionException");
+                    } catch (ExecutionException e) {
+                        assertThat(e.getCause(), instanceOf(CommunicationException.class));
+                        assertThat(connections.get(), equalTo(3));
+                    }
+
+                    connections.set(0);
+                    try {
+                        client.increment("a");
+                        fail("Expected CommunicationException");
+                    } catch (CommunicationException e) {
+                        assertThat(connections.get(), equalTo(1));
+                    }
+                } finally {
+                    ((Closeable) client).close();
+                }
+            }
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void slowCallsToIdempotentMethodsAreHedged() throws Exception {
+        FirstCallStallsService service = new FirstCallStallsService();
+        serviceToClose = RemoteServices.provideService(service, 8000,
+                ServerOptions.newBuilder().workerThreads(2).build(), KeyValueService.class);
+
+        KeyValueService client = RemoteServices.createClient(KeyValueService.class, "127.0.0.1", 8000,
+                ClientOptions.newBuilder()
+                        .multiplexedConnections(2)
+                        .hedgeDelayMillis(50L)
+                        .build());
+
+        try {
+            long startNanos = System.nanoTime();
+
+            // the first invocation stalls, so the result comes from the hedged invocation
+            assertThat(client.get("a"), equalTo("value of a"));
+
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+            assertTrue("Call took too long: " + elapsedMillis + "ms", elapsedMillis < 5000L);
+            assertThat(service.invocations.get(), equalTo(2));
+
+            // calls that complete in time are not hedged
+            assertThat(client.fetch("b").get(5, TimeUnit.SECONDS), equalTo("value of b"));
+            assertThat(service.invocations.get(), equalTo(3));
+        } finally {
+            service.latch.countDown();
+            ((Closeable) client).close();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void hedgingRequiresMultiplexedConnections() {
+        ClientOptions.newBuilder().hedgeDelayMillis(50L).build();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void hedgeDelayPercentileRequiresAMinimumHedgeDelay() {
+        ClientOptions.newBuilder().multiplexedConnections(2).hedgeDelayPercentile(95.0).build();
+    }
+
 }
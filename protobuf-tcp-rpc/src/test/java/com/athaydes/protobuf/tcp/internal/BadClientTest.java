@@ -3,12 +3,20 @@ package com.athaydes.protobuf.tcp.internal;
 import com.athaydes.protobuf.tcp.api.Api;
 import com.google.protobuf.Any;
 import com.google.protobuf.BoolValue;
+import com.google.protobuf.FloatValue;
+import com.google.protobuf.Int32Value;
 import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.StringValue;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.nio.channels.InterruptedByTimeoutException;
+import java.util.Arrays;
 import org.junit.Test;
 
 import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
 import static org.junit.Assert.assertThat;
 
 public class BadClientTest extends TestsCommunication {
@@ -112,4 +120,72 @@ public class BadClientTest extends TestsCommunication {
         }
     }
 
+    @Test
+    public void testIdleConnectionIsClosedWithoutResult() throws Throwable {
+        // start the server
+        serverThread.submit(exampleServer);
+
+        // server should be running now
+        waitForSocketToBind(EXAMPLE_SERVICE_PORT);
+
+        try (Socket socket = new Socket("127.0.0.1", EXAMPLE_SERVICE_PORT)) {
+            socket.setSoTimeout(10_000);
+
+            // send nothing, the server should just close the connection once the idle timeout elapses
+            Api.Result result = Api.Result.parseDelimitedFrom(socket.getInputStream());
+
+            assertThat(result, nullValue());
+        }
+    }
+
+    @Test
+    public void testIncompleteMessageErrorIsSentAfterPendingResults() throws Throwable {
+        // start the server
+        serverThread.submit(javaServer);
+
+        // server should be running now
+        waitForSocketToBind(JAVA_SERVICE_PORT);
+
+        char[] prefix = new char[64 * 1024];
+        Arrays.fill(prefix, 'x');
+        Api.MethodInvocation invocation = Api.MethodInvocation.newBuilder()
+                .setMethodName("sum")
+                .addArgs(Any.pack(StringValue.newBuilder().setValue(new String(prefix)).build()))
+                .addArgs(Any.pack(Int32Value.newBuilder().setValue(1).build()))
+                .addArgs(Any.pack(FloatValue.newBuilder().setValue(2f).build()))
+                .addArgs(Any.pack(BoolValue.newBuilder().setValue(true).build()))
+                .build();
+        int invocations = 200;
+
+        try (Socket socket = new Socket()) {
+            socket.setReceiveBufferSize(4096);
+            socket.connect(new InetSocketAddress("127.0.0.1", JAVA_SERVICE_PORT));
+            socket.setSoTimeout(30_000);
+            OutputStream out = socket.getOutputStream();
+
+            // the server keeps reading pipelined calls while their results are written
+            for (int i = 0; i < invocations; i++) {
+                invocation.toBuilder().setCallId(i + 1L).build().writeDelimitedTo(out);
+            }
+            out.write(new byte[]{10, 1, 2, 3});
+            out.flush();
+
+            // the results are only read after the server times out, so most of them are still waiting to be written
+            Thread.sleep(11_000L);
+
+            InputStream in = socket.getInputStream();
+            for (int i = 0; i < invocations; i++) {
+                Api.Result result = Api.Result.parseDelimitedFrom(in);
+                assertThat(result.getCallId(), equalTo(i + 1L));
+                assertThat(result.getSuccessResult().unpack(StringValue.class).getValue(),
+                        equalTo(new String(prefix) + "3.0"));
+            }
+
+            Api.Result result = Api.Result.parseDelimitedFrom(in);
+
+            assertThat(result.getResultCase(), equalTo(Api.Result.ResultCase.EXCEPTION));
+            assertThat(result.getException().getType(), equalTo(InterruptedByTimeoutException.class.getName()));
+        }
+    }
+
 }
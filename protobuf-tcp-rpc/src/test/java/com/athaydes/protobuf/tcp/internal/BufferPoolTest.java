@@ -0,0 +1,98 @@
+package com.athaydes.protobuf.tcp.internal;
+
+import com.athaydes.protobuf.tcp.api.BufferPoolStatistics;
+import java.nio.ByteBuffer;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class BufferPoolTest {
+
+    @Test
+    public void leasedBuffersHaveSizeClassCapacityAndRequestedLimit() {
+        BufferPool pool = new BufferPool(false, 4);
+
+        ByteBuffer small = pool.lease(10);
+        assertThat(small.capacity(), equalTo(BufferPool.MIN_BUFFER_SIZE));
+        assertThat(small.limit(), equalTo(10));
+        assertThat(small.position(), equalTo(0));
+
+        ByteBuffer medium = pool.lease(1000);
+        assertThat(medium.capacity(), equalTo(1024));
+        assertThat(medium.limit(), equalTo(1000));
+
+        ByteBuffer exact = pool.lease(4096);
+        assertThat(exact.capacity(), equalTo(4096));
+
+        ByteBuffer largest = pool.lease(BufferPool.MAX_BUFFER_SIZE);
+        assertThat(largest.capacity(), equalTo(BufferPool.MAX_BUFFER_SIZE));
+
+        ByteBuffer tooLarge = pool.lease(BufferPool.MAX_BUFFER_SIZE + 1);
+        assertThat(tooLarge.capacity(), equalTo(BufferPool.MAX_BUFFER_SIZE + 1));
+    }
+
+    @Test
+    public void releasedBuffersAreReused() {
+        BufferPool pool = new BufferPool(false, 4);
+
+        ByteBuffer buffer = pool.lease(300);
+        buffer.put((byte) 1);
+        pool.release(buffer);
+
+        ByteBuffer reused = pool.lease(400);
+        assertThat(reused, sameInstance(buffer));
+        assertThat(reused.position(), equalTo(0));
+        assertThat(reused.limit(), equalTo(400));
+
+        BufferPoolStatistics statistics = pool.statistics();
+        assertThat(statistics.getHits(), equalTo(1L));
+        assertThat(statistics.getMisses(), equalTo(1L));
+        assertThat(statistics.getIdleBuffers(), equalTo(0));
+    }
+
+    @Test
+    public void buffersNotAllocatedByThePoolAreNotPooled() {
+        BufferPool pool = new BufferPool(false, 4);
+
+        pool.release(ByteBuffer.allocate(300));
+        pool.release(ByteBuffer.allocateDirect(512));
+        pool.release(pool.lease(BufferPool.MAX_BUFFER_SIZE + 1));
+
+        BufferPoolStatistics statistics = pool.statistics();
+        assertThat(statistics.getIdleBuffers(), equalTo(0));
+        assertThat(statistics.getUnpooled(), equalTo(1L));
+    }
+
+    @Test
+    public void poolKeepsAtMostTheMaximumNumberOfBuffersPerSize() {
+        BufferPool pool = new BufferPool(true, 2);
+
+        ByteBuffer[] buffers = {pool.lease(10), pool.lease(10), pool.lease(10)};
+        for (ByteBuffer buffer : buffers) {
+            assertTrue(buffer.isDirect());
+            pool.release(buffer);
+        }
+
+        BufferPoolStatistics statistics = pool.statistics();
+        assertTrue(statistics.isDirect());
+        assertThat(statistics.getMisses(), equalTo(3L));
+        assertThat(statistics.getIdleBuffers(), equalTo(2));
+        assertThat(statistics.getIdleBytes(), equalTo(2L * BufferPool.MIN_BUFFER_SIZE));
+    }
+
+    @Test
+    public void poolWithoutCapacityNeverReusesBuffers() {
+        BufferPool pool = new BufferPool(false, 0);
+
+        ByteBuffer buffer = pool.lease(10);
+        pool.release(buffer);
+
+        assertFalse(pool.lease(10) == buffer);
+        assertThat(pool.statistics().getMisses(), equalTo(2L));
+    }
+
+}
@@ -0,0 +1,162 @@
+package com.athaydes.protobuf.tcp.internal;
+
+import com.athaydes.protobuf.tcp.api.Coalesce;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CallCoalescerTest {
+
+    private static final Executor directExecutor = Runnable::run;
+
+    public static class NameService {
+        final List<List<Integer>> bulkCalls = Collections.synchronizedList(new ArrayList<>());
+
+        @Coalesce(value = "names", windowMicros = 500_000L, maxBatchSize = 3)
+        public String name(int id) {
+            throw new UnsupportedOperationException("should never be called");
+        }
+
+        public List<String> names(List<Integer> ids) {
+            bulkCalls.add(new ArrayList<>(ids));
+            return ids.stream().map(id -> "name-" + id).collect(toList());
+        }
+    }
+
+    public static class MapService {
+        // both invocations of each test fill the batch long before the window closes, even on a loaded machine
+        @Coalesce(value = "ages", windowMicros = 30_000_000L, maxBatchSize = 2)
+        public int age(String name) {
+            throw new UnsupportedOperationException("should never be called");
+        }
+
+        public Map<String, Integer> ages(List<String> names) {
+            if (names.contains("bad")) {
+                throw new IllegalArgumentException("bad name");
+            }
+            Map<String, Integer> ages = new HashMap<>();
+            for (String name : names) {
+                if (!name.equals("unknown")) {
+                    ages.put(name, name.length());
+                }
+            }
+            return ages;
+        }
+    }
+
+    public static class NoBulkMethodService {
+        @Coalesce("missing")
+        public String name(int id) {
+            return "";
+        }
+    }
+
+    private static CallCoalescer coalescerOf(Object service, String methodName, Class<?> parameterType)
+            throws Exception {
+        Method method = service.getClass().getMethod(methodName, parameterType);
+        return CallCoalescer.forMethods(service, Collections.singletonList(method)).get(method);
+    }
+
+    @Test
+    public void invocationsWithinTheTimeWindowAreCoalesced() throws Exception {
+        NameService service = new NameService();
+        CallCoalescer coalescer = coalescerOf(service, "name", int.class);
+
+        CompletableFuture<Object> first = coalescer.submit(1, directExecutor);
+        CompletableFuture<Object> second = coalescer.submit(2, directExecutor);
+        CompletableFuture<Object> third = coalescer.submit(1, directExecutor);
+
+        assertFalse(first.isDone());
+
+        assertThat(first.get(5, TimeUnit.SECONDS), equalTo("name-1"));
+        assertThat(second.get(5, TimeUnit.SECONDS), equalTo("name-2"));
+        assertThat(third.get(5, TimeUnit.SECONDS), equalTo("name-1"));
+
+        // the bulk method receives distinct arguments only
+        assertThat(service.bulkCalls, equalTo(Collections.singletonList(Arrays.asList(1, 2))));
+    }
+
+    @Test
+    public void bulkMethodIsInvokedAsSoonAsTheBatchIsFull() throws Exception {
+        NameService service = new NameService();
+        CallCoalescer coalescer = coalescerOf(service, "name", int.class);
+
+        List<CompletableFuture<Object>> futures = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            futures.add(coalescer.submit(i, directExecutor));
+        }
+
+        // the first 3 invocations fill a batch, which is run immediately
+        for (int i = 0; i < 3; i++) {
+            assertTrue(futures.get(i).isDone());
+            assertThat(futures.get(i).get(), equalTo("name-" + i));
+        }
+
+        assertThat(futures.get(3).get(5, TimeUnit.SECONDS), equalTo("name-3"));
+
+        assertThat(service.bulkCalls, equalTo(Arrays.asList(
+                Arrays.asList(0, 1, 2),
+                Collections.singletonList(3))));
+    }
+
+    @Test
+    public void bulkMethodMayReturnResultsByArgument() throws Exception {
+        CallCoalescer coalescer = coalescerOf(new MapService(), "age", String.class);
+
+        CompletableFuture<Object> joe = coalescer.submit("joe", directExecutor);
+        CompletableFuture<Object> unknown = coalescer.submit("unknown", directExecutor);
+
+        assertThat(joe.get(5, TimeUnit.SECONDS), equalTo(3));
+        assertThat(unknown.get(5, TimeUnit.SECONDS), nullValue());
+    }
+
+    @Test
+    public void allInvocationsFailIfTheBulkMethodFails() throws Exception {
+        CallCoalescer coalescer = coalescerOf(new MapService(), "age", String.class);
+
+        CompletableFuture<Object> joe = coalescer.submit("joe", directExecutor);
+        CompletableFuture<Object> bad = coalescer.submit("bad", directExecutor);
+
+        for (CompletableFuture<Object> future : Arrays.asList(joe, bad)) {
+            try {
+                future.get(5, TimeUnit.SECONDS);
+                fail("Expected ExecutionException");
+            } catch (ExecutionException e) {
+                assertThat(e.getCause(), instanceOf(IllegalArgumentException.class));
+                assertThat(e.getCause().getMessage(), equalTo("bad name"));
+            }
+        }
+    }
+
+    @Test
+    public void methodsWithoutCoalesceAnnotationAreNotCoalesced() throws Exception {
+        NameService service = new NameService();
+        Method names = NameService.class.getMethod("names", List.class);
+
+        assertTrue(CallCoalescer.forMethods(service, Collections.singletonList(names)).isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void bulkMethodMustExist() throws Exception {
+        coalescerOf(new NoBulkMethodService(), "name", int.class);
+    }
+
+}
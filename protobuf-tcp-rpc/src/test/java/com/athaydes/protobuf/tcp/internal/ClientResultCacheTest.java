@@ -0,0 +1,101 @@
+package com.athaydes.protobuf.tcp.internal;
+
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class ClientResultCacheTest {
+
+    private static final long TTL_NANOS = TimeUnit.MINUTES.toNanos(1L);
+
+    public interface ConfigService {
+        String get(String key);
+
+        String describe(String key);
+    }
+
+    private static List<Object> key(String methodName, Object... args) throws Exception {
+        Method method = ConfigService.class.getMethod(methodName, String.class);
+        return ClientResultCache.keyOf(method, args);
+    }
+
+    @Test
+    public void cachedResultsAreReturnedForEqualArguments() throws Exception {
+        ClientResultCache cache = new ClientResultCache(10);
+
+        assertThat(cache.get(key("get", "a")), sameInstance(ClientResultCache.MISS));
+
+        cache.put(key("get", "a"), "1", TTL_NANOS, cache.version());
+        cache.put(key("get", "b"), null, TTL_NANOS, cache.version());
+
+        assertThat(cache.get(key("get", "a")), equalTo("1"));
+        assertThat(cache.get(key("get", "b")), nullValue());
+        assertThat(cache.get(key("describe", "a")), sameInstance(ClientResultCache.MISS));
+    }
+
+    @Test
+    public void resultsExpireAfterTheirTimeToLive() throws Exception {
+        ClientResultCache cache = new ClientResultCache(10);
+
+        cache.put(key("get", "a"), "1", TimeUnit.MILLISECONDS.toNanos(20L), cache.version());
+
+        Thread.sleep(50L);
+
+        assertThat(cache.get(key("get", "a")), sameInstance(ClientResultCache.MISS));
+        assertThat(cache.size(), equalTo(0));
+    }
+
+    @Test
+    public void leastRecentlyUsedResultsAreEvictedWhenTheCacheIsFull() throws Exception {
+        ClientResultCache cache = new ClientResultCache(2);
+
+        cache.put(key("get", "a"), "1", TTL_NANOS, cache.version());
+        cache.put(key("get", "b"), "2", TTL_NANOS, cache.version());
+
+        // use a, so that b becomes the least recently used result
+        assertThat(cache.get(key("get", "a")), equalTo("1"));
+
+        cache.put(key("get", "c"), "3", TTL_NANOS, cache.version());
+
+        assertThat(cache.size(), equalTo(2));
+        assertThat(cache.get(key("get", "b")), sameInstance(ClientResultCache.MISS));
+        assertThat(cache.get(key("get", "a")), equalTo("1"));
+        assertThat(cache.get(key("get", "c")), equalTo("3"));
+    }
+
+    @Test
+    public void invalidationsRemoveTheResultsOfTheGivenMethods() throws Exception {
+        ClientResultCache cache = new ClientResultCache(10);
+
+        cache.put(key("get", "a"), "1", TTL_NANOS, cache.version());
+        cache.put(key("describe", "a"), "A", TTL_NANOS, cache.version());
+
+        cache.invalidate(Collections.singletonList("get"));
+
+        assertThat(cache.get(key("get", "a")), sameInstance(ClientResultCache.MISS));
+        assertThat(cache.get(key("describe", "a")), equalTo("A"));
+
+        cache.invalidate(Collections.emptyList());
+
+        assertThat(cache.size(), equalTo(0));
+    }
+
+    @Test
+    public void resultsOfCallsStartedBeforeAnInvalidationAreNotCached() throws Exception {
+        ClientResultCache cache = new ClientResultCache(10);
+
+        long version = cache.version();
+        cache.invalidate(Collections.singletonList("describe"));
+        cache.put(key("get", "a"), "1", TTL_NANOS, version);
+
+        assertThat(cache.get(key("get", "a")), sameInstance(ClientResultCache.MISS));
+    }
+
+}
@@ -0,0 +1,184 @@
+package com.athaydes.protobuf.tcp.internal;
+
+import com.athaydes.protobuf.tcp.api.ClientOptions;
+import com.athaydes.protobuf.tcp.api.ConnectionPoolStatistics;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToLongFunction;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class ConnectionPoolTest {
+
+    private static final class FakeConnection implements Closeable {
+        boolean closed = false;
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    private static final ToLongFunction<FakeConnection> NEVER_CLOSED_BY_SERVER = connection -> 0L;
+
+    private final AtomicInteger openCount = new AtomicInteger();
+
+    private FakeConnection open() {
+        openCount.incrementAndGet();
+        return new FakeConnection();
+    }
+
+    @Test
+    public void idleConnectionsAreReused() throws Exception {
+        ConnectionPool<FakeConnection> pool = new ConnectionPool<>(this::open, ClientOptions.defaults(),
+                NEVER_CLOSED_BY_SERVER);
+
+        FakeConnection first = pool.lease();
+        FakeConnection second = pool.lease();
+        pool.release(first);
+        pool.release(second);
+
+        // the most recently released connection is reused first
+        assertThat(pool.lease(), sameInstance(second));
+        assertThat(pool.lease(), sameInstance(first));
+        assertThat(openCount.get(), equalTo(2));
+
+        ConnectionPoolStatistics statistics = pool.getStatistics();
+        assertThat(statistics.getLeasedConnections(), equalTo(2));
+        assertThat(statistics.getIdleConnections(), equalTo(0));
+        assertThat(statistics.getOpenedConnections(), equalTo(2L));
+    }
+
+    @Test
+    public void invalidatedConnectionsAreClosedAndReplaced() throws Exception {
+        ConnectionPool<FakeConnection> pool = new ConnectionPool<>(this::open,
+                ClientOptions.newBuilder().maxConnections(1).leaseTimeoutMillis(0L).build(), NEVER_CLOSED_BY_SERVER);
+
+        FakeConnection connection = pool.lease();
+        pool.invalidate(connection);
+        assertThat(connection.closed, is(true));
+
+        FakeConnection other = pool.lease();
+        assertThat(other.closed, is(false));
+        assertThat(pool.getStatistics().getClosedConnections(), equalTo(1L));
+    }
+
+    @Test
+    public void callersWaitForConnectionsUpToTheLeaseTimeout() throws Exception {
+        ConnectionPool<FakeConnection> pool = new ConnectionPool<>(this::open,
+                ClientOptions.newBuilder().maxConnections(1).leaseTimeoutMillis(5000L).build(), NEVER_CLOSED_BY_SERVER);
+
+        FakeConnection connection = pool.lease();
+
+        CompletableFuture<FakeConnection> waiter = CompletableFuture.supplyAsync(() -> {
+            try {
+                return pool.lease();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+
+        long deadline = System.currentTimeMillis() + 2000L;
+        while (pool.getStatistics().getWaitingCallers() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5L);
+        }
+        assertThat(pool.getStatistics().getWaitingCallers(), equalTo(1));
+
+        pool.release(connection);
+        assertThat(waiter.get(5, TimeUnit.SECONDS), sameInstance(connection));
+        assertThat(openCount.get(), equalTo(1));
+    }
+
+    @Test
+    public void leaseFailsIfNoConnectionBecomesAvailable() throws Exception {
+        ConnectionPool<FakeConnection> pool = new ConnectionPool<>(this::open,
+                ClientOptions.newBuilder().maxConnections(1).leaseTimeoutMillis(20L).build(), NEVER_CLOSED_BY_SERVER);
+
+        pool.lease();
+        try {
+            pool.lease();
+            fail("Expected LeaseTimeoutException");
+        } catch (ConnectionPool.LeaseTimeoutException e) {
+            // expected
+        }
+        assertThat(pool.getStatistics().getLeaseTimeouts(), equalTo(1L));
+    }
+
+    @Test
+    public void connectionsIdleForTooLongAreClosedDownToMinConnections() throws Exception {
+        ConnectionPool<FakeConnection> pool = new ConnectionPool<>(this::open,
+                ClientOptions.newBuilder().minConnections(1).idleTimeoutMillis(20L).build(), NEVER_CLOSED_BY_SERVER);
+
+        FakeConnection first = pool.lease();
+        FakeConnection second = pool.lease();
+        FakeConnection third = pool.lease();
+        pool.release(first);
+        pool.release(second);
+        pool.release(third);
+
+        Thread.sleep(50L);
+
+        ConnectionPoolStatistics statistics = pool.getStatistics();
+        assertThat(statistics.getIdleConnections(), equalTo(1));
+        assertThat(statistics.getClosedConnections(), equalTo(2L));
+
+        // the least recently used connections are closed first
+        assertThat(first.closed, is(true));
+        assertThat(second.closed, is(true));
+        assertThat(third.closed, is(false));
+        assertThat(pool.lease(), sameInstance(third));
+    }
+
+    @Test
+    public void connectionsTheServerMayHaveClosedAreNeverReused() throws Exception {
+        ConnectionPool<FakeConnection> pool = new ConnectionPool<>(this::open,
+                ClientOptions.newBuilder().minConnections(1).idleTimeoutMillis(0L).build(),
+                connection -> TimeUnit.MILLISECONDS.toNanos(20L));
+
+        FakeConnection connection = pool.lease();
+        pool.release(connection);
+
+        Thread.sleep(50L);
+
+        // the connection is closed even though the pool keeps at least one connection open
+        FakeConnection other = pool.lease();
+        assertThat(other, not(sameInstance(connection)));
+        assertThat(connection.closed, is(true));
+        assertThat(openCount.get(), equalTo(2));
+        assertThat(pool.getStatistics().getClosedConnections(), equalTo(1L));
+    }
+
+    @Test
+    public void closingThePoolClosesAllConnections() throws Exception {
+        ConnectionPool<FakeConnection> pool = new ConnectionPool<>(this::open, ClientOptions.defaults(),
+                NEVER_CLOSED_BY_SERVER);
+
+        FakeConnection idle = pool.lease();
+        FakeConnection leased = pool.lease();
+        pool.release(idle);
+
+        pool.close();
+        assertThat(idle.closed, is(true));
+        assertThat(leased.closed, is(false));
+
+        pool.release(leased);
+        assertThat(leased.closed, is(true));
+
+        try {
+            pool.lease();
+            fail("Expected IOException");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+}
@@ -0,0 +1,137 @@
+package com.athaydes.protobuf.tcp.internal;
+
+import com.google.protobuf.CodedOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FrameDecoderTest {
+
+    private final BufferPool pool = new BufferPool(false, 4);
+    private final FrameDecoder decoder = new FrameDecoder(pool);
+
+    private static byte[] frame(int length, byte fill) throws IOException {
+        byte[] frame = new byte[CodedOutputStream.computeUInt32SizeNoTag(length) + length];
+        CodedOutputStream out = CodedOutputStream.newInstance(frame);
+        out.writeUInt32NoTag(length);
+        out.flush();
+        Arrays.fill(frame, frame.length - length, frame.length, fill);
+        return frame;
+    }
+
+    private static byte[] concat(byte[]... arrays) {
+        ByteBuffer buffer = ByteBuffer.allocate(Arrays.stream(arrays).mapToInt(a -> a.length).sum());
+        for (byte[] array : arrays) {
+            buffer.put(array);
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Simulates a socket read of (at most) the given bytes.
+     *
+     * @return number of bytes "read"
+     */
+    private int receive(byte[] bytes, int offset) {
+        ByteBuffer target = decoder.prepareRead();
+        int count = Math.min(target.remaining(), bytes.length - offset);
+        target.put(bytes, offset, count);
+        decoder.onRead();
+        return count;
+    }
+
+    private static void assertFrame(ByteBuffer frame, int length, byte fill) {
+        assertThat(frame.remaining(), equalTo(length));
+        while (frame.hasRemaining()) {
+            assertThat(frame.get(), equalTo(fill));
+        }
+    }
+
+    @Test
+    public void decodesSeveralFramesReceivedInOneRead() throws IOException {
+        receive(concat(frame(3, (byte) 1), frame(200, (byte) 2), frame(1, (byte) 3)), 0);
+
+        assertFrame(decoder.nextFrame(), 3, (byte) 1);
+        assertFrame(decoder.nextFrame(), 200, (byte) 2);
+        assertFrame(decoder.nextFrame(), 1, (byte) 3);
+        assertThat(decoder.nextFrame(), nullValue());
+        assertFalse(decoder.hasPartialFrame());
+    }
+
+    @Test
+    public void decodesFramesSplitAcrossReads() throws IOException {
+        // the length of the second frame takes 2 bytes, split it between reads
+        byte[] first = frame(10, (byte) 1);
+        byte[] bytes = concat(first, frame(300, (byte) 2));
+        int splitAt = first.length + 1;
+
+        receive(Arrays.copyOf(bytes, splitAt), 0);
+        assertFrame(decoder.nextFrame(), 10, (byte) 1);
+        assertThat(decoder.nextFrame(), nullValue());
+        assertTrue(decoder.hasPartialFrame());
+
+        receive(Arrays.copyOfRange(bytes, splitAt, splitAt + 100), 0);
+        assertThat(decoder.nextFrame(), nullValue());
+
+        receive(Arrays.copyOfRange(bytes, splitAt + 100, bytes.length), 0);
+        assertFrame(decoder.nextFrame(), 300, (byte) 2);
+        assertThat(decoder.nextFrame(), nullValue());
+        assertFalse(decoder.hasPartialFrame());
+    }
+
+    @Test
+    public void decodesFramesLargerThanTheReadBuffer() throws IOException {
+        int length = FrameDecoder.READ_BUFFER_SIZE * 3;
+        byte[] bytes = concat(frame(length, (byte) 7), frame(5, (byte) 8));
+
+        int offset = 0;
+        ByteBuffer frame = null;
+        while (frame == null) {
+            offset += receive(bytes, offset);
+            frame = decoder.nextFrame();
+        }
+        assertFrame(frame, length, (byte) 7);
+
+        while (frame == null || frame.remaining() != 5) {
+            frame = decoder.nextFrame();
+            if (frame == null) {
+                offset += receive(bytes, offset);
+            }
+        }
+        assertFrame(frame, 5, (byte) 8);
+        assertThat(offset, equalTo(bytes.length));
+    }
+
+    @Test
+    public void rejectsEmptyFramesAndContinuesWithTheNextOne() throws IOException {
+        receive(concat(new byte[]{0}, frame(4, (byte) 9)), 0);
+
+        try {
+            decoder.nextFrame();
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        assertFrame(decoder.nextFrame(), 4, (byte) 9);
+    }
+
+    @Test
+    public void releasesBuffersToThePool() throws IOException {
+        receive(frame(FrameDecoder.READ_BUFFER_SIZE * 2, (byte) 1), 0);
+        assertThat(decoder.nextFrame(), nullValue());
+
+        decoder.release();
+
+        assertThat(pool.statistics().getIdleBuffers(), equalTo(2));
+    }
+
+}
@@ -0,0 +1,115 @@
+package com.athaydes.protobuf.tcp.internal;
+
+import com.athaydes.protobuf.tcp.api.BufferPoolStatistics;
+import java.io.DataInputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousServerSocketChannel;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class FrameWriterTest {
+
+    private final BufferPool pool = new BufferPool(false, 64);
+
+    private AsynchronousServerSocketChannel serverSocket;
+    private AsynchronousSocketChannel channel;
+    private Socket client;
+
+    @Before
+    public void setup() throws Exception {
+        serverSocket = AsynchronousServerSocketChannel.open().bind(new InetSocketAddress("127.0.0.1", 0));
+        client = new Socket("127.0.0.1", ((InetSocketAddress) serverSocket.getLocalAddress()).getPort());
+        channel = serverSocket.accept().get(5, TimeUnit.SECONDS);
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        client.close();
+        channel.close();
+        serverSocket.close();
+    }
+
+    private ByteBuffer buffer(int index, int size) {
+        ByteBuffer buffer = pool.lease(size);
+        buffer.putInt(index);
+        while (buffer.hasRemaining()) {
+            buffer.put((byte) index);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private boolean allBuffersReturned() {
+        BufferPoolStatistics statistics = pool.statistics();
+        return statistics.getIdleBuffers() == statistics.getMisses();
+    }
+
+    @Test
+    public void writesAllBuffersInOrderEvenIfWritesArePartial() throws Exception {
+        FrameWriter writer = new FrameWriter(channel, pool);
+
+        // the large buffers cannot be written at once, as the client only reads after all writes are submitted
+        int[] sizes = {8, 300_000, 16, 1000, 2_000_000, 64, 5000};
+        for (int i = 0; i < sizes.length; i++) {
+            writer.write(buffer(i, sizes[i]));
+        }
+
+        DataInputStream in = new DataInputStream(client.getInputStream());
+        for (int i = 0; i < sizes.length; i++) {
+            assertThat(in.readInt(), equalTo(i));
+            byte[] rest = new byte[sizes[i] - 4];
+            in.readFully(rest);
+            for (byte b : rest) {
+                assertThat(b, equalTo((byte) i));
+            }
+        }
+
+        // all buffers allocated by the pool are eventually returned to it
+        long deadline = System.currentTimeMillis() + 5000L;
+        while (!allBuffersReturned() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+        assertThat(pool.statistics().getIdleBuffers(), equalTo((int) pool.statistics().getMisses()));
+    }
+
+    @Test
+    public void writesBuffersSubmittedConcurrently() throws Exception {
+        FrameWriter writer = new FrameWriter(channel, pool);
+        int threads = 4;
+        int buffersPerThread = 500;
+
+        Thread[] writers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            writers[t] = new Thread(() -> {
+                for (int i = 0; i < buffersPerThread; i++) {
+                    writer.write(buffer(i, 100));
+                }
+            });
+            writers[t].start();
+        }
+
+        DataInputStream in = new DataInputStream(client.getInputStream());
+        int[] countByIndex = new int[buffersPerThread];
+        for (int i = 0; i < threads * buffersPerThread; i++) {
+            int index = in.readInt();
+            in.readFully(new byte[96]);
+            countByIndex[index]++;
+        }
+
+        for (Thread thread : writers) {
+            thread.join(5000L);
+        }
+        for (int count : countByIndex) {
+            assertThat(count, equalTo(threads));
+        }
+    }
+
+}
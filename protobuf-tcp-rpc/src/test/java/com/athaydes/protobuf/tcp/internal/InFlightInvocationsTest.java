@@ -0,0 +1,77 @@
+package com.athaydes.protobuf.tcp.internal;
+
+import com.athaydes.protobuf.tcp.api.Api;
+import com.athaydes.protobuf.tcp.api.SingleFlight;
+import com.google.protobuf.Any;
+import com.google.protobuf.StringValue;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class InFlightInvocationsTest {
+
+    public static class ReportService {
+        @SingleFlight
+        public String report(String name) {
+            return "report " + name;
+        }
+
+        public String other(String name) {
+            return name;
+        }
+    }
+
+    private final ReportService service = new ReportService();
+
+    private InFlightInvocations inFlightInvocations() throws Exception {
+        return InFlightInvocations.forMethods(service, Arrays.asList(
+                ReportService.class.getMethod("report", String.class),
+                ReportService.class.getMethod("other", String.class)));
+    }
+
+    private static List<Any> args(String value) {
+        return Collections.singletonList(Any.pack(StringValue.newBuilder().setValue(value).build()));
+    }
+
+    @Test
+    public void onlyAnnotatedMethodsAreDeduplicated() throws Exception {
+        InFlightInvocations inFlightInvocations = inFlightInvocations();
+
+        assertTrue(inFlightInvocations.appliesTo(ReportService.class.getMethod("report", String.class)));
+        assertFalse(inFlightInvocations.appliesTo(ReportService.class.getMethod("other", String.class)));
+    }
+
+    @Test
+    public void identicalInvocationsShareTheFlightOfTheFirstOne() throws Exception {
+        InFlightInvocations inFlightInvocations = inFlightInvocations();
+        Method report = ReportService.class.getMethod("report", String.class);
+
+        InFlightInvocations.Flight leader = inFlightInvocations.join(new InvocationKey(report, args("daily")));
+        InFlightInvocations.Flight follower = inFlightInvocations.join(new InvocationKey(report, args("daily")));
+        InFlightInvocations.Flight otherLeader = inFlightInvocations.join(new InvocationKey(report, args("weekly")));
+
+        assertTrue(leader.isLeader());
+        assertFalse(follower.isLeader());
+        assertTrue(otherLeader.isLeader());
+        assertThat(follower.result(), sameInstance(leader.result()));
+        assertThat(inFlightInvocations.size(), equalTo(2));
+
+        Api.Result result = Api.Result.newBuilder().setCallId(1L).build();
+        leader.complete(result);
+
+        assertThat(follower.result().getNow(null), sameInstance(result));
+        assertThat(inFlightInvocations.size(), equalTo(1));
+
+        // invocations received after the flight completes start a new flight
+        assertTrue(inFlightInvocations.join(new InvocationKey(report, args("daily"))).isLeader());
+    }
+
+}
@@ -0,0 +1,45 @@
+package com.athaydes.protobuf.tcp.internal;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class LatencyTrackerTest {
+
+    @Test
+    public void noPercentileIsGivenUntilThereAreEnoughSamples() {
+        LatencyTracker tracker = new LatencyTracker(50.0);
+
+        for (int i = 1; i < LatencyTracker.MIN_SAMPLES; i++) {
+            tracker.record(i);
+        }
+        assertThat(tracker.percentileNanos(), equalTo(-1L));
+
+        tracker.record(LatencyTracker.MIN_SAMPLES);
+        assertThat(tracker.percentileNanos(), equalTo((long) LatencyTracker.MIN_SAMPLES / 2));
+    }
+
+    @Test
+    public void percentileIsEstimatedFromTheMostRecentSamples() {
+        LatencyTracker tracker = new LatencyTracker(90.0);
+
+        for (int i = 1; i <= 100; i++) {
+            tracker.record(i);
+        }
+        // the percentile is computed after every 32 samples, the last time after 96 samples
+        assertThat(tracker.percentileNanos(), equalTo(87L));
+
+        // old samples are replaced by new ones
+        for (int i = 0; i < LatencyTracker.MAX_SAMPLES; i++) {
+            tracker.record(1000L);
+        }
+        assertThat(tracker.percentileNanos(), equalTo(1000L));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void percentileMustBeLessThan100() {
+        new LatencyTracker(100.0);
+    }
+
+}
@@ -0,0 +1,140 @@
+package com.athaydes.protobuf.tcp.internal;
+
+import com.athaydes.protobuf.tcp.api.Api;
+import com.google.protobuf.Any;
+import com.google.protobuf.Int64Value;
+import com.google.protobuf.StringValue;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+
+public class MethodDispatchTableTest {
+
+    public static class OverloadedService {
+        public String call() {
+            return "no args";
+        }
+
+        public String call(int i) {
+            return "int " + i;
+        }
+
+        public String call(String s) {
+            return "String " + s;
+        }
+
+        public String call(char c) {
+            return "char " + c;
+        }
+
+        public String call(long l, String s) {
+            return "long, String " + l + ", " + s;
+        }
+
+        public String call(Int64Value value) {
+            return "Int64Value " + value.getValue();
+        }
+
+        public String call(Thread thread) {
+            return "cannot be called remotely";
+        }
+    }
+
+    private final OverloadedService service = new OverloadedService();
+
+    private final MethodDispatchTable table = MethodDispatchTable.of(
+            MethodResolver.resolveMethods(service, new Class[0]));
+
+    private static Any arg(Object value) {
+        return ProtobufInvocationHandler.packedMessage(value);
+    }
+
+    private String invoke(String methodName, Any... args) throws Exception {
+        Optional<MethodInvocationResolver.ResolvedInvocationInfo> info = table.resolve(methodName, Arrays.asList(args));
+        MethodInvocationResolver.ResolvedInvocationInfo resolved =
+                info.orElseThrow(() -> new AssertionError("Method not resolved"));
+        return resolved.packResult(resolved.invokeOn(service))
+                .unpack(StringValue.class)
+                .getValue();
+    }
+
+    @Test
+    public void resolvesOverloadsByArgumentTypes() throws Exception {
+        assertThat(invoke("call"), equalTo("no args"));
+        assertThat(invoke("call", arg(10)), equalTo("int 10"));
+        assertThat(invoke("call", arg(20L), arg("hi")), equalTo("long, String 20, hi"));
+        assertThat(invoke("call", arg(Int64Value.newBuilder().setValue(30L).build())),
+                equalTo("Int64Value 30"));
+    }
+
+    @Test
+    public void resolvesOverloadsWithTheSameProtobufTypeByArgumentValues() throws Exception {
+        // String and char are both sent as StringValue, but only String accepts values longer than 1 char
+        assertThat(invoke("call", arg("hello")), equalTo("String hello"));
+    }
+
+    @Test
+    public void doesNotResolveInvocationsWithoutMatchingMethod() {
+        List<Any> wrongTypes = Collections.singletonList(arg(true));
+        List<Any> wrongArity = Arrays.asList(arg(1), arg(2));
+
+        assertFalse(table.resolve("call", wrongTypes).isPresent());
+        assertFalse(table.resolve("call", wrongArity).isPresent());
+        assertFalse(table.resolve("other", Collections.emptyList()).isPresent());
+    }
+
+    @Test
+    public void publishesMethodTableAndResolvesInvocationsById() throws Exception {
+        Api.MethodTable methodTable = table.getMethodTable();
+
+        // the call(Thread) method cannot be invoked remotely, so it is not in the table
+        assertThat(methodTable.getMethodsCount(), equalTo(6));
+
+        Api.MethodEntry longStringEntry = methodTable.getMethodsList().stream()
+                .filter(e -> e.getParameterTypesList().equals(Arrays.asList(
+                        "google.protobuf.Int64Value", "google.protobuf.StringValue")))
+                .findFirst()
+                .orElseThrow(() -> new AssertionError("Method not found in method table"));
+
+        assertThat(longStringEntry.getName(), equalTo("call"));
+
+        MethodInvocationResolver.ResolvedInvocationInfo resolved =
+                table.resolve(longStringEntry.getId(), Arrays.asList(arg(5L), arg("five")))
+                        .orElseThrow(() -> new AssertionError("Method not resolved"));
+        String result = resolved.packResult(resolved.invokeOn(service))
+                .unpack(StringValue.class)
+                .getValue();
+
+        assertThat(result, equalTo("long, String 5, five"));
+    }
+
+    @Test
+    public void doesNotResolveInvocationsByIdWithWrongArguments() throws Exception {
+        Api.MethodTable methodTable = table.getMethodTable();
+        int maxId = methodTable.getMethodsList().stream().mapToInt(Api.MethodEntry::getId).max().orElse(0);
+        int noArgsId = methodTable.getMethodsList().stream()
+                .filter(e -> e.getParameterTypesCount() == 0)
+                .findFirst()
+                .orElseThrow(() -> new AssertionError("Method not found in method table"))
+                .getId();
+
+        assertFalse(table.resolve(maxId + 1, Collections.emptyList()).isPresent());
+        assertFalse(table.resolve(-1, Collections.emptyList()).isPresent());
+        assertFalse(table.resolve(noArgsId, Collections.singletonList(arg(1))).isPresent());
+        assertThat(table.resolve(noArgsId, Collections.emptyList()).isPresent(), equalTo(true));
+    }
+
+    @Test
+    public void doesNotResolveArgumentsWithUnknownTypes() {
+        Any unknown = Any.newBuilder().setTypeUrl("type.googleapis.com/java.lang.Thread").build();
+
+        assertFalse(table.resolve("call", Collections.singletonList(unknown)).isPresent());
+    }
+
+}
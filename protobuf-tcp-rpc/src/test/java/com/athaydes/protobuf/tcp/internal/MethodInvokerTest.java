@@ -0,0 +1,103 @@
+package com.athaydes.protobuf.tcp.internal;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class MethodInvokerTest {
+
+    public static class Service {
+        public int add(int a, int b) {
+            return a + b;
+        }
+
+        public void nothing() {
+        }
+
+        public String fail(String message) {
+            throw new IllegalStateException(message);
+        }
+
+        public String concat(String a, char b, int c, long d) {
+            return a + b + c + d;
+        }
+
+        public static String staticMethod(String value) {
+            return "static " + value;
+        }
+    }
+
+    static class NonPublicService {
+        public String hello() {
+            return "hello";
+        }
+    }
+
+    private static Method method(Class<?> type, String name) {
+        for (Method method : type.getMethods()) {
+            if (method.getName().equals(name)) {
+                return method;
+            }
+        }
+        throw new AssertionError("Method not found: " + name);
+    }
+
+    @Test
+    public void invokesMethodsWithPrimitiveParametersAndReturnType() throws Exception {
+        MethodInvoker invoker = MethodInvoker.of(method(Service.class, "add"));
+
+        assertThat(invoker, instanceOf(MethodInvoker.Lambda2Invoker.class));
+        assertThat(invoker.invoke(new Service(), new Object[]{2, 3}), equalTo(5));
+    }
+
+    @Test
+    public void invokesVoidMethods() throws Exception {
+        MethodInvoker invoker = MethodInvoker.of(method(Service.class, "nothing"));
+
+        assertThat(invoker, instanceOf(MethodInvoker.MethodHandleInvoker.class));
+        assertThat(invoker.invoke(new Service(), new Object[0]), nullValue());
+    }
+
+    @Test
+    public void invokesStaticMethods() throws Exception {
+        MethodInvoker invoker = MethodInvoker.of(method(Service.class, "staticMethod"));
+
+        assertThat(invoker.invoke(new Service(), new Object[]{"hi"}), equalTo("static hi"));
+    }
+
+    @Test
+    public void invokesMethodsWithManyParameters() throws Exception {
+        MethodInvoker invoker = MethodInvoker.of(method(Service.class, "concat"));
+
+        assertThat(invoker, instanceOf(MethodInvoker.MethodHandleInvoker.class));
+        assertThat(invoker.invoke(new Service(), new Object[]{"a", 'b', 3, 4L}), equalTo("ab34"));
+    }
+
+    @Test
+    public void exceptionsThrownByTheMethodAreWrapped() throws Exception {
+        MethodInvoker invoker = MethodInvoker.of(method(Service.class, "fail"));
+
+        try {
+            invoker.invoke(new Service(), new Object[]{"oops"});
+            fail("Expected InvocationTargetException");
+        } catch (InvocationTargetException e) {
+            assertThat(e.getCause(), instanceOf(IllegalStateException.class));
+            assertThat(e.getCause().getMessage(), equalTo("oops"));
+        }
+    }
+
+    @Test
+    public void methodsOfNonPublicClassesAreInvokedViaReflection() throws Exception {
+        MethodInvoker invoker = MethodInvoker.of(method(NonPublicService.class, "hello"));
+
+        assertThat(invoker, instanceOf(MethodInvoker.ReflectionInvoker.class));
+        assertThat(invoker.invoke(new NonPublicService(), new Object[0]), equalTo("hello"));
+    }
+
+}
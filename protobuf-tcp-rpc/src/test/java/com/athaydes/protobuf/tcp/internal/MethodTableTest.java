@@ -0,0 +1,175 @@
+package com.athaydes.protobuf.tcp.internal;
+
+import com.athaydes.protobuf.tcp.api.Api;
+import com.athaydes.protobuf.tcp.api.ServerOptions;
+import com.google.protobuf.Any;
+import com.google.protobuf.StringValue;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import org.junit.After;
+import org.junit.Test;
+
+import static java.util.Collections.singletonMap;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class MethodTableTest {
+
+    private static final int PORT = 5560;
+
+    public interface GreetingService {
+        String greet(String name);
+
+        String greet(String greeting, String name);
+    }
+
+    public static class GreetingServiceImpl implements GreetingService {
+        @Override
+        public String greet(String name) {
+            return "Hello " + name;
+        }
+
+        @Override
+        public String greet(String greeting, String name) {
+            return greeting + " " + name;
+        }
+    }
+
+    private final ProtobufServer<?> server = new ProtobufServer<>(new GreetingServiceImpl(), PORT,
+            ServerOptions.defaults(), GreetingService.class);
+
+    @After
+    public void cleanup() {
+        server.close();
+    }
+
+    private static Any arg(String value) {
+        return Any.pack(StringValue.newBuilder().setValue(value).build());
+    }
+
+    private static Api.Result call(Socket socket, Api.MethodInvocation invocation) throws Exception {
+        OutputStream out = socket.getOutputStream();
+        InputStream in = socket.getInputStream();
+        invocation.writeDelimitedTo(out);
+        out.flush();
+        return Api.Result.parseDelimitedFrom(in);
+    }
+
+    @Test
+    public void clientsCanInvokeMethodsByIdAfterRequestingTheMethodTable() throws Exception {
+        server.run();
+
+        try (Socket socket = new Socket("127.0.0.1", PORT)) {
+            Api.Result result = call(socket, Api.MethodInvocation.newBuilder()
+                    .setMethodName(MethodDispatchTable.METHOD_TABLE_METHOD_NAME)
+                    .build());
+
+            Api.MethodTable methodTable = result.getSuccessResult().unpack(Api.MethodTable.class);
+            assertThat(methodTable.getMethodsCount(), equalTo(2));
+            assertThat(methodTable.getIdleTimeoutMillis(), equalTo(ServerOptions.defaults().getIdleTimeoutMillis()));
+
+            Api.MethodEntry twoArgsGreet = methodTable.getMethodsList().stream()
+                    .filter(e -> e.getParameterTypesCount() == 2)
+                    .findFirst()
+                    .orElseThrow(() -> new AssertionError("Method not found in method table"));
+
+            result = call(socket, Api.MethodInvocation.newBuilder()
+                    .setMethodId(twoArgsGreet.getId())
+                    .addArgs(arg("Hi"))
+                    .addArgs(arg("Mary"))
+                    .build());
+
+            assertThat(result.getSuccessResult().unpack(StringValue.class).getValue(), equalTo("Hi Mary"));
+
+            // invocation by name still works
+            result = call(socket, Api.MethodInvocation.newBuilder()
+                    .setMethodName("greet")
+                    .addArgs(arg("Joe"))
+                    .build());
+
+            assertThat(result.getSuccessResult().unpack(StringValue.class).getValue(), equalTo("Hello Joe"));
+
+            // unknown IDs are rejected
+            result = call(socket, Api.MethodInvocation.newBuilder()
+                    .setMethodId(100)
+                    .build());
+
+            assertThat(result.getException().getType(), equalTo(NoSuchMethodException.class.getName()));
+        }
+    }
+
+    @Test
+    public void typeUrlsAreCompactedAfterTheClientAsksForIt() throws Exception {
+        server.run();
+
+        try (Socket socket = new Socket("127.0.0.1", PORT)) {
+            Api.Result result = call(socket, Api.MethodInvocation.newBuilder()
+                    .setMethodName(MethodDispatchTable.METHOD_TABLE_METHOD_NAME)
+                    .addArgs(Any.pack(Api.Handshake.newBuilder().setCompactTypeUrls(true).build()))
+                    .build());
+
+            Api.MethodTable methodTable = result.getSuccessResult().unpack(Api.MethodTable.class);
+            assertThat(methodTable.getCompactTypeUrls(), is(true));
+
+            String stringTypeUrl = arg("").getTypeUrl();
+
+            // the client registers the String type in the first invocation that uses it
+            result = call(socket, Api.MethodInvocation.newBuilder()
+                    .setMethodName("greet")
+                    .addArgs(arg("Joe").toBuilder().setTypeUrl("#1"))
+                    .putTypeUrls(1, stringTypeUrl)
+                    .build());
+
+            assertThat(result.getSuccessResult().getTypeUrl(), equalTo("#1"));
+            assertThat(result.getTypeUrlsMap(), equalTo(singletonMap(1, stringTypeUrl)));
+            assertThat(StringValue.parseFrom(result.getSuccessResult().getValue()).getValue(), equalTo("Hello Joe"));
+
+            // afterwards, neither side sends the type URL again
+            result = call(socket, Api.MethodInvocation.newBuilder()
+                    .setMethodName("greet")
+                    .addArgs(arg("Mary").toBuilder().setTypeUrl("#1"))
+                    .build());
+
+            assertThat(result.getSuccessResult().getTypeUrl(), equalTo("#1"));
+            assertThat(result.getTypeUrlsCount(), equalTo(0));
+            assertThat(StringValue.parseFrom(result.getSuccessResult().getValue()).getValue(), equalTo("Hello Mary"));
+
+            // unknown type IDs are rejected
+            result = call(socket, Api.MethodInvocation.newBuilder()
+                    .setMethodName("greet")
+                    .addArgs(arg("Mary").toBuilder().setTypeUrl("#2"))
+                    .build());
+
+            assertThat(result.hasException(), is(true));
+        }
+    }
+
+    @Test
+    public void typeUrlsAreNotCompactedIfDisabledInTheServer() throws Exception {
+        ProtobufServer<?> server = new ProtobufServer<>(new GreetingServiceImpl(), PORT + 1,
+                ServerOptions.newBuilder().compactTypeUrls(false).build(), GreetingService.class);
+        server.run();
+
+        try (Socket socket = new Socket("127.0.0.1", PORT + 1)) {
+            Api.Result result = call(socket, Api.MethodInvocation.newBuilder()
+                    .setMethodName(MethodDispatchTable.METHOD_TABLE_METHOD_NAME)
+                    .addArgs(Any.pack(Api.Handshake.newBuilder().setCompactTypeUrls(true).build()))
+                    .build());
+
+            assertThat(result.getSuccessResult().unpack(Api.MethodTable.class).getCompactTypeUrls(), is(false));
+
+            result = call(socket, Api.MethodInvocation.newBuilder()
+                    .setMethodName("greet")
+                    .addArgs(arg("Joe"))
+                    .build());
+
+            assertThat(result.getSuccessResult().unpack(StringValue.class).getValue(), equalTo("Hello Joe"));
+            assertThat(result.getTypeUrlsCount(), equalTo(0));
+        } finally {
+            server.close();
+        }
+    }
+
+}
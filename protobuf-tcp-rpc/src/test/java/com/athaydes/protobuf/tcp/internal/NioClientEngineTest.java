@@ -0,0 +1,191 @@
+package com.athaydes.protobuf.tcp.internal;
+
+import com.athaydes.protobuf.tcp.api.ClientOptions;
+import com.athaydes.protobuf.tcp.api.ConnectionPoolStatistics;
+import com.athaydes.protobuf.tcp.api.RemoteServices;
+import com.athaydes.protobuf.tcp.api.ServerOptions;
+import com.athaydes.protobuf.tcp.api.ServiceReference;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+
+public class NioClientEngineTest {
+
+    private static final int PORT = 5570;
+
+    public interface EchoService {
+        String echo(String message);
+    }
+
+    public static class BlockingEchoService implements EchoService {
+        final CountDownLatch latch = new CountDownLatch(1);
+
+        @Override
+        public String echo(String message) {
+            try {
+                latch.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return message;
+        }
+    }
+
+    private final ClientOptions options = ClientOptions.newBuilder()
+            .multiplexedConnections(1)
+            .build();
+
+    private final List<Closeable> closeables = new ArrayList<>();
+
+    @After
+    public void cleanup() {
+        closeables.forEach(Utils::closeQuietly);
+    }
+
+    private ServiceReference<?> startServer(EchoService service, ServerOptions serverOptions) {
+        ServiceReference<?> server = RemoteServices.createService(service, PORT, serverOptions, EchoService.class);
+        closeables.add(server);
+        server.run();
+        return server;
+    }
+
+    private EchoService createClient() {
+        return createClient(options);
+    }
+
+    private EchoService createClient(ClientOptions options) {
+        EchoService client = RemoteServices.createClient(EchoService.class, "127.0.0.1", PORT, options);
+        closeables.add((Closeable) client);
+        return client;
+    }
+
+    @Test
+    public void concurrentCallsShareASingleConnection() throws Exception {
+        BlockingEchoService service = new BlockingEchoService();
+        startServer(service, ServerOptions.newBuilder().workerThreads(64).build());
+
+        EchoService client = createClient();
+        EchoService otherClient = createClient();
+
+        int calls = 50;
+        ExecutorService callers = Executors.newFixedThreadPool(calls);
+        try {
+            List<CompletableFuture<String>> responses = new ArrayList<>(calls);
+            for (int i = 0; i < calls; i++) {
+                EchoService caller = i % 2 == 0 ? client : otherClient;
+                String message = "message-" + i;
+                responses.add(CompletableFuture.supplyAsync(() -> caller.echo(message), callers));
+            }
+
+            // all calls are in flight at the same time over the same connection
+            long deadline = System.currentTimeMillis() + 5000L;
+            while (RemoteServices.getConnectionPoolStatistics(client).getInFlightCalls() < calls &&
+                    System.currentTimeMillis() < deadline) {
+                Thread.sleep(10L);
+            }
+
+            ConnectionPoolStatistics statistics = RemoteServices.getConnectionPoolStatistics(otherClient);
+            assertThat(statistics.getInFlightCalls(), equalTo(calls));
+            assertThat(statistics.getOpenedConnections(), equalTo(1L));
+            assertThat(statistics.getLeasedConnections(), equalTo(1));
+
+            service.latch.countDown();
+
+            for (int i = 0; i < calls; i++) {
+                assertThat(responses.get(i).get(5, TimeUnit.SECONDS), equalTo("message-" + i));
+            }
+        } finally {
+            callers.shutdown();
+        }
+
+        ConnectionPoolStatistics statistics = RemoteServices.getConnectionPoolStatistics(client);
+        assertThat(statistics.getInFlightCalls(), equalTo(0));
+        assertThat(statistics.getIdleConnections(), equalTo(1));
+    }
+
+    @Test
+    public void clientReconnectsAfterTheServerClosesTheConnection() throws Exception {
+        BlockingEchoService service = new BlockingEchoService();
+        service.latch.countDown();
+
+        // closing the server shuts down its dedicated I/O thread, which closes all of its connections
+        ServerOptions serverOptions = ServerOptions.newBuilder().ioThreads(1).build();
+
+        ServiceReference<?> server = startServer(service, serverOptions);
+        EchoService client = createClient();
+
+        assertThat(client.echo("first"), equalTo("first"));
+
+        server.close();
+        startServer(service, serverOptions);
+
+        assertThat(client.echo("second"), equalTo("second"));
+
+        ConnectionPoolStatistics statistics = RemoteServices.getConnectionPoolStatistics(client);
+        assertThat(statistics.getOpenedConnections(), equalTo(2L));
+        assertThat(statistics.getClosedConnections(), equalTo(1L));
+    }
+
+    @Test
+    public void clientsWithDifferentConnectTimeoutsDoNotShareConnections() {
+        BlockingEchoService service = new BlockingEchoService();
+        service.latch.countDown();
+        startServer(service, ServerOptions.defaults());
+
+        EchoService client = createClient();
+        EchoService otherClient = createClient(options.toBuilder()
+                .connectTimeoutMillis(options.getConnectTimeoutMillis() + 1000L)
+                .build());
+
+        assertThat(client.echo("hi"), equalTo("hi"));
+
+        assertThat(RemoteServices.getConnectionPoolStatistics(client).getOpenedConnections(), equalTo(1L));
+        assertThat(RemoteServices.getConnectionPoolStatistics(otherClient).getOpenedConnections(), equalTo(0L));
+    }
+
+    @Test
+    public void callsMadeWithinTheBatchWindowAreSentTogether() throws Exception {
+        BlockingEchoService service = new BlockingEchoService() {
+            @Override
+            public String echo(String message) {
+                return message.equals("wait") ? super.echo(message) : message;
+            }
+        };
+        startServer(service, ServerOptions.newBuilder().workerThreads(4).build());
+
+        // the batch is sent as soon as it is full, long before the window closes
+        EchoService client = createClient(options.toBuilder()
+                .batchWindowMicros(TimeUnit.SECONDS.toMicros(30))
+                .maxBatchSize(2)
+                .build());
+
+        ExecutorService callers = Executors.newFixedThreadPool(2);
+        try {
+            CompletableFuture<String> slowResponse = CompletableFuture.supplyAsync(() -> client.echo("wait"), callers);
+            CompletableFuture<String> fastResponse = CompletableFuture.supplyAsync(() -> client.echo("fast"), callers);
+
+            // the results of a batch are sent together, so the fast call must wait for the slow one
+            Thread.sleep(200L);
+            assertFalse(fastResponse.isDone());
+
+            service.latch.countDown();
+
+            assertThat(slowResponse.get(5, TimeUnit.SECONDS), equalTo("wait"));
+            assertThat(fastResponse.get(5, TimeUnit.SECONDS), equalTo("fast"));
+        } finally {
+            callers.shutdown();
+        }
+    }
+
+}
@@ -0,0 +1,213 @@
+package com.athaydes.protobuf.tcp.internal;
+
+import com.athaydes.protobuf.tcp.api.Api;
+import com.athaydes.protobuf.tcp.api.ServerOptions;
+import com.google.protobuf.Any;
+import com.google.protobuf.StringValue;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class PipelinedCallsTest {
+
+    private static final int PORT = 5559;
+
+    public interface EchoService {
+        String echo(String message);
+    }
+
+    public static class BlockingEchoService implements EchoService {
+        final CountDownLatch latch = new CountDownLatch(1);
+
+        @Override
+        public String echo(String message) {
+            if (message.equals("wait")) try {
+                latch.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return message;
+        }
+    }
+
+    private final BlockingEchoService service = new BlockingEchoService();
+
+    private final ProtobufServer<?> server = new ProtobufServer<>(service, PORT,
+            ServerOptions.newBuilder().workerThreads(2).idleTimeoutMillis(1000L).build(), EchoService.class);
+
+    @After
+    public void cleanup() {
+        service.latch.countDown();
+        server.close();
+    }
+
+    private static Api.MethodInvocation echo(String message, long callId) {
+        return Api.MethodInvocation.newBuilder()
+                .setMethodName("echo")
+                .addArgs(Any.pack(StringValue.newBuilder().setValue(message).build()))
+                .setCallId(callId)
+                .build();
+    }
+
+    private static String valueOf(Api.Result result) throws Exception {
+        return result.getSuccessResult().unpack(StringValue.class).getValue();
+    }
+
+    @Test
+    public void resultsOfPipelinedCallsCanArriveOutOfOrder() throws Exception {
+        server.run();
+
+        try (Socket socket = new Socket("127.0.0.1", PORT)) {
+            OutputStream out = socket.getOutputStream();
+            InputStream in = socket.getInputStream();
+
+            // send two invocations without waiting for the result of the first one
+            echo("wait", 1L).writeDelimitedTo(out);
+            echo("hello", 2L).writeDelimitedTo(out);
+            out.flush();
+
+            // the second call completes first
+            Api.Result result = Api.Result.parseDelimitedFrom(in);
+            assertThat(result.getCallId(), equalTo(2L));
+            assertThat(valueOf(result), equalTo("hello"));
+
+            // let the first call complete
+            service.latch.countDown();
+
+            result = Api.Result.parseDelimitedFrom(in);
+            assertThat(result.getCallId(), equalTo(1L));
+            assertThat(valueOf(result), equalTo("wait"));
+        }
+    }
+
+    @Test
+    public void invocationsWithoutCallIdReceiveResultsInOrder() throws Exception {
+        server.run();
+
+        try (Socket socket = new Socket("127.0.0.1", PORT)) {
+            OutputStream out = socket.getOutputStream();
+            InputStream in = socket.getInputStream();
+
+            for (String message : new String[]{"one", "two", "three"}) {
+                echo(message, 0L).writeDelimitedTo(out);
+            }
+            out.flush();
+
+            for (String message : new String[]{"one", "two", "three"}) {
+                Api.Result result = Api.Result.parseDelimitedFrom(in);
+                assertThat(result.getCallId(), equalTo(0L));
+                assertThat(valueOf(result), equalTo(message));
+            }
+        }
+    }
+
+    @Test
+    public void resultsOfBatchedCallsAreSentTogether() throws Exception {
+        server.run();
+
+        try (Socket socket = new Socket("127.0.0.1", PORT)) {
+            OutputStream out = socket.getOutputStream();
+            InputStream in = socket.getInputStream();
+
+            Api.MethodInvocation.newBuilder()
+                    .setBatch(Api.InvocationBatch.newBuilder()
+                            .addInvocations(echo("wait", 1L))
+                            .addInvocations(echo("ignored", 0L).toBuilder().setOneWay(true))
+                            .addInvocations(echo("hello", 2L)))
+                    .build()
+                    .writeDelimitedTo(out);
+            out.flush();
+
+            // the result of the second call is only sent once the first call completes
+            service.latch.countDown();
+
+            Api.Result result = Api.Result.parseDelimitedFrom(in);
+            assertThat(result.getBatch().getResultsCount(), equalTo(2));
+
+            Map<Long, String> valuesByCallId = new HashMap<>();
+            for (Api.Result batchResult : result.getBatch().getResultsList()) {
+                valuesByCallId.put(batchResult.getCallId(), valueOf(batchResult));
+            }
+            assertThat(valuesByCallId.get(1L), equalTo("wait"));
+            assertThat(valuesByCallId.get(2L), equalTo("hello"));
+
+            // invocations that are not batched can still be sent on the same connection
+            echo("after", 3L).writeDelimitedTo(out);
+            out.flush();
+
+            result = Api.Result.parseDelimitedFrom(in);
+            assertThat(result.getCallId(), equalTo(3L));
+            assertThat(valueOf(result), equalTo("after"));
+        }
+    }
+
+    @Test
+    public void connectionIsClosedWhenIdleAfterPipelinedCallsComplete() throws Exception {
+        server.run();
+
+        try (Socket socket = new Socket("127.0.0.1", PORT)) {
+            socket.setSoTimeout(10_000);
+            OutputStream out = socket.getOutputStream();
+            InputStream in = socket.getInputStream();
+
+            // the server reads the next invocation while this call is still running
+            echo("hello", 7L).writeDelimitedTo(out);
+            out.flush();
+
+            Api.Result result = Api.Result.parseDelimitedFrom(in);
+            assertThat(result.getCallId(), equalTo(7L));
+            assertThat(valueOf(result), equalTo("hello"));
+
+            // the server closes the connection once it has been idle for long enough
+            long startTime = System.nanoTime();
+            assertThat(Api.Result.parseDelimitedFrom(in), nullValue());
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+            assertTrue("Connection closed after " + elapsedMillis + "ms", elapsedMillis < 3_000L);
+        }
+    }
+
+    @Test
+    public void connectionIsClosedWhenIdleIfTheCallCompletesWhileTheNextReadIsIssued() throws Exception {
+        server.run();
+
+        // calls that return immediately often complete while the server is issuing its next read
+        List<Socket> sockets = new ArrayList<>();
+        try {
+            for (int i = 0; i < 100; i++) {
+                Socket socket = new Socket("127.0.0.1", PORT);
+                sockets.add(socket);
+                socket.setSoTimeout(10_000);
+                echo("hello", i + 1L).writeDelimitedTo(socket.getOutputStream());
+                socket.getOutputStream().flush();
+            }
+
+            long startTime = System.nanoTime();
+            for (int i = 0; i < sockets.size(); i++) {
+                InputStream in = sockets.get(i).getInputStream();
+                Api.Result result = Api.Result.parseDelimitedFrom(in);
+                assertThat(result.getCallId(), equalTo(i + 1L));
+
+                // the server closes every connection once it has been idle for long enough
+                assertThat(Api.Result.parseDelimitedFrom(in), nullValue());
+            }
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+            assertTrue("Connections closed after " + elapsedMillis + "ms", elapsedMillis < 3_000L);
+        } finally {
+            sockets.forEach(Utils::closeQuietly);
+        }
+    }
+
+}
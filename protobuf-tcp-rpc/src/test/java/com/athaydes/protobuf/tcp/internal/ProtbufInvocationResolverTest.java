@@ -10,6 +10,8 @@ import com.google.protobuf.StringValue;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import java.util.stream.LongStream;
 import org.junit.Test;
 
@@ -18,6 +20,31 @@ import static org.junit.Assert.fail;
 
 public class ProtbufInvocationResolverTest {
 
+    interface AsyncMethods {
+        CompletableFuture<String> string();
+
+        CompletionStage<Integer> integer();
+
+        CompletableFuture<Void> none();
+
+        CompletableFuture<List<String>> list();
+
+        @SuppressWarnings("rawtypes")
+        CompletableFuture raw();
+
+        long sync();
+    }
+
+    @Test
+    public void canFindResultTypeOfAsyncMethods() throws NoSuchMethodException {
+        assertEquals(String.class, MethodInvocationResolver.resultTypeOf(AsyncMethods.class.getMethod("string")));
+        assertEquals(Integer.class, MethodInvocationResolver.resultTypeOf(AsyncMethods.class.getMethod("integer")));
+        assertEquals(Void.class, MethodInvocationResolver.resultTypeOf(AsyncMethods.class.getMethod("none")));
+        assertEquals(List.class, MethodInvocationResolver.resultTypeOf(AsyncMethods.class.getMethod("list")));
+        assertEquals(Object.class, MethodInvocationResolver.resultTypeOf(AsyncMethods.class.getMethod("raw")));
+        assertEquals(long.class, MethodInvocationResolver.resultTypeOf(AsyncMethods.class.getMethod("sync")));
+    }
+
     @Test
     public void canConvertObjectToMessage() throws InvalidProtocolBufferException {
         StringValue stringValue = StringValue.newBuilder().setValue("hi").build();
@@ -76,7 +103,7 @@ public class ProtbufInvocationResolverTest {
                 long startTime = System.nanoTime();
 
                 // unpack
-                Object unpacked = MethodInvocationResolver.tryConvert(packedMessage, expectedValue.getClass());
+                Object unpacked = MethodInvocationResolver.convert(packedMessage, expectedValue.getClass());
                 unpackingTimes[index++] = System.nanoTime() - startTime;
 
                 // verify value
@@ -87,7 +114,7 @@ public class ProtbufInvocationResolverTest {
         // print performance report
         System.out.println("packedMessage() performance (ns): " + Arrays.toString(packingTimes));
         System.out.println("Average without 5 max outliers (ns): " + avg(packingTimes));
-        System.out.println("tryConvert() performance (ns): " + Arrays.toString(unpackingTimes));
+        System.out.println("convert() performance (ns): " + Arrays.toString(unpackingTimes));
         System.out.println("Average without 5 max outliers (ns): " + avg(unpackingTimes));
     }
 
@@ -0,0 +1,150 @@
+package com.athaydes.protobuf.tcp.internal;
+
+import com.athaydes.protobuf.tcp.api.Cacheable;
+import com.athaydes.protobuf.tcp.api.ResultCacheStatistics;
+import com.google.protobuf.Any;
+import com.google.protobuf.StringValue;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class ResultCacheTest {
+
+    public static class PriceService {
+        @Cacheable(ttlMillis = 60_000L)
+        public String price(String item) {
+            return "1.00";
+        }
+
+        @Cacheable(ttlMillis = 20L)
+        public String quote(String item) {
+            return "1.00";
+        }
+
+        public String other(String item) {
+            return item;
+        }
+    }
+
+    private final PriceService service = new PriceService();
+
+    private ResultCache resultCache(long maxBytes) throws Exception {
+        return ResultCache.forMethods(service, Arrays.asList(
+                method("price"), method("quote"), method("other")), maxBytes);
+    }
+
+    private static Method method(String name) throws Exception {
+        return PriceService.class.getMethod(name, String.class);
+    }
+
+    private static Any any(String value) {
+        return Any.pack(StringValue.newBuilder().setValue(value).build());
+    }
+
+    private static InvocationKey key(String methodName, String arg) throws Exception {
+        return new InvocationKey(method(methodName), Collections.singletonList(any(arg)));
+    }
+
+    @Test
+    public void onlyAnnotatedMethodsAreCached() throws Exception {
+        ResultCache resultCache = resultCache(1024L);
+
+        assertTrue(resultCache.isEnabled());
+        assertTrue(resultCache.appliesTo(method("price")));
+        assertFalse(resultCache.appliesTo(method("other")));
+    }
+
+    @Test
+    public void cacheCanBeDisabled() throws Exception {
+        ResultCache resultCache = resultCache(0L);
+
+        assertFalse(resultCache.isEnabled());
+        assertFalse(resultCache.appliesTo(method("price")));
+    }
+
+    @Test
+    public void cachedResultsAreReturnedForIdenticalInvocations() throws Exception {
+        ResultCache resultCache = resultCache(1024L);
+        Any result = any("2.50");
+
+        assertThat(resultCache.get(key("price", "apple")), nullValue());
+
+        resultCache.put(key("price", "apple"), result, resultCache.version());
+
+        assertThat(resultCache.get(key("price", "apple")), sameInstance(result));
+        assertThat(resultCache.get(key("price", "pear")), nullValue());
+
+        ResultCacheStatistics statistics = resultCache.statistics();
+        assertThat(statistics.getHits(), equalTo(1L));
+        assertThat(statistics.getMisses(), equalTo(2L));
+        assertThat(statistics.getEntries(), equalTo(1));
+        assertTrue(statistics.getSizeBytes() > ResultCache.ENTRY_OVERHEAD_BYTES);
+    }
+
+    @Test
+    public void resultsExpireAfterTheirTimeToLive() throws Exception {
+        ResultCache resultCache = resultCache(1024L);
+
+        resultCache.put(key("quote", "apple"), any("2.50"), resultCache.version());
+
+        Thread.sleep(50L);
+
+        assertThat(resultCache.get(key("quote", "apple")), nullValue());
+
+        ResultCacheStatistics statistics = resultCache.statistics();
+        assertThat(statistics.getExpirations(), equalTo(1L));
+        assertThat(statistics.getEntries(), equalTo(0));
+        assertThat(statistics.getSizeBytes(), equalTo(0L));
+    }
+
+    @Test
+    public void resultsOfInvocationsStartedBeforeAnInvalidationAreNotCached() throws Exception {
+        ResultCache resultCache = resultCache(1024L);
+
+        long version = resultCache.version();
+        resultCache.invalidate(Collections.singletonList("price"));
+        resultCache.put(key("price", "apple"), any("2.50"), version);
+
+        assertThat(resultCache.get(key("price", "apple")), nullValue());
+
+        resultCache.put(key("price", "apple"), any("2.50"), resultCache.version());
+
+        assertThat(resultCache.get(key("price", "apple")), equalTo(any("2.50")));
+    }
+
+    @Test
+    public void leastRecentlyUsedResultsAreEvictedWhenTheCacheIsFull() throws Exception {
+        ResultCache sizing = resultCache(1024L);
+        sizing.put(key("price", "apple"), any("1"), sizing.version());
+        long entrySize = sizing.statistics().getSizeBytes();
+
+        // room for 2 entries of the same size only
+        ResultCache resultCache = resultCache(entrySize * 2 + entrySize / 2);
+
+        resultCache.put(key("price", "apple"), any("1"), resultCache.version());
+        resultCache.put(key("price", "grape"), any("2"), resultCache.version());
+
+        // use apple, so that grape becomes the least recently used result
+        assertThat(resultCache.get(key("price", "apple")), equalTo(any("1")));
+
+        resultCache.put(key("price", "lemon"), any("3"), resultCache.version());
+
+        assertThat(resultCache.get(key("price", "grape")), nullValue());
+        assertThat(resultCache.get(key("price", "apple")), equalTo(any("1")));
+        assertThat(resultCache.get(key("price", "lemon")), equalTo(any("3")));
+
+        ResultCacheStatistics statistics = resultCache.statistics();
+        assertThat(statistics.getEvictions(), equalTo(1L));
+        assertThat(statistics.getEntries(), equalTo(2));
+        assertThat(statistics.getSizeBytes(), equalTo(entrySize * 2));
+    }
+
+}
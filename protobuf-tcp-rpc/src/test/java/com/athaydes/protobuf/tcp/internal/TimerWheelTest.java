@@ -0,0 +1,92 @@
+package com.athaydes.protobuf.tcp.internal;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class TimerWheelTest {
+
+    // a small wheel, so that some timeouts take more than one rotation to expire
+    private final TimerWheel wheel = new TimerWheel(1L, TimeUnit.MILLISECONDS, 4,
+            Utils.daemonThreadFactory("timer-wheel-test-"));
+
+    @After
+    public void cleanup() {
+        wheel.stop();
+    }
+
+    @Test
+    public void timeoutsRunAfterTheirDelay() throws Exception {
+        CountDownLatch latch = new CountDownLatch(1);
+        long startNanos = System.nanoTime();
+        AtomicInteger elapsedMillis = new AtomicInteger();
+
+        wheel.schedule(() -> {
+            elapsedMillis.set((int) TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+            latch.countDown();
+        }, 50L, TimeUnit.MILLISECONDS);
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertTrue("Timeout ran too early: " + elapsedMillis + "ms", elapsedMillis.get() >= 50);
+    }
+
+    @Test
+    public void timeoutsLongerThanARotationOfTheWheelRunInOrder() throws Exception {
+        // the delays are far apart, so that the order does not depend on how quickly the timeouts are scheduled
+        CountDownLatch latch = new CountDownLatch(3);
+        StringBuffer order = new StringBuffer();
+
+        wheel.schedule(() -> {
+            order.append('c');
+            latch.countDown();
+        }, 300L, TimeUnit.MILLISECONDS);
+        wheel.schedule(() -> {
+            order.append('a');
+            latch.countDown();
+        }, 0L, TimeUnit.MILLISECONDS);
+        wheel.schedule(() -> {
+            order.append('b');
+            latch.countDown();
+        }, 10L, TimeUnit.MILLISECONDS);
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertThat(order.toString(), equalTo("abc"));
+    }
+
+    @Test
+    public void cancelledTimeoutsDoNotRun() throws Exception {
+        AtomicInteger runs = new AtomicInteger();
+        CountDownLatch latch = new CountDownLatch(1);
+
+        TimerWheel.Timeout cancelled = wheel.schedule(runs::incrementAndGet, 10L, TimeUnit.MILLISECONDS);
+        wheel.schedule(latch::countDown, 20L, TimeUnit.MILLISECONDS);
+
+        assertTrue(cancelled.cancel());
+        assertTrue(cancelled.isCancelled());
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertThat(runs.get(), equalTo(0));
+
+        // timeouts cannot be cancelled twice
+        assertFalse(cancelled.cancel());
+    }
+
+    @Test
+    public void expiredTimeoutsCannotBeCancelled() throws Exception {
+        CountDownLatch latch = new CountDownLatch(1);
+
+        TimerWheel.Timeout timeout = wheel.schedule(latch::countDown, 1L, TimeUnit.MILLISECONDS);
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertFalse(timeout.cancel());
+        assertFalse(timeout.isCancelled());
+    }
+
+}
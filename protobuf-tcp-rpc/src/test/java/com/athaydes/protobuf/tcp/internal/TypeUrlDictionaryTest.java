@@ -0,0 +1,89 @@
+package com.athaydes.protobuf.tcp.internal;
+
+import com.google.protobuf.Any;
+import com.google.protobuf.Int32Value;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.StringValue;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Test;
+
+import static java.util.Collections.singletonMap;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class TypeUrlDictionaryTest {
+
+    private final TypeUrlDictionary sender = new TypeUrlDictionary();
+    private final TypeUrlDictionary receiver = new TypeUrlDictionary();
+
+    private Any roundTrip(Any any) throws InvalidProtocolBufferException {
+        Map<Integer, String> registrations = new HashMap<>();
+        Any compacted = sender.compact(any, registrations);
+        receiver.register(registrations);
+        return receiver.expand(compacted);
+    }
+
+    @Test
+    public void typesAreRegisteredOnlyOnce() {
+        Any hello = Any.pack(StringValue.newBuilder().setValue("hello").build());
+        Any number = Any.pack(Int32Value.newBuilder().setValue(42).build());
+
+        Map<Integer, String> registrations = new HashMap<>();
+        assertThat(sender.compact(hello, registrations).getTypeUrl(), equalTo("#1"));
+        assertThat(registrations, equalTo(singletonMap(1, hello.getTypeUrl())));
+
+        registrations.clear();
+        assertThat(sender.compact(hello, registrations).getTypeUrl(), equalTo("#1"));
+        assertThat(registrations.isEmpty(), is(true));
+
+        assertThat(sender.compact(number, registrations).getTypeUrl(), equalTo("#2"));
+        assertThat(registrations, equalTo(singletonMap(2, number.getTypeUrl())));
+    }
+
+    @Test
+    public void compactedMessagesCanBeExpanded() throws Exception {
+        Any hello = Any.pack(StringValue.newBuilder().setValue("hello").build());
+        Any bye = Any.pack(StringValue.newBuilder().setValue("bye").build());
+        Any number = Any.pack(Int32Value.newBuilder().setValue(42).build());
+
+        assertThat(roundTrip(hello), equalTo(hello));
+        assertThat(roundTrip(bye), equalTo(bye));
+        assertThat(roundTrip(number), equalTo(number));
+    }
+
+    @Test
+    public void fullTypeUrlsAreNotChangedByExpand() throws Exception {
+        Any hello = Any.pack(StringValue.newBuilder().setValue("hello").build());
+        assertThat(receiver.expand(hello), sameInstance(hello));
+    }
+
+    @Test(expected = InvalidProtocolBufferException.class)
+    public void unknownTypeIdsCannotBeExpanded() throws Exception {
+        receiver.expand(Any.newBuilder().setTypeUrl("#1").build());
+    }
+
+    @Test
+    public void typesAreNotRegisteredAfterTheDictionaryIsFull() {
+        Map<Integer, String> registrations = new HashMap<>();
+        for (int i = 0; i < TypeUrlDictionary.MAX_TYPES; i++) {
+            sender.compact(Any.newBuilder().setTypeUrl("type/" + i).build(), registrations);
+        }
+        assertThat(registrations.size(), equalTo(TypeUrlDictionary.MAX_TYPES));
+
+        Any other = Any.newBuilder().setTypeUrl("type/other").build();
+        assertThat(sender.compact(other, registrations), sameInstance(other));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void tooManyRegistrationsAreRejected() {
+        Map<Integer, String> registrations = new HashMap<>();
+        for (int i = 0; i <= TypeUrlDictionary.MAX_TYPES; i++) {
+            registrations.put(i + 1, "type/" + i);
+        }
+        receiver.register(registrations);
+    }
+
+}
@@ -1,5 +1,8 @@
 package com.athaydes.osgi.rsa.provider.protobuf;
 
+import com.athaydes.protobuf.tcp.api.BackoffRetryPolicy;
+import com.athaydes.protobuf.tcp.api.ClientOptions;
+import com.athaydes.protobuf.tcp.api.ServerOptions;
 import org.apache.aries.rsa.spi.DistributionProvider;
 import org.osgi.framework.BundleActivator;
 import org.osgi.framework.BundleContext;
@@ -9,8 +12,36 @@ import java.util.Dictionary;
 import java.util.Hashtable;
 import java.util.concurrent.atomic.AtomicReference;
 
+import static com.athaydes.osgi.rsa.provider.protobuf.ProtobufProvider.DOMAIN;
+
 /**
  * The Protobuf-TCP RSA Provider Bundle-Activator.
+ * <p>
+ * If the framework property {@code com.athaydes.protobuf.ioThreads} is set, a channel group with that number
+ * of threads is shared by all services exported by the provider, unless a service requests its own
+ * channel group. Similarly, if the framework property {@code com.athaydes.protobuf.workerThreads} is set,
+ * a worker thread pool with that number of threads is shared by all exported services to run service methods.
+ * If the framework property {@code com.athaydes.protobuf.virtualThreads} is {@code true}, exported services run
+ * their methods on virtual threads by default (requires JDK 21+).
+ * <p>
+ * The framework property {@code com.athaydes.protobuf.maxConnections} limits the number of connections each
+ * imported service may open to its remote endpoint. If {@code com.athaydes.protobuf.multiplexedConnections} is set,
+ * imported services of the same endpoint share that number of multiplexed connections instead, and
+ * {@code com.athaydes.protobuf.batchWindowMicros} sets the time window within which their calls are batched.
+ * <p>
+ * Imported services cache the results of the methods listed in {@code com.athaydes.protobuf.cachedMethods}, a comma
+ * separated list of {@code methodName:ttlMillis} entries (e.g. {@code getConfig:30000,lookup:5000}). The property
+ * {@code com.athaydes.protobuf.maxCachedResults} limits the number of results cached by each imported service.
+ * <p>
+ * The framework property {@code com.athaydes.protobuf.callTimeoutMillis} sets the timeout of the calls made to
+ * imported services, and {@code com.athaydes.protobuf.connectTimeoutMillis} limits the time taken to open connections
+ * to their remote endpoints.
+ * <p>
+ * Calls to idempotent methods of imported services are retried at most {@code com.athaydes.protobuf.maxRetryAttempts}
+ * times in total, and retries are limited to {@code com.athaydes.protobuf.retryBudgetPercent} percent of the calls
+ * (see {@link BackoffRetryPolicy}). Calls to idempotent methods that take longer than
+ * {@code com.athaydes.protobuf.hedgeDelayMillis}, or than the {@code com.athaydes.protobuf.hedgeDelayPercentile}
+ * percentile of the recent calls if that is also set, are hedged, which requires multiplexed connections.
  */
 public class Activator implements BundleActivator {
 
@@ -18,7 +49,78 @@ public class Activator implements BundleActivator {
 
     @Override
     public void start(BundleContext context) throws Exception {
-        ProtobufProvider provider = new ProtobufProvider();
+        ServerOptions.Builder serverOptions = ServerOptions.newBuilder();
+        String ioThreads = context.getProperty(DOMAIN + ".ioThreads");
+        if (ioThreads != null) {
+            serverOptions.ioThreads(Integer.parseInt(ioThreads.trim()));
+        }
+        String workerThreads = context.getProperty(DOMAIN + ".workerThreads");
+        if (workerThreads != null) {
+            serverOptions.workerThreads(Integer.parseInt(workerThreads.trim()));
+        }
+        String virtualThreads = context.getProperty(DOMAIN + ".virtualThreads");
+        if (virtualThreads != null) {
+            serverOptions.virtualThreads(Boolean.parseBoolean(virtualThreads.trim()));
+        }
+
+        ClientOptions.Builder clientOptions = ClientOptions.newBuilder();
+        String maxConnections = context.getProperty(DOMAIN + ".maxConnections");
+        if (maxConnections != null) {
+            clientOptions.maxConnections(Integer.parseInt(maxConnections.trim()));
+        }
+        String multiplexedConnections = context.getProperty(DOMAIN + ".multiplexedConnections");
+        if (multiplexedConnections != null) {
+            clientOptions.multiplexedConnections(Integer.parseInt(multiplexedConnections.trim()));
+        }
+        String batchWindowMicros = context.getProperty(DOMAIN + ".batchWindowMicros");
+        if (batchWindowMicros != null) {
+            clientOptions.batchWindowMicros(Long.parseLong(batchWindowMicros.trim()));
+        }
+        String cachedMethods = context.getProperty(DOMAIN + ".cachedMethods");
+        if (cachedMethods != null) {
+            for (String entry : cachedMethods.split(",")) {
+                String[] parts = entry.split(":");
+                if (parts.length != 2) {
+                    throw new IllegalArgumentException("Invalid " + DOMAIN + ".cachedMethods entry " +
+                            "(expected methodName:ttlMillis): " + entry);
+                }
+                clientOptions.cacheResults(parts[0].trim(), Long.parseLong(parts[1].trim()));
+            }
+        }
+        String maxCachedResults = context.getProperty(DOMAIN + ".maxCachedResults");
+        if (maxCachedResults != null) {
+            clientOptions.maxCachedResults(Integer.parseInt(maxCachedResults.trim()));
+        }
+        String callTimeoutMillis = context.getProperty(DOMAIN + ".callTimeoutMillis");
+        if (callTimeoutMillis != null) {
+            clientOptions.callTimeoutMillis(Long.parseLong(callTimeoutMillis.trim()));
+        }
+        String connectTimeoutMillis = context.getProperty(DOMAIN + ".connectTimeoutMillis");
+        if (connectTimeoutMillis != null) {
+            clientOptions.connectTimeoutMillis(Long.parseLong(connectTimeoutMillis.trim()));
+        }
+        String maxRetryAttempts = context.getProperty(DOMAIN + ".maxRetryAttempts");
+        String retryBudgetPercent = context.getProperty(DOMAIN + ".retryBudgetPercent");
+        if (maxRetryAttempts != null || retryBudgetPercent != null) {
+            BackoffRetryPolicy.Builder retryPolicy = BackoffRetryPolicy.newBuilder();
+            if (maxRetryAttempts != null) {
+                retryPolicy.maxAttempts(Integer.parseInt(maxRetryAttempts.trim()));
+            }
+            if (retryBudgetPercent != null) {
+                retryPolicy.retryBudgetPercent(Double.parseDouble(retryBudgetPercent.trim()));
+            }
+            clientOptions.retryPolicy(retryPolicy.build());
+        }
+        String hedgeDelayMillis = context.getProperty(DOMAIN + ".hedgeDelayMillis");
+        if (hedgeDelayMillis != null) {
+            clientOptions.hedgeDelayMillis(Long.parseLong(hedgeDelayMillis.trim()));
+        }
+        String hedgeDelayPercentile = context.getProperty(DOMAIN + ".hedgeDelayPercentile");
+        if (hedgeDelayPercentile != null) {
+            clientOptions.hedgeDelayPercentile(Double.parseDouble(hedgeDelayPercentile.trim()));
+        }
+
+        ProtobufProvider provider = new ProtobufProvider(serverOptions.build(), clientOptions.build());
 
         providerRef.set(provider);
 
@@ -1,6 +1,7 @@
 package com.athaydes.osgi.rsa.provider.protobuf;
 
 import com.athaydes.protobuf.tcp.api.RemoteServices;
+import com.athaydes.protobuf.tcp.api.ServerOptions;
 import com.athaydes.protobuf.tcp.api.ServicePropertyReader;
 import com.athaydes.protobuf.tcp.api.ServiceReference;
 import java.io.IOException;
@@ -14,6 +15,25 @@ import static com.athaydes.osgi.rsa.provider.protobuf.ProtobufProvider.DOMAIN;
 /**
  * <a href="http://aries.apache.org/modules/rsa.html">Apache Aries RSA</a> {@link Endpoint}
  * implementation for the protobuf-tcp-rsa-provider module.
+ * <p>
+ * The following service properties are supported:
+ * <ul>
+ * <li>{@code com.athaydes.protobuf.port} - port to bind the service to.</li>
+ * <li>{@code com.athaydes.protobuf.hostname} - host name advertised in the endpoint ID.</li>
+ * <li>{@code com.athaydes.protobuf.ioThreads} - number of threads of a dedicated channel group for
+ * the service's I/O. If not set, the provider's default channel group is used.</li>
+ * <li>{@code com.athaydes.protobuf.workerThreads} - number of threads of a dedicated worker thread pool to
+ * run the service's methods. If not set, the provider's default executor is used.</li>
+ * <li>{@code com.athaydes.protobuf.virtualThreads} - if {@code true}, run the service's methods on virtual threads
+ * (requires JDK 21+, otherwise ignored).</li>
+ * <li>{@code com.athaydes.protobuf.pooledBuffersPerSize} - maximum number of idle buffers of each size kept in
+ * the service's buffer pool (0 disables pooling).</li>
+ * <li>{@code com.athaydes.protobuf.directBuffers} - if {@code true}, pool direct buffers instead of heap buffers.</li>
+ * <li>{@code com.athaydes.protobuf.resultCacheMaxBytes} - maximum size of the cache of results of the service's
+ * cacheable methods (0 disables caching).</li>
+ * <li>{@code com.athaydes.protobuf.idleTimeoutMillis} - time after which the service closes connections on which
+ * clients send nothing (0 keeps idle connections open).</li>
+ * </ul>
  */
 public class ProtobufEndpoint implements Endpoint {
 
@@ -23,7 +43,8 @@ public class ProtobufEndpoint implements Endpoint {
 
     ProtobufEndpoint(Object service,
                      Map<String, Object> effectiveProperties,
-                     Class[] exportedInterfaces) {
+                     Class[] exportedInterfaces,
+                     ServerOptions defaultOptions) {
         if (service == null) {
             throw new NullPointerException("Service must not be null");
         }
@@ -39,7 +60,9 @@ public class ProtobufEndpoint implements Endpoint {
         String hostName = reader.getStringFrom(effectiveProperties, DOMAIN + ".hostname")
                 .orElse("localhost");
 
-        this.server = RemoteServices.createService(service, port, exportedInterfaces);
+        ServerOptions options = serverOptions(reader, effectiveProperties, defaultOptions);
+
+        this.server = RemoteServices.createService(service, port, options, exportedInterfaces);
 
         String endpointId = String.format("tcp://%s:%s", hostName, port);
         effectiveProperties.put(RemoteConstants.ENDPOINT_ID, endpointId);
@@ -48,6 +71,47 @@ public class ProtobufEndpoint implements Endpoint {
         this.serverThread = new Thread(server, description.getId());
     }
 
+    private static ServerOptions serverOptions(ServicePropertyReader reader,
+                                               Map<String, Object> effectiveProperties,
+                                               ServerOptions defaultOptions) {
+        ServerOptions.Builder builder = defaultOptions.toBuilder();
+
+        reader.getIntFrom(effectiveProperties, DOMAIN + ".ioThreads").ifPresent(ioThreads ->
+                // the service requires its own channel group
+                builder.channelGroup(null).ioThreads(ioThreads));
+
+        reader.getIntFrom(effectiveProperties, DOMAIN + ".workerThreads").ifPresent(workerThreads ->
+                // the service requires its own worker thread pool
+                builder.executor(null).workerThreads(workerThreads));
+
+        reader.getStringFrom(effectiveProperties, DOMAIN + ".virtualThreads")
+                .map(value -> Boolean.parseBoolean(value.trim()))
+                .ifPresent(virtualThreads -> {
+                    if (virtualThreads) {
+                        // virtual threads take precedence over the provider's shared executor
+                        builder.executor(null);
+                    }
+                    builder.virtualThreads(virtualThreads);
+                });
+
+        reader.getIntFrom(effectiveProperties, DOMAIN + ".pooledBuffersPerSize")
+                .ifPresent(builder::pooledBuffersPerSize);
+
+        reader.getStringFrom(effectiveProperties, DOMAIN + ".directBuffers")
+                .map(value -> Boolean.parseBoolean(value.trim()))
+                .ifPresent(builder::directBuffers);
+
+        reader.getStringFrom(effectiveProperties, DOMAIN + ".resultCacheMaxBytes")
+                .map(value -> Long.parseLong(value.trim()))
+                .ifPresent(builder::resultCacheMaxBytes);
+
+        reader.getStringFrom(effectiveProperties, DOMAIN + ".idleTimeoutMillis")
+                .map(value -> Long.parseLong(value.trim()))
+                .ifPresent(builder::idleTimeoutMillis);
+
+        return builder.build();
+    }
+
     @Override
     public EndpointDescription description() {
         return description;
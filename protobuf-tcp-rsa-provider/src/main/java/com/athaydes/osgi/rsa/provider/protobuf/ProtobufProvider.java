@@ -1,11 +1,19 @@
 package com.athaydes.osgi.rsa.provider.protobuf;
 
+import com.athaydes.protobuf.tcp.api.ClientOptions;
 import com.athaydes.protobuf.tcp.api.RemoteServices;
+import com.athaydes.protobuf.tcp.api.ServerOptions;
 import java.io.Closeable;
+import java.io.IOException;
 import java.net.URI;
+import java.nio.channels.AsynchronousChannelGroup;
 import java.util.Deque;
 import java.util.Map;
 import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.aries.rsa.spi.DistributionProvider;
 import org.apache.aries.rsa.spi.Endpoint;
 import org.apache.aries.rsa.spi.IntentUnsatisfiedException;
@@ -26,6 +34,61 @@ public class ProtobufProvider implements DistributionProvider {
     private static final Logger log = LoggerFactory.getLogger(ProtobufProvider.class);
 
     private final Deque<AutoCloseable> closeables = new ConcurrentLinkedDeque<>();
+    private final ServerOptions serverOptions;
+    private final ClientOptions clientOptions;
+    private final AsynchronousChannelGroup sharedChannelGroup;
+    private final ExecutorService sharedExecutor;
+
+    /**
+     * Create a provider whose exported services use the given server options by default.
+     * <p>
+     * If the options require a dedicated channel group (i.e. {@link ServerOptions#getIoThreads()} is positive),
+     * a single channel group is created by this provider and shared by all services it exports.
+     * The same is done for a worker thread pool (i.e. if {@link ServerOptions#getWorkerThreads()} is positive).
+     * Shared resources are shut down when the provider is stopped.
+     *
+     * @param serverOptions default options for the servers of exported services
+     * @throws IOException if the shared channel group cannot be created
+     */
+    public ProtobufProvider(ServerOptions serverOptions) throws IOException {
+        this(serverOptions, ClientOptions.defaults());
+    }
+
+    /**
+     * Create a provider whose exported services use the given server options by default, and whose imported
+     * services use the given client options.
+     *
+     * @param serverOptions default options for the servers of exported services
+     * @param clientOptions options for the clients of imported services
+     * @throws IOException if the shared channel group cannot be created
+     * @see #ProtobufProvider(ServerOptions)
+     */
+    public ProtobufProvider(ServerOptions serverOptions, ClientOptions clientOptions) throws IOException {
+        this.clientOptions = clientOptions;
+        ServerOptions.Builder sharedOptions = serverOptions.toBuilder();
+
+        if (serverOptions.getIoThreads() > 0 && !serverOptions.getChannelGroup().isPresent()) {
+            log.info("Creating shared channel group with {} threads", serverOptions.getIoThreads());
+            this.sharedChannelGroup = AsynchronousChannelGroup.withFixedThreadPool(serverOptions.getIoThreads(),
+                    serverOptions.getIoThreadFactory().orElseGet(() -> daemonThreadFactory(DOMAIN + "-io-")));
+            sharedOptions.channelGroup(sharedChannelGroup).ioThreads(0);
+        } else {
+            this.sharedChannelGroup = null;
+        }
+
+        // with virtual threads, the worker threads are only a per-service fallback for older JVMs
+        if (serverOptions.getWorkerThreads() > 0 && !serverOptions.getExecutor().isPresent()
+                && !serverOptions.isVirtualThreads()) {
+            log.info("Creating shared worker thread pool with {} threads", serverOptions.getWorkerThreads());
+            this.sharedExecutor = Executors.newFixedThreadPool(serverOptions.getWorkerThreads(),
+                    daemonThreadFactory(DOMAIN + "-worker-"));
+            sharedOptions.executor(sharedExecutor).workerThreads(0);
+        } else {
+            this.sharedExecutor = null;
+        }
+
+        this.serverOptions = sharedOptions.build();
+    }
 
     @Override
     public String[] getSupportedTypes() {
@@ -38,7 +101,8 @@ public class ProtobufProvider implements DistributionProvider {
                                   Map<String, Object> effectiveProperties,
                                   Class[] exportedInterfaces) {
         effectiveProperties.put(RemoteConstants.SERVICE_IMPORTED_CONFIGS, getSupportedTypes());
-        ProtobufEndpoint endpoint = new ProtobufEndpoint(serviceO, effectiveProperties, exportedInterfaces);
+        ProtobufEndpoint endpoint = new ProtobufEndpoint(serviceO, effectiveProperties, exportedInterfaces,
+                serverOptions);
         log.info("Exporting service of type {} with properties {}", serviceO.getClass().getSimpleName(),
                 effectiveProperties);
         closeables.add(endpoint);
@@ -54,7 +118,7 @@ public class ProtobufProvider implements DistributionProvider {
             throws IntentUnsatisfiedException {
         try {
             URI address = new URI(endpoint.getId());
-            Closeable client = RemoteServices.createClient(address, interfaces, cl);
+            Closeable client = RemoteServices.createClient(address, interfaces, cl, clientOptions);
             if (log.isInfoEnabled()) {
                 log.info("Imported Endpoint with interfaces {}, description: {}",
                         endpoint.getInterfaces(), endpoint);
@@ -75,5 +139,26 @@ public class ProtobufProvider implements DistributionProvider {
                 e.printStackTrace();
             }
         }
+        if (sharedChannelGroup != null) {
+            log.info("Shutting down shared channel group");
+            try {
+                sharedChannelGroup.shutdownNow();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        if (sharedExecutor != null) {
+            log.info("Shutting down shared worker thread pool");
+            sharedExecutor.shutdown();
+        }
+    }
+
+    private static ThreadFactory daemonThreadFactory(String namePrefix) {
+        AtomicInteger threadCount = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, namePrefix + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
     }
 }